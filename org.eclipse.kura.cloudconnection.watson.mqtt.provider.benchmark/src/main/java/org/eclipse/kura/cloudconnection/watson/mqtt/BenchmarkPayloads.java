@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+
+/**
+ * Builds {@link KuraPayload} instances with a realistic mix of metric types for the benchmarks.
+ *
+ */
+public final class BenchmarkPayloads {
+
+    private static final long SEED = 42;
+
+    private BenchmarkPayloads() {
+    }
+
+    public static KuraPayload create(final int metricCount, final boolean withPosition, final int bodySize) {
+        final Random random = new Random(SEED);
+        final KuraPayload payload = new KuraPayload();
+
+        payload.setTimestamp(new Date(1546300800000L));
+
+        for (int i = 0; i < metricCount; i++) {
+            payload.addMetric("sensor." + i, createMetric(i, random));
+        }
+
+        if (withPosition) {
+            payload.setPosition(createPosition());
+        }
+
+        if (bodySize > 0) {
+            final byte[] body = new byte[bodySize];
+            random.nextBytes(body);
+            payload.setBody(body);
+        }
+
+        return payload;
+    }
+
+    private static Object createMetric(final int index, final Random random) {
+        switch (index % 7) {
+        case 0:
+            return random.nextDouble() * 100;
+        case 1:
+            return random.nextFloat() * 10;
+        case 2:
+            return random.nextInt(100000);
+        case 3:
+            return System.currentTimeMillis() + random.nextInt(1000);
+        case 4:
+            return random.nextBoolean();
+        case 5:
+            return "status-" + random.nextInt(10);
+        default:
+            final byte[] raw = new byte[16];
+            random.nextBytes(raw);
+            return raw;
+        }
+    }
+
+    private static KuraPosition createPosition() {
+        final KuraPosition position = new KuraPosition();
+        position.setLatitude(45.4642);
+        position.setLongitude(9.19);
+        position.setAltitude(122.5);
+        position.setHeading(270.0);
+        position.setPrecision(1.5);
+        position.setSatellites(9);
+        position.setSpeed(12.25);
+        position.setTimestamp(new Date(1546300800000L));
+        position.setStatus(1);
+        return position;
+    }
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the benchmarks of this fragment with the GC profiler enabled and writes the results as JSON, in the
+ * format expected for the baselines under {@code baseline/}.
+ *
+ */
+public final class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final String includes = args.length > 1 ? args[1] : "org\\.eclipse\\.kura\\.cloudconnection\\.watson\\.mqtt\\..*";
+
+        final Options options = new OptionsBuilder() //
+                .include(includes) //
+                .addProfiler(GCProfiler.class) //
+                .resultFormat(ResultFormatType.JSON) //
+                .result(args.length > 0 ? args[0] : DEFAULT_RESULT_FILE) //
+                .build();
+
+        new Runner(options).run();
+    }
+}
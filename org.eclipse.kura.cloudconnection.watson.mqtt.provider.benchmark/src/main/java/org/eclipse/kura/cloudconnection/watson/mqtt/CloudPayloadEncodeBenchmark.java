@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the {@link KuraPayload} encoders. Run with the GC profiler to also get the bytes
+ * allocated per operation ({@code gc.alloc.rate.norm}).
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CloudPayloadEncodeBenchmark {
+
+    @Param({ "5", "50", "500" })
+    private int metrics;
+
+    @Param({ "false", "true" })
+    private boolean position;
+
+    @Param({ "0", "65536" })
+    private int bodySize;
+
+    private KuraPayload payload;
+    private MetricNameCache metricNameCache;
+
+    @Setup
+    public void setup() {
+        this.payload = BenchmarkPayloads.create(this.metrics, this.position, this.bodySize);
+        this.metricNameCache = new MetricNameCache(1024);
+    }
+
+    @Benchmark
+    public byte[] jsonEncoder() {
+        return CloudPayloadJsonEncoder.getBytes(this.payload);
+    }
+
+    @Benchmark
+    public byte[] jsonStreamEncoder() {
+        return CloudPayloadJsonStreamEncoder.getBytes(this.payload);
+    }
+
+    @Benchmark
+    public byte[] jsonStreamEncoderWithNameCache() {
+        return CloudPayloadJsonStreamEncoder.getBytes(this.payload, this.metricNameCache);
+    }
+
+    @Benchmark
+    public byte[] cborEncoder() {
+        return CloudPayloadCborEncoder.getBytes(this.payload);
+    }
+
+    @Benchmark
+    public byte[] msgPackEncoder() {
+        return CloudPayloadMsgPackEncoder.getBytes(this.payload);
+    }
+}
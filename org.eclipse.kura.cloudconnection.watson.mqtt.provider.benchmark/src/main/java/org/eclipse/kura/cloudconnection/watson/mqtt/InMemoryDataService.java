@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.kura.data.DataService;
+import org.eclipse.kura.data.listener.DataServiceListener;
+
+/**
+ * {@link DataService} stand-in that accepts every publish without storing or sending it, so that the benchmarks
+ * only measure the work done by this bundle.
+ * <p>
+ * Each published message is immediately reported as published to the listeners and, with QoS greater than 0, as
+ * confirmed, from within the {@code publish} call, so that the QoS 1 benchmarks also measure the tracking and the
+ * routing of the confirmations.
+ *
+ */
+public class InMemoryDataService implements DataService {
+
+    private final AtomicInteger messageId = new AtomicInteger();
+    private final LongAdder publishedBytes = new LongAdder();
+    private final LongAdder confirmedMessages = new LongAdder();
+    private final List<DataServiceListener> listeners = new CopyOnWriteArrayList<>();
+
+    public long getPublishedBytes() {
+        return this.publishedBytes.sum();
+    }
+
+    public long getConfirmedMessages() {
+        return this.confirmedMessages.sum();
+    }
+
+    @Override
+    public void connect() {
+        // noop
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isAutoConnectEnabled() {
+        return false;
+    }
+
+    @Override
+    public int getRetryInterval() {
+        return 0;
+    }
+
+    @Override
+    public void disconnect(long quiesceTimeout) {
+        // noop
+    }
+
+    @Override
+    public void subscribe(String topic, int qos) {
+        // noop
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        // noop
+    }
+
+    @Override
+    public int publish(String topic, byte[] payload, int qos, boolean retain, int priority) {
+        this.publishedBytes.add(payload.length);
+        final int id = this.messageId.incrementAndGet();
+
+        for (final DataServiceListener listener : this.listeners) {
+            listener.onMessagePublished(id, topic);
+            if (qos > 0) {
+                listener.onMessageConfirmed(id, topic);
+            }
+        }
+        if (qos > 0) {
+            this.confirmedMessages.increment();
+        }
+        return id;
+    }
+
+    @Override
+    public List<Integer> getUnpublishedMessageIds(String topicRegex) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Integer> getInFlightMessageIds(String topicRegex) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Integer> getDroppedInFlightMessageIds(String topicRegex) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void addDataServiceListener(DataServiceListener listener) {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public void removeDataServiceListener(DataServiceListener listener) {
+        this.listeners.remove(listener);
+    }
+}
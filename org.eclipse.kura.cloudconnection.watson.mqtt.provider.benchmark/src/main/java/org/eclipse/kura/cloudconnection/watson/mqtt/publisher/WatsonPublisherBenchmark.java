@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.message.KuraMessage;
+import org.eclipse.kura.cloudconnection.watson.mqtt.BenchmarkPayloads;
+import org.eclipse.kura.cloudconnection.watson.mqtt.InMemoryDataService;
+import org.eclipse.kura.cloudconnection.watson.mqtt.WatsonCloudEndpoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link WatsonPublisher#publish(KuraMessage)} end to end, from the publisher down to the
+ * {@link org.eclipse.kura.data.DataService}, with one publisher shared by 1, 4 and 16 producer threads.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class WatsonPublisherBenchmark {
+
+    @Param({ "5", "50" })
+    private int metrics;
+
+    @Param({ "0", "1" })
+    private int qos;
+
+    private WatsonCloudEndpoint endpoint;
+    private WatsonPublisher publisher;
+    private KuraMessage message;
+
+    @Setup
+    public void setup() {
+        this.endpoint = new WatsonCloudEndpoint();
+        this.endpoint.bindDataService(new InMemoryDataService());
+        // registers the endpoint as listener of the DataService, to receive the confirmations
+        this.endpoint.activateInternal();
+
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("qos", this.qos);
+
+        this.publisher = new WatsonPublisher();
+        this.publisher.setOptions(new WatsonPublisherOptions(properties));
+        this.publisher.setCloudConnectionService(this.endpoint);
+
+        this.message = new KuraMessage(BenchmarkPayloads.create(this.metrics, true, 0));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.publisher.unsetCloudConnectionService();
+        this.endpoint.deactivateInternal();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String publish1Thread() throws KuraException {
+        return this.publisher.publish(this.message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String publish4Threads() throws KuraException {
+        return this.publisher.publish(this.message);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String publish16Threads() throws KuraException {
+        return this.publisher.publish(this.message);
+    }
+}
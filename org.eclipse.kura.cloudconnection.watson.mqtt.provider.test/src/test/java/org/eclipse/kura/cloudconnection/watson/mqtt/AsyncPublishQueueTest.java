@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.KuraErrorCode;
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.message.KuraMessage;
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.After;
+import org.junit.Test;
+
+public class AsyncPublishQueueTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private final List<KuraMessage> published = new CopyOnWriteArrayList<>();
+    private final List<String> publishedIds = new CopyOnWriteArrayList<>();
+    // the worker holds the first message until released, so that the following ones stay queued
+    private final CountDownLatch firstTaken = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private AsyncPublishQueue queue;
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        if (this.queue != null) {
+            this.queue.close();
+        }
+    }
+
+    @Test
+    public void testCapacityIsRoundedUp() {
+        this.release.countDown();
+        this.queue = newQueue(5);
+
+        assertEquals(8, this.queue.getCapacity());
+    }
+
+    @Test
+    public void testWraparoundKeepsTheOrder() throws InterruptedException {
+        this.release.countDown();
+        this.queue = newQueue(4);
+        final KuraMessage[] messages = messages(1000);
+
+        // many times the lane size, offered faster than the worker drains them
+        int rejected = 0;
+        for (int i = 0; i < messages.length; i++) {
+            while (!this.queue.offer(messages[i], "id-" + i, PublishPriority.NORMAL)) {
+                rejected++;
+                Thread.sleep(1);
+            }
+        }
+
+        awaitPublished(messages.length);
+        assertEquals(Arrays.asList(messages), this.published);
+        assertEquals("id-999", this.publishedIds.get(999));
+        assertEquals(0, this.queue.getDepth());
+        assertEquals(messages.length, this.queue.getEnqueuedCount());
+        assertEquals(rejected, this.queue.getDroppedCount());
+    }
+
+    @Test
+    public void testFullLane() throws InterruptedException {
+        this.queue = newQueue(4);
+        final KuraMessage[] messages = messages(7);
+        holdFirst(messages[0]);
+
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(this.queue.offer(messages[i], null, PublishPriority.LOW));
+        }
+        assertFalse(this.queue.offer(messages[5], null, PublishPriority.LOW));
+        assertEquals(4, this.queue.getDepth(PublishPriority.LOW));
+        assertEquals(1, this.queue.getDroppedCount());
+
+        // the lanes are independent
+        assertTrue(this.queue.offer(messages[6], null, PublishPriority.HIGH));
+        assertEquals(5, this.queue.getDepth());
+        assertEquals(6, this.queue.getEnqueuedCount());
+
+        this.release.countDown();
+        awaitPublished(6);
+        assertEquals(messages[6], this.published.get(1));
+        assertEquals(1, this.queue.getDroppedCount());
+    }
+
+    @Test
+    public void testDrainQuotasFollowTheWeights() throws InterruptedException {
+        final List<PublishPriority> priorities = new CopyOnWriteArrayList<>();
+        // a batch of 13 messages is split 8:4:1 among the lanes
+        this.queue = new AsyncPublishQueue(32, 1, 13, (message, messageId, enqueueNanos) -> {
+            this.firstTaken.countDown();
+            try {
+                this.release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            priorities.add(PublishPriority.valueOf(messageId));
+        });
+        assertTrue(this.queue.offer(messages(1)[0], PublishPriority.LOW.name(), PublishPriority.LOW));
+        assertTrue(this.firstTaken.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        for (final PublishPriority priority : PublishPriority.values()) {
+            for (final KuraMessage message : messages(20)) {
+                assertTrue(this.queue.offer(message, priority.name(), priority));
+            }
+        }
+        this.release.countDown();
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (priorities.size() < 61 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(61, priorities.size());
+
+        // the held message, then the first two batches
+        final List<PublishPriority> expected = new ArrayList<>();
+        expected.add(PublishPriority.LOW);
+        for (int batch = 0; batch < 2; batch++) {
+            expected.addAll(Collections.nCopies(8, PublishPriority.HIGH));
+            expected.addAll(Collections.nCopies(4, PublishPriority.NORMAL));
+            expected.add(PublishPriority.LOW);
+        }
+        assertEquals(expected, priorities.subList(0, expected.size()));
+    }
+
+    @Test
+    public void testFailedPublishIsCounted() throws InterruptedException {
+        this.release.countDown();
+        final CountDownLatch attempted = new CountDownLatch(2);
+        this.queue = new AsyncPublishQueue(4, 1, 4, (message, messageId, enqueueNanos) -> {
+            attempted.countDown();
+            throw new KuraException(KuraErrorCode.NOT_CONNECTED);
+        });
+
+        this.queue.offer(messages(1)[0], null, PublishPriority.NORMAL);
+        this.queue.offer(messages(1)[0], null, PublishPriority.NORMAL);
+
+        assertTrue(attempted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (this.queue.getFailedCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, this.queue.getFailedCount());
+        assertEquals(0, this.queue.getDroppedCount());
+    }
+
+    @Test
+    public void testCloseDrainsTheQueue() throws InterruptedException {
+        this.queue = newQueue(4);
+        final KuraMessage[] messages = messages(5);
+        holdFirst(messages[0]);
+        for (int i = 1; i < messages.length; i++) {
+            assertTrue(this.queue.offer(messages[i], null, PublishPriority.NORMAL));
+        }
+
+        final Thread closing = new Thread(this.queue::close);
+        closing.start();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (!this.queue.isClosed() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(this.queue.offer(messages[0], null, PublishPriority.NORMAL));
+
+        this.release.countDown();
+        closing.join(TIMEOUT_MS);
+
+        assertEquals(Arrays.asList(messages), this.published);
+        assertEquals(0, this.queue.getDepth());
+        // the offer rejected after close is counted neither as queued nor as dropped
+        assertEquals(5, this.queue.getEnqueuedCount());
+        assertEquals(0, this.queue.getDroppedCount());
+    }
+
+    private AsyncPublishQueue newQueue(final int capacity) {
+        return new AsyncPublishQueue(capacity, 1, 4, (message, messageId, enqueueNanos) -> {
+            this.firstTaken.countDown();
+            try {
+                this.release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.published.add(message);
+            this.publishedIds.add(String.valueOf(messageId));
+        });
+    }
+
+    private void holdFirst(final KuraMessage message) throws InterruptedException {
+        assertTrue(this.queue.offer(message, null, PublishPriority.NORMAL));
+        assertTrue(this.firstTaken.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private void awaitPublished(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (this.published.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(this.published.size() >= count);
+    }
+
+    private static KuraMessage[] messages(final int count) {
+        final KuraMessage[] messages = new KuraMessage[count];
+        for (int i = 0; i < count; i++) {
+            final KuraPayload payload = new KuraPayload();
+            payload.addMetric("index", i);
+            messages[i] = new KuraMessage(payload);
+        }
+        return messages;
+    }
+}
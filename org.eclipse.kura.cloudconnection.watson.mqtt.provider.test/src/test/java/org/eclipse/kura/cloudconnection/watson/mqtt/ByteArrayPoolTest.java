@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ByteArrayPoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        assertEquals(0, ByteArrayPool.classOf(1));
+        assertEquals(0, ByteArrayPool.classOf(ByteArrayPool.MIN_ARRAY_LENGTH));
+        assertEquals(1, ByteArrayPool.classOf(ByteArrayPool.MIN_ARRAY_LENGTH + 1));
+        assertEquals(1, ByteArrayPool.classOf(128));
+        assertEquals(2, ByteArrayPool.classOf(129));
+        assertEquals(6, ByteArrayPool.classOf(4096));
+        assertEquals(7, ByteArrayPool.classOf(4097));
+    }
+
+    @Test
+    public void testExactLengthHit() {
+        final ByteArrayPool pool = new ByteArrayPool(4096, 4);
+
+        final byte[] array = pool.acquire(100);
+        assertEquals(100, array.length);
+        pool.release(array);
+
+        assertSame(array, pool.acquire(100));
+        assertEquals(1, pool.getHitCount());
+        pool.release(array);
+
+        // same size class, different length
+        final byte[] other = pool.acquire(101);
+        assertNotSame(array, other);
+        assertEquals(101, other.length);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(3, pool.getLeaseCount());
+        assertEquals(1.0 / 3, pool.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testOutstandingLeases() {
+        final ByteArrayPool pool = new ByteArrayPool(1024, 4);
+
+        final byte[] first = pool.acquire(10);
+        final byte[] second = pool.acquire(500);
+        // neither is pooled, but both are counted
+        final byte[] empty = pool.acquire(0);
+        final byte[] large = pool.acquire(2048);
+        assertEquals(4, pool.getOutstandingLeases());
+
+        pool.release(first);
+        pool.release(empty);
+        pool.release(large);
+        assertEquals(1, pool.getOutstandingLeases());
+        pool.release(second);
+        assertEquals(0, pool.getOutstandingLeases());
+    }
+
+    @Test
+    public void testLongArraysAreNotPooled() {
+        final ByteArrayPool pool = new ByteArrayPool(1024, 4);
+
+        final byte[] large = pool.acquire(1025);
+        pool.release(large);
+
+        assertEquals(0, pool.getIdleBytes());
+        assertNotSame(large, pool.acquire(1025));
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void testFullClassKeepsTheLatestArray() {
+        final ByteArrayPool pool = new ByteArrayPool(1024, 1);
+
+        final byte[] first = pool.acquire(100);
+        final byte[] second = pool.acquire(120);
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(120, pool.getIdleBytes());
+        assertSame(second, pool.acquire(120));
+        assertNotSame(first, pool.acquire(100));
+    }
+}
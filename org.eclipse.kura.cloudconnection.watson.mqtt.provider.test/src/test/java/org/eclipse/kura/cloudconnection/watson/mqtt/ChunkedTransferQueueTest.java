@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.listener.CloudDeliveryListener;
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkedTransferQueueTest {
+
+    private static final String TOPIC = "iot-2/evt/file/fmt/json";
+
+    private RecordingDataService dataService;
+    private MqttCloudEndpoint endpoint;
+
+    @Before
+    public void setUp() {
+        this.dataService = new RecordingDataService();
+        this.endpoint = new MqttCloudEndpoint();
+        this.endpoint.bindDataServiceInternal(this.dataService);
+        this.endpoint.activateInternal();
+        this.endpoint.setChunkedTransfers(true, 1000, 2);
+    }
+
+    @After
+    public void tearDown() {
+        this.endpoint.deactivateInternal();
+    }
+
+    @Test
+    public void testChunksReassembleToTheBody() throws Exception {
+        final byte[] body = new byte[1000];
+        new Random(42).nextBytes(body);
+        final KuraPayload payload = new KuraPayload();
+        payload.setBody(body);
+        payload.addMetric("temperature", 21.5);
+
+        final String transferId = this.endpoint.publishChunked(payload, properties(1), 300);
+
+        final List<KuraPayload> chunks = awaitChunks(4);
+        final ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            final KuraPayload chunk = chunks.get(i);
+            assertEquals(transferId, chunk.getMetric(ChunkedTransferQueue.TRANSFER_ID_METRIC));
+            assertEquals(i, ((Number) chunk.getMetric(ChunkedTransferQueue.CHUNK_INDEX_METRIC)).intValue());
+            assertEquals(4, ((Number) chunk.getMetric(ChunkedTransferQueue.CHUNK_TOTAL_METRIC)).intValue());
+            assertEquals(crc32(chunk.getBody()),
+                    ((Number) chunk.getMetric(ChunkedTransferQueue.CHUNK_CRC32_METRIC)).longValue());
+            // the metrics of the payload only travel with the first chunk
+            assertEquals(i == 0, chunk.getMetric("temperature") != null);
+            reassembled.write(chunk.getBody());
+        }
+
+        assertArrayEquals(body, reassembled.toByteArray());
+        assertEquals(body.length,
+                ((Number) chunks.get(0).getMetric(ChunkedTransferQueue.TRANSFER_SIZE_METRIC)).intValue());
+        assertEquals(crc32(body),
+                ((Number) chunks.get(3).getMetric(ChunkedTransferQueue.TRANSFER_CRC32_METRIC)).longValue());
+        assertEquals(100, chunks.get(3).getBody().length);
+    }
+
+    @Test
+    public void testEmptyBodyIsSentAsOneChunk() throws Exception {
+        this.endpoint.publishChunked(new KuraPayload(), properties(1), 300);
+
+        final KuraPayload chunk = awaitChunks(1).get(0);
+        assertEquals(1, ((Number) chunk.getMetric(ChunkedTransferQueue.CHUNK_TOTAL_METRIC)).intValue());
+        assertEquals(0, ((Number) chunk.getMetric(ChunkedTransferQueue.TRANSFER_SIZE_METRIC)).intValue());
+    }
+
+    @Test
+    public void testQos0TransferHasNoId() throws Exception {
+        assertNull(this.endpoint.publishChunked(new KuraPayload(), properties(0), 300));
+        awaitChunks(1);
+    }
+
+    @Test
+    public void testTooManyPendingTransfersAreRejected() throws Exception {
+        // nothing is sent while disconnected
+        this.dataService.setConnected(false);
+        final KuraPayload payload = new KuraPayload();
+        payload.setBody(new byte[10]);
+
+        assertNotNull(this.endpoint.publishChunked(payload, properties(1), 5));
+        assertNotNull(this.endpoint.publishChunked(payload, properties(1), 5));
+        try {
+            this.endpoint.publishChunked(payload, properties(1), 5);
+            fail("Expected the transfer to be rejected");
+        } catch (final KuraException e) {
+            // expected
+        }
+        assertEquals(2, this.endpoint.getChunkedTransferQueue().getPendingTransferCount());
+        assertTrue(this.dataService.getMessages().isEmpty());
+    }
+
+    @Test
+    public void testOwnerIsNotifiedOnceAllChunksAreConfirmed() throws Exception {
+        final List<String> confirmed = new ArrayList<>();
+        final CloudDeliveryListener owner = confirmed::add;
+        final Map<String, Object> properties = properties(1);
+        properties.put(MqttCloudEndpointConstants.DELIVERY_LISTENER.name(), owner);
+        final KuraPayload payload = new KuraPayload();
+        payload.setBody(new byte[25]);
+
+        final String transferId = this.endpoint.publishChunked(payload, properties, 10);
+        awaitChunks(3);
+
+        // the recording DataService assigns the ids 1 to 3
+        this.endpoint.onMessageConfirmed(2, TOPIC);
+        this.endpoint.onMessageConfirmed(1, TOPIC);
+        assertTrue(confirmed.isEmpty());
+        this.endpoint.onMessageConfirmed(3, TOPIC);
+        assertEquals(1, confirmed.size());
+        assertEquals(transferId, confirmed.get(0));
+        assertFalse(transferId.isEmpty());
+    }
+
+    private List<KuraPayload> awaitChunks(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.dataService.getMessages().size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        final List<RecordingDataService.Message> messages = this.dataService.getMessages();
+        assertEquals(count, messages.size());
+        final List<KuraPayload> chunks = new ArrayList<>();
+        for (final RecordingDataService.Message message : messages) {
+            assertEquals(TOPIC, message.getTopic());
+            chunks.add(CloudPayloadJsonDecoder.buildFromByteArray(message.getPayload()));
+        }
+        return chunks;
+    }
+
+    private static Map<String, Object> properties(final int qos) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put(MqttCloudEndpointConstants.TOPIC.name(), TOPIC);
+        properties.put(MqttCloudEndpointConstants.QOS.name(), qos);
+        return properties;
+    }
+
+    private static long crc32(final byte[] bytes) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, bytes.length);
+        return checksum.getValue();
+    }
+}
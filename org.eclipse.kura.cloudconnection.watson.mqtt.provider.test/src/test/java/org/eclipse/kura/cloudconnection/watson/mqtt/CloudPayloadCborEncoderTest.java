@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * Decodes the output of the CBOR encoder with an independent decoder.
+ *
+ */
+public class CloudPayloadCborEncoderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper(new CBORFactory());
+
+    @Test
+    public void testFullPayload() throws IOException {
+        final KuraPayload payload = TestPayloads.full();
+        TestPayloads.assertDecoded(payload, decode(CloudPayloadCborEncoder.getBytes(payload)));
+    }
+
+    @Test
+    public void testRandomPayloads() throws IOException {
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final KuraPayload payload = TestPayloads.random(random);
+            TestPayloads.assertDecoded(payload, decode(CloudPayloadCborEncoder.getBytes(payload)));
+        }
+    }
+
+    @Test
+    public void testArray() throws IOException {
+        final Random random = new Random(3);
+        final List<KuraPayload> payloads = new ArrayList<>();
+        final PayloadBuffer buffer = new PayloadBuffer(256);
+        final int start = buffer.size();
+        PayloadFormat.CBOR.writeArrayStart(buffer);
+        for (int i = 0; i < 20; i++) {
+            final KuraPayload payload = TestPayloads.random(random);
+            if (i > 0) {
+                PayloadFormat.CBOR.writeArraySeparator(buffer);
+            }
+            CloudPayloadCborEncoder.encode(payload, buffer);
+            payloads.add(payload);
+        }
+        PayloadFormat.CBOR.writeArrayEnd(buffer, start, payloads.size());
+
+        final JsonNode array = this.mapper.readTree(buffer.toByteArray());
+        assertEquals(payloads.size(), array.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            TestPayloads.assertDecoded(payloads.get(i), toMap(array.get(i)));
+        }
+    }
+
+    private Map<String, Object> decode(final byte[] bytes) throws IOException {
+        return toMap(this.mapper.readTree(bytes));
+    }
+
+    private static Map<String, Object> toMap(final JsonNode node) throws IOException {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            map.put(field.getKey(), toJava(field.getValue()));
+        }
+        return map;
+    }
+
+    private static Object toJava(final JsonNode node) throws IOException {
+        if (node.isObject()) {
+            return toMap(node);
+        } else if (node.isBinary()) {
+            return node.binaryValue();
+        } else if (node.isIntegralNumber()) {
+            return node.longValue();
+        } else if (node.isFloatingPointNumber()) {
+            return node.doubleValue();
+        } else if (node.isBoolean()) {
+            return node.booleanValue();
+        } else if (node.isTextual()) {
+            return node.textValue();
+        }
+        throw new AssertionError("unexpected node " + node);
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+import org.junit.Test;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/**
+ * Decodes the output of the JSON encoder, checking the result against the payload and against minimal-json.
+ *
+ */
+public class CloudPayloadJsonDecoderTest {
+
+    @Test
+    public void testFullPayload() {
+        final KuraPayload expected = TestPayloads.full();
+        final KuraPayload actual = CloudPayloadJsonDecoder
+                .buildFromByteArray(CloudPayloadJsonStreamEncoder.getBytes(expected));
+
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        final KuraPosition position = expected.getPosition();
+        assertEquals(position.getLatitude(), actual.getPosition().getLatitude());
+        assertEquals(position.getLongitude(), actual.getPosition().getLongitude());
+        assertEquals(position.getAltitude(), actual.getPosition().getAltitude());
+        assertEquals(position.getHeading(), actual.getPosition().getHeading());
+        assertEquals(position.getPrecision(), actual.getPosition().getPrecision());
+        assertEquals(position.getSatellites(), actual.getPosition().getSatellites());
+        assertEquals(position.getSpeed(), actual.getPosition().getSpeed());
+        assertEquals(position.getTimestamp(), actual.getPosition().getTimestamp());
+        assertEquals(position.getStatus(), actual.getPosition().getStatus());
+
+        // JSON numbers carry no type, integral values are decoded as longs and the others as doubles
+        assertEquals(expected.metricNames(), actual.metricNames());
+        assertEquals(true, actual.getMetric("boolean"));
+        assertEquals(3.141592653589793, actual.getMetric("double"));
+        assertEquals(2.5, actual.getMetric("float"));
+        assertEquals(-42L, actual.getMetric("int"));
+        assertEquals(Long.MAX_VALUE, actual.getMetric("long"));
+        assertEquals("café \"quoted\"", actual.getMetric("string"));
+        assertEquals(Base64.getEncoder().encodeToString((byte[]) expected.getMetric("bytes")),
+                actual.getMetric("bytes"));
+        assertArrayEquals(expected.getBody(), actual.getBody());
+    }
+
+    @Test
+    public void testRandomPayloads() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final byte[] bytes = CloudPayloadJsonStreamEncoder.getBytes(TestPayloads.random(random));
+            assertDecoded(Json.parse(new String(bytes, StandardCharsets.UTF_8)).asObject(),
+                    CloudPayloadJsonDecoder.buildFromByteArray(bytes));
+        }
+    }
+
+    @Test
+    public void testEmptyObject() {
+        final KuraPayload payload = CloudPayloadJsonDecoder.buildFromByteArray(bytes(" { } "));
+
+        assertNull(payload.getTimestamp());
+        assertNull(payload.getPosition());
+        assertEquals(0, payload.metricNames().size());
+        assertNull(payload.getBody());
+    }
+
+    @Test
+    public void testUnknownMembersAndNullMetrics() {
+        final KuraPayload payload = CloudPayloadJsonDecoder.buildFromByteArray(bytes(
+                "{\"extra\":{\"a\":[1,{\"b\":null}],\"c\":\"}\"},\"sentOn\":12,\"metrics\":{\"x\":null,\"y\":[1,2],"
+                        + "\"z\":\"\\u00e9\\n\"},\"position\":{\"latitude\":1,\"other\":true},\"body\":\"AAE=\"}"));
+
+        assertEquals(12L, payload.getTimestamp().getTime());
+        assertEquals(1.0, payload.getPosition().getLatitude(), 0);
+        assertEquals(2, payload.metricNames().size());
+        assertNull(payload.getMetric("x"));
+        assertEquals("é\n", payload.getMetric("z"));
+        assertArrayEquals(new byte[] { 0, 1 }, payload.getBody());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotAnObject() {
+        CloudPayloadJsonDecoder.buildFromByteArray(bytes("[1]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrailingContent() {
+        CloudPayloadJsonDecoder.buildFromByteArray(bytes("{} {}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() {
+        CloudPayloadJsonDecoder.buildFromByteArray(bytes("{\"metrics\":{\"a\":1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedMetric() {
+        CloudPayloadJsonDecoder.buildFromByteArray(bytes("{\"metrics\":{\"a\":1x}}")).getMetric("a");
+    }
+
+    private static void assertDecoded(final JsonObject expected, final KuraPayload actual) {
+        final JsonValue sentOn = expected.get("sentOn");
+        if (sentOn != null) {
+            assertEquals(sentOn.asLong(), actual.getTimestamp().getTime());
+        }
+
+        final JsonValue position = expected.get("position");
+        if (position != null) {
+            final JsonObject object = position.asObject();
+            assertEquals(doubleOrNull(object.get("latitude")), actual.getPosition().getLatitude());
+            assertEquals(doubleOrNull(object.get("longitude")), actual.getPosition().getLongitude());
+            final JsonValue satellites = object.get("satellites");
+            assertEquals(satellites != null ? satellites.asInt() : null, actual.getPosition().getSatellites());
+        }
+
+        final JsonObject metrics = expected.get("metrics").asObject();
+        assertEquals(metrics.size(), actual.metricNames().size());
+        for (final JsonObject.Member member : metrics) {
+            final JsonValue value = member.getValue();
+            final Object metric = actual.getMetric(member.getName());
+            if (value.isNumber()) {
+                assertEquals(member.getName(), value.asDouble(), ((Number) metric).doubleValue(), 0);
+                if (value.toString().matches("-?\\d+") && !"-0".equals(value.toString())) {
+                    assertEquals(member.getName(), value.asLong(), metric);
+                }
+            } else if (value.isBoolean()) {
+                assertEquals(member.getName(), value.asBoolean(), metric);
+            } else {
+                assertEquals(member.getName(), value.asString(), metric);
+            }
+        }
+
+        final JsonValue body = expected.get("body");
+        if (body != null) {
+            assertArrayEquals(Base64.getDecoder().decode(body.asString()), actual.getBody());
+        }
+    }
+
+    private static Double doubleOrNull(final JsonValue value) {
+        return value != null ? value.asDouble() : null;
+    }
+
+    private static byte[] bytes(final String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
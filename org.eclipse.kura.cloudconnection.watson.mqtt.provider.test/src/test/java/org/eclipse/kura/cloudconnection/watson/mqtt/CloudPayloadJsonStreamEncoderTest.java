@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.Test;
+
+/**
+ * Checks that the streaming encoder produces the same bytes as the minimal-json encoder it replaces.
+ *
+ */
+public class CloudPayloadJsonStreamEncoderTest {
+
+    @Test
+    public void testFullPayload() {
+        assertSameBytes(TestPayloads.full());
+    }
+
+    @Test
+    public void testEmptyPayload() {
+        assertSameBytes(new KuraPayload());
+    }
+
+    @Test
+    public void testRandomPayloads() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            assertSameBytes(TestPayloads.random(random));
+        }
+    }
+
+    @Test
+    public void testMetricNameCache() {
+        final MetricNameCache cache = new MetricNameCache(16);
+        final Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            final KuraPayload payload = TestPayloads.random(random);
+            // the cached names must encode as the uncached ones, on the first and on the following hits
+            assertArrayEquals(CloudPayloadJsonEncoder.getBytes(payload),
+                    CloudPayloadJsonStreamEncoder.getBytes(payload, cache));
+            assertArrayEquals(CloudPayloadJsonEncoder.getBytes(payload),
+                    CloudPayloadJsonStreamEncoder.getBytes(payload, cache));
+        }
+    }
+
+    @Test
+    public void testBodySlice() {
+        final KuraPayload payload = TestPayloads.full();
+        final byte[] body = payload.getBody();
+        final byte[] whole = new byte[body.length + 6];
+        System.arraycopy(body, 0, whole, 3, body.length);
+
+        assertArrayEquals(CloudPayloadJsonEncoder.getBytes(payload),
+                CloudPayloadJsonStreamEncoder.getBytes(payload, whole, 3, body.length, null, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaN() {
+        final KuraPayload payload = new KuraPayload();
+        payload.addMetric("nan", Double.NaN);
+        CloudPayloadJsonStreamEncoder.getBytes(payload);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInfinity() {
+        final KuraPayload payload = new KuraPayload();
+        payload.addMetric("infinity", Float.POSITIVE_INFINITY);
+        CloudPayloadJsonStreamEncoder.getBytes(payload);
+    }
+
+    private static void assertSameBytes(final KuraPayload payload) {
+        final byte[] expected = CloudPayloadJsonEncoder.getBytes(payload);
+        final byte[] actual = CloudPayloadJsonStreamEncoder.getBytes(payload);
+        assertArrayEquals(new String(expected, StandardCharsets.UTF_8), expected, actual);
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.Test;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+
+/**
+ * Decodes the output of the MessagePack encoder with an independent decoder.
+ *
+ */
+public class CloudPayloadMsgPackEncoderTest {
+
+    @Test
+    public void testFullPayload() throws IOException {
+        final KuraPayload payload = TestPayloads.full();
+        TestPayloads.assertDecoded(payload, decode(CloudPayloadMsgPackEncoder.getBytes(payload)));
+    }
+
+    @Test
+    public void testRandomPayloads() throws IOException {
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final KuraPayload payload = TestPayloads.random(random);
+            TestPayloads.assertDecoded(payload, decode(CloudPayloadMsgPackEncoder.getBytes(payload)));
+        }
+    }
+
+    @Test
+    public void testArray() throws IOException {
+        final Random random = new Random(3);
+        final List<KuraPayload> payloads = new ArrayList<>();
+        final PayloadBuffer buffer = new PayloadBuffer(256);
+        final int start = buffer.size();
+        PayloadFormat.MSGPACK.writeArrayStart(buffer);
+        for (int i = 0; i < 20; i++) {
+            final KuraPayload payload = TestPayloads.random(random);
+            if (i > 0) {
+                PayloadFormat.MSGPACK.writeArraySeparator(buffer);
+            }
+            CloudPayloadMsgPackEncoder.encode(payload, buffer);
+            payloads.add(payload);
+        }
+        PayloadFormat.MSGPACK.writeArrayEnd(buffer, start, payloads.size());
+
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(buffer.toByteArray())) {
+            final ArrayValue array = unpacker.unpackValue().asArrayValue();
+            assertEquals(payloads.size(), array.size());
+            for (int i = 0; i < payloads.size(); i++) {
+                TestPayloads.assertDecoded(payloads.get(i), toMap(array.get(i)));
+            }
+        }
+    }
+
+    private static Map<String, Object> decode(final byte[] bytes) throws IOException {
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(bytes)) {
+            final Map<String, Object> map = toMap(unpacker.unpackValue());
+            assertEquals("trailing bytes", false, unpacker.hasNext());
+            return map;
+        }
+    }
+
+    private static Map<String, Object> toMap(final Value value) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (final Map.Entry<Value, Value> entry : value.asMapValue().map().entrySet()) {
+            map.put(entry.getKey().asStringValue().asString(), toJava(entry.getValue()));
+        }
+        return map;
+    }
+
+    private static Object toJava(final Value value) {
+        switch (value.getValueType()) {
+        case MAP:
+            return toMap(value);
+        case BINARY:
+            return value.asBinaryValue().asByteArray();
+        case INTEGER:
+            return value.asIntegerValue().asLong();
+        case FLOAT:
+            return value.asFloatValue().toDouble();
+        case BOOLEAN:
+            return value.asBooleanValue().getBoolean();
+        case STRING:
+            return value.asStringValue().asString();
+        default:
+            throw new AssertionError("unexpected value " + value);
+        }
+    }
+}
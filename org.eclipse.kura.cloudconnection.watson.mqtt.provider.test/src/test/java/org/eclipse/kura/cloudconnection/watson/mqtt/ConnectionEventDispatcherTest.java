@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionEventDispatcherTest {
+
+    private ConnectionEventDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        this.dispatcher = new ConnectionEventDispatcher("ConnectionEventDispatcherTest");
+    }
+
+    @After
+    public void tearDown() {
+        this.dispatcher.close();
+    }
+
+    @Test
+    public void testNotificationsDoNotRunOnTheCallerThread() throws InterruptedException {
+        final AtomicReference<Thread> notified = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        this.dispatcher.dispatch(() -> {
+            notified.set(Thread.currentThread());
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), notified.get());
+    }
+
+    @Test
+    public void testLatestStateReplacesThePendingOne() throws InterruptedException {
+        final List<Integer> states = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        this.dispatcher.dispatch(() -> {
+            started.countDown();
+            await(release);
+            states.add(1);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // both wait for the first notification, only the latest runs
+        final CountDownLatch done = new CountDownLatch(1);
+        this.dispatcher.dispatch(() -> states.add(2));
+        this.dispatcher.dispatch(() -> {
+            states.add(3);
+            done.countDown();
+        });
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(1, 3), states);
+        assertEquals(3, this.dispatcher.getDispatchedCount());
+        assertEquals(1, this.dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void testStatesAreNotifiedInOrder() throws InterruptedException {
+        final List<Integer> states = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 1000; i++) {
+            final int state = i;
+            this.dispatcher.dispatch(() -> {
+                states.add(state);
+                if (state == 999) {
+                    done.countDown();
+                }
+            });
+        }
+        // the latest state is never replaced
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i < states.size(); i++) {
+            assertTrue(states.get(i - 1) < states.get(i));
+        }
+        assertEquals(999, (int) states.get(states.size() - 1));
+        assertEquals(1000, states.size() + this.dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void testEventsAreDroppedAfterClose() throws InterruptedException {
+        final List<Integer> states = new CopyOnWriteArrayList<>();
+        this.dispatcher.close();
+
+        this.dispatcher.dispatch(() -> states.add(1));
+        Thread.sleep(50);
+
+        assertTrue(states.isEmpty());
+
+        // the next event is not mistaken for a coalesced one
+        this.dispatcher.dispatch(() -> states.add(2));
+        assertEquals(0, this.dispatcher.getCoalescedCount());
+        assertTrue(states.isEmpty());
+    }
+
+    @Test
+    public void testSlowNotificationIsCounted() {
+        this.dispatcher.runTimed("onConnectionEstablished", "listener", () -> sleep(150));
+
+        assertEquals(1, this.dispatcher.getSlowNotificationCount());
+    }
+
+    @Test
+    public void testFastNotificationIsNotCounted() {
+        this.dispatcher.runTimed("onConnectionEstablished", "listener", () -> {
+        });
+
+        assertEquals(0, this.dispatcher.getSlowNotificationCount());
+    }
+
+    @Test
+    public void testFailingNotificationDoesNotStopTheOthers() throws InterruptedException {
+        final List<String> notified = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        this.dispatcher.dispatch(() -> {
+            this.dispatcher.runTimed("onConnectionLost", "failing", () -> {
+                throw new IllegalStateException("listener failure");
+            });
+            this.dispatcher.runTimed("onConnectionLost", "next", () -> notified.add("next"));
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("next"), notified);
+        assertEquals(0, this.dispatcher.getSlowNotificationCount());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
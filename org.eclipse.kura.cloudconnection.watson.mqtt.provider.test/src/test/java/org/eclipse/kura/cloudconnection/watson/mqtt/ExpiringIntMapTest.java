@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ExpiringIntMapTest {
+
+    private static final long NO_EXPIRY = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    public void testRandomOperations() {
+        final ExpiringIntMap<Integer> map = new ExpiringIntMap<>(NO_EXPIRY);
+        final Map<Integer, Integer> reference = new HashMap<>();
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+            // a key range a few times the table size, with sequential ids as the message ids are
+            final int key = random.nextBoolean() ? random.nextInt(300) : i >> 4;
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key), map.remove(key));
+            } else {
+                map.put(key, i);
+                reference.put(key, i);
+            }
+            assertEquals(reference.size(), map.size());
+        }
+
+        for (int key = -1; key < 200_000 >> 4; key++) {
+            assertEquals(reference.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    public void testDeleteInProbeSequence() {
+        final ExpiringIntMap<Integer> map = new ExpiringIntMap<>(NO_EXPIRY);
+        // fill the table up to its threshold, so that most keys share probe sequences
+        for (int key = 0; key < 48; key++) {
+            map.put(key * 64, key);
+        }
+
+        for (int key = 0; key < 48; key += 2) {
+            assertEquals(Integer.valueOf(key), map.remove(key * 64));
+            assertNull(map.remove(key * 64));
+        }
+        for (int key = 0; key < 48; key++) {
+            assertEquals(key % 2 == 0 ? null : Integer.valueOf(key), map.get(key * 64));
+        }
+        assertEquals(24, map.size());
+    }
+
+    @Test
+    public void testNegativeAndExtremeKeys() {
+        final ExpiringIntMap<String> map = new ExpiringIntMap<>(NO_EXPIRY);
+        final int[] keys = { 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 1 };
+        for (final int key : keys) {
+            map.put(key, String.valueOf(key));
+        }
+        for (final int key : keys) {
+            assertEquals(String.valueOf(key), map.remove(key));
+        }
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        final ExpiringIntMap<Integer> map = new ExpiringIntMap<>(TimeUnit.MILLISECONDS.toNanos(1));
+        for (int key = 0; key < 40; key++) {
+            map.put(key, key);
+        }
+        Thread.sleep(10);
+
+        assertNull(map.get(1));
+        // an expired entry is deleted even if its value is not returned
+        assertNull(map.remove(1));
+        assertEquals(39, map.size());
+
+        // the rebuild triggered by filling the table discards the expired entries
+        for (int key = 100; key < 120; key++) {
+            map.put(key, key);
+        }
+        assertEquals(20, map.size() < 40 ? map.size() : -1);
+    }
+}
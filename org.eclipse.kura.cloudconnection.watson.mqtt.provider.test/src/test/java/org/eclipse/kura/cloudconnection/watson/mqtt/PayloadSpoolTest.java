@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadSpool.SpooledMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PayloadSpoolTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    // length, state, deadline, sequence, qos, retain, priority, id length, topic length, payload length
+    private static final int HEADER_SIZE = 35;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndReplay() throws IOException, KuraException {
+        final PayloadSpool spool = new PayloadSpool(this.folder.getRoot().toPath(), SEGMENT_SIZE, 4);
+        assertEquals(1, spool.append("a/b", bytes("one"), 1, true, 5, "1", NO_DEADLINE));
+        assertEquals(2, spool.append("a/c", bytes("two"), 0, false, 7, null, NO_DEADLINE));
+
+        final List<SpooledMessage> messages = replayAll(spool);
+        assertEquals(2, messages.size());
+        assertMessage(messages.get(0), "a/b", "one", 1);
+        assertEquals(1, messages.get(0).getQos());
+        assertEquals(true, messages.get(0).isRetain());
+        assertEquals(5, messages.get(0).getPriority());
+        assertEquals("1", messages.get(0).getMessageId());
+        assertMessage(messages.get(1), "a/c", "two", 2);
+        assertNull(messages.get(1).getMessageId());
+        assertEquals(0, spool.getPendingCount());
+        spool.close();
+    }
+
+    @Test
+    public void testRecovery() throws IOException, KuraException {
+        final Path directory = this.folder.getRoot().toPath();
+        PayloadSpool spool = new PayloadSpool(directory, SEGMENT_SIZE, 4);
+        for (int i = 1; i <= 5; i++) {
+            spool.append("topic", bytes("message " + i), 1, false, 0, String.valueOf(i), NO_DEADLINE);
+        }
+        // the consumed records are not replayed again
+        assertEquals(2, spool.replay(2, message -> {
+        }));
+        spool.close();
+
+        spool = new PayloadSpool(directory, SEGMENT_SIZE, 4);
+        assertEquals(3, spool.getPendingCount());
+        assertEquals(6, spool.append("topic", bytes("message 6"), 1, false, 0, "6", NO_DEADLINE));
+
+        final List<SpooledMessage> messages = replayAll(spool);
+        assertEquals(4, messages.size());
+        for (int i = 0; i < 4; i++) {
+            assertMessage(messages.get(i), "topic", "message " + (i + 3), i + 3);
+        }
+        spool.close();
+    }
+
+    @Test
+    public void testRecoveryAfterTornWrite() throws IOException, KuraException {
+        final Path directory = this.folder.getRoot().toPath();
+        PayloadSpool spool = new PayloadSpool(directory, SEGMENT_SIZE, 4);
+        int end = 0;
+        for (int i = 1; i <= 3; i++) {
+            spool.append("topic", bytes("message " + i), 1, false, 0, null, NO_DEADLINE);
+            end += HEADER_SIZE + "topic".length() + ("message " + i).length();
+        }
+        spool.close();
+
+        // a record whose content reached the file but whose length did not
+        final ByteBuffer torn = ByteBuffer.allocate(64);
+        torn.putInt(0).put((byte) 1).putLong(NO_DEADLINE).putLong(99);
+        torn.rewind();
+        write(directory, end, torn);
+
+        spool = new PayloadSpool(directory, SEGMENT_SIZE, 4);
+        assertEquals(3, spool.getPendingCount());
+        assertEquals(4, spool.append("topic", bytes("message 4"), 1, false, 0, null, NO_DEADLINE));
+        spool.close();
+
+        // garbage after the last record, with a length past the end of the segment
+        end += HEADER_SIZE + "topic".length() + "message 4".length();
+        final ByteBuffer garbage = ByteBuffer.allocate(HEADER_SIZE);
+        garbage.putInt(SEGMENT_SIZE).put((byte) 1);
+        garbage.rewind();
+        write(directory, end, garbage);
+
+        spool = new PayloadSpool(directory, SEGMENT_SIZE, 4);
+        assertEquals(4, spool.getPendingCount());
+        assertEquals(5, spool.append("topic", bytes("message 5"), 1, false, 0, null, NO_DEADLINE));
+
+        final List<SpooledMessage> messages = replayAll(spool);
+        assertEquals(5, messages.size());
+        for (int i = 0; i < 5; i++) {
+            assertMessage(messages.get(i), "topic", "message " + (i + 1), i + 1);
+        }
+        spool.close();
+    }
+
+    @Test
+    public void testSegmentRollover() throws IOException, KuraException {
+        final Path directory = this.folder.getRoot().toPath();
+        PayloadSpool spool = new PayloadSpool(directory, 256, 3);
+        final byte[] payload = new byte[100];
+        int appended = 0;
+        while (spool.append("topic", payload, 0, false, 0, null, NO_DEADLINE) > 0) {
+            appended++;
+        }
+        assertEquals(3, spool.getSegmentCount());
+        assertEquals(appended, spool.getPendingCount());
+        spool.close();
+
+        spool = new PayloadSpool(directory, 256, 3);
+        assertEquals(appended, replayAll(spool).size());
+        assertEquals(appended + 1, spool.append("topic", payload, 0, false, 0, null, NO_DEADLINE));
+        spool.close();
+    }
+
+    @Test
+    public void testExpiredMessagesAreDiscarded() throws IOException, KuraException {
+        final PayloadSpool spool = new PayloadSpool(this.folder.getRoot().toPath(), SEGMENT_SIZE, 4);
+        spool.append("topic", bytes("expired"), 0, false, 0, null, System.currentTimeMillis() - 1);
+        spool.append("topic", bytes("live"), 0, false, 0, null, NO_DEADLINE);
+
+        final List<SpooledMessage> messages = replayAll(spool);
+        assertEquals(1, messages.size());
+        assertMessage(messages.get(0), "topic", "live", 2);
+        assertEquals(1, spool.getExpiredCount());
+        spool.close();
+    }
+
+    private static List<SpooledMessage> replayAll(final PayloadSpool spool) throws KuraException {
+        final List<SpooledMessage> messages = new ArrayList<>();
+        spool.replay(Integer.MAX_VALUE, messages::add);
+        return messages;
+    }
+
+    private static void assertMessage(final SpooledMessage message, final String topic, final String payload,
+            final long sequence) {
+        assertEquals(topic, message.getTopic());
+        assertArrayEquals(bytes(payload), message.getPayload());
+        assertEquals(sequence, message.getSequence());
+    }
+
+    private static void write(final Path directory, final int position, final ByteBuffer content)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve("spool-000000000000.seg"),
+                StandardOpenOption.WRITE)) {
+            channel.write(content, position);
+        }
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
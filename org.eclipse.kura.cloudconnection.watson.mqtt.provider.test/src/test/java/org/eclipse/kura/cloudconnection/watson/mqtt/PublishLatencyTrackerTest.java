@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.PublishLatencyStatistics;
+import org.junit.Test;
+
+public class PublishLatencyTrackerTest {
+
+    @Test
+    public void testOverflowIsTrackedAsOther() {
+        final PublishLatencyTracker tracker = new PublishLatencyTracker();
+        final long now = System.nanoTime();
+        for (int i = 0; i < PublishLatencyTracker.MAX_SERIES; i++) {
+            tracker.getSeries("publisher", "topic/" + i, now);
+        }
+
+        final PublishLatencyTracker.Series other = tracker.getSeries("publisher", "overflow", now);
+        assertSame(other, tracker.getSeries("another", "topic", now));
+        other.recordHandOff(1000);
+
+        final List<PublishLatencyStatistics> statistics = tracker.getStatistics();
+        assertEquals(PublishLatencyTracker.MAX_SERIES + 1, statistics.size());
+        final PublishLatencyStatistics otherStatistics = statistics.get(statistics.size() - 1);
+        assertEquals(PublishLatencyTracker.OTHER, otherStatistics.getPublisherId());
+        assertEquals(PublishLatencyTracker.OTHER, otherStatistics.getTopic());
+    }
+
+    @Test
+    public void testIdleSeriesAreEvicted() {
+        final PublishLatencyTracker tracker = new PublishLatencyTracker();
+        final long start = System.nanoTime();
+        for (int i = 0; i < PublishLatencyTracker.MAX_SERIES; i++) {
+            tracker.getSeries("publisher", "topic/" + i, start);
+        }
+
+        // one series keeps being used, the others become idle
+        final long later = start + TimeUnit.MINUTES.toNanos(6);
+        final PublishLatencyTracker.Series active = tracker.getSeries("publisher", "topic/0", later);
+        final long muchLater = later + TimeUnit.MINUTES.toNanos(6);
+
+        assertEquals("new", tracker.getSeries("publisher", "new", muchLater).getStatistics().getTopic());
+        assertEquals("another", tracker.getSeries("another", "topic", muchLater).getStatistics().getPublisherId());
+        assertEquals(3, tracker.getSeriesCount());
+        assertSame(active, tracker.getSeries("publisher", "topic/0", muchLater));
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.KuraErrorCode;
+import org.eclipse.kura.KuraException;
+import org.junit.Test;
+
+public class PublishRateLimiterTest {
+
+    @Test
+    public void testBurst() throws KuraException {
+        // 10 messages per second, the bucket holds one second of messages
+        final PublishRateLimiter limiter = new PublishRateLimiter(10, 0, 1000, RateLimitPolicy.REJECT, 0);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(100);
+        }
+        assertRejected(limiter, 100);
+
+        assertEquals(10, limiter.getAdmittedCount());
+        assertEquals(0, limiter.getThrottledCount());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testRefill() throws KuraException, InterruptedException {
+        final PublishRateLimiter limiter = new PublishRateLimiter(10, 0, 1000, RateLimitPolicy.REJECT, 0);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(100);
+        }
+        assertRejected(limiter, 100);
+
+        // a message every 100 ms
+        Thread.sleep(150);
+        limiter.acquire(100);
+
+        assertEquals(11, limiter.getAdmittedCount());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testRefillStopsAtTheBurst() throws KuraException, InterruptedException {
+        // the bucket holds 2 messages, one second idle refills it only up to those
+        final PublishRateLimiter limiter = new PublishRateLimiter(20, 0, 100, RateLimitPolicy.REJECT, 0);
+        Thread.sleep(200);
+
+        limiter.acquire(1);
+        limiter.acquire(1);
+        assertRejected(limiter, 1);
+    }
+
+    @Test
+    public void testAcquireWhenEmptyWaits() throws KuraException {
+        final PublishRateLimiter limiter = new PublishRateLimiter(20, 0, 100, RateLimitPolicy.QUEUE, 1000);
+        limiter.acquire(1);
+        limiter.acquire(1);
+
+        // the bucket is empty, the next message waits for a token, 50 ms at 20 messages per second
+        final long start = System.nanoTime();
+        limiter.acquire(1);
+        limiter.acquire(1);
+        final long elapsed = System.nanoTime() - start;
+
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertEquals(4, limiter.getAdmittedCount());
+        assertEquals(2, limiter.getThrottledCount());
+        assertTrue(limiter.getAverageThrottleNanos() > TimeUnit.MILLISECONDS.toNanos(40));
+    }
+
+    @Test
+    public void testAcquireWhenEmptyRejectsPastTheMaximumWait() throws KuraException {
+        // a token every second, at most 100 ms of wait
+        final PublishRateLimiter limiter = new PublishRateLimiter(1, 0, 1, RateLimitPolicy.QUEUE, 100);
+        limiter.acquire(1);
+
+        final long start = System.nanoTime();
+        assertRejected(limiter, 1);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(1, limiter.getAdmittedCount());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testByteRate() throws KuraException {
+        final PublishRateLimiter limiter = new PublishRateLimiter(0, 1000, 1000, RateLimitPolicy.REJECT, 0);
+
+        limiter.acquire(600);
+        assertRejected(limiter, 600);
+        // the rejected message took no token
+        limiter.acquire(300);
+    }
+
+    @Test
+    public void testMessageLargerThanTheBurst() throws KuraException {
+        final PublishRateLimiter limiter = new PublishRateLimiter(0, 1000, 1000, RateLimitPolicy.REJECT, 0);
+
+        // a full bucket admits a message larger than the burst, which then leaves the bucket in debt
+        limiter.acquire(5000);
+        assertRejected(limiter, 1);
+    }
+
+    private static void assertRejected(final PublishRateLimiter limiter, final int bytes) {
+        try {
+            limiter.acquire(bytes);
+            fail("The message should have been rejected");
+        } catch (final KuraException e) {
+            assertEquals(KuraErrorCode.SERVICE_UNAVAILABLE, e.getCode());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.kura.data.DataService;
+import org.eclipse.kura.data.listener.DataServiceListener;
+
+/**
+ * {@link DataService} stand-in recording the published messages, which are never sent nor confirmed.
+ *
+ */
+public class RecordingDataService implements DataService {
+
+    private final AtomicInteger messageId = new AtomicInteger();
+    private final List<Message> messages = new CopyOnWriteArrayList<>();
+    private final List<DataServiceListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean connected = true;
+
+    public List<Message> getMessages() {
+        return new ArrayList<>(this.messages);
+    }
+
+    public List<DataServiceListener> getListeners() {
+        return this.listeners;
+    }
+
+    public void setConnected(final boolean connected) {
+        this.connected = connected;
+    }
+
+    @Override
+    public void connect() {
+        // noop
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    @Override
+    public boolean isAutoConnectEnabled() {
+        return false;
+    }
+
+    @Override
+    public int getRetryInterval() {
+        return 0;
+    }
+
+    @Override
+    public void disconnect(long quiesceTimeout) {
+        // noop
+    }
+
+    @Override
+    public void subscribe(String topic, int qos) {
+        // noop
+    }
+
+    @Override
+    public void unsubscribe(String topic) {
+        // noop
+    }
+
+    @Override
+    public int publish(String topic, byte[] payload, int qos, boolean retain, int priority) {
+        final int id = this.messageId.incrementAndGet();
+        this.messages.add(new Message(topic, payload, qos, priority));
+        return id;
+    }
+
+    @Override
+    public List<Integer> getUnpublishedMessageIds(String topicRegex) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Integer> getInFlightMessageIds(String topicRegex) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Integer> getDroppedInFlightMessageIds(String topicRegex) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void addDataServiceListener(DataServiceListener listener) {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public void removeDataServiceListener(DataServiceListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    public static final class Message {
+
+        private final String topic;
+        private final byte[] payload;
+        private final int qos;
+        private final int priority;
+
+        Message(final String topic, final byte[] payload, final int qos, final int priority) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.priority = priority;
+        }
+
+        public String getTopic() {
+            return this.topic;
+        }
+
+        public byte[] getPayload() {
+            return this.payload;
+        }
+
+        public int getQos() {
+            return this.qos;
+        }
+
+        public int getPriority() {
+            return this.priority;
+        }
+    }
+}
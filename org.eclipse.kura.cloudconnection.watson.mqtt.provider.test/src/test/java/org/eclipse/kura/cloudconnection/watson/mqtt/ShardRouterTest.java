@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.kura.data.DataService;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardRouterTest {
+
+    private final RecordingDataService endpointDataService = new RecordingDataService();
+    private final RecordingDataService firstShard = new RecordingDataService();
+    private final RecordingDataService secondShard = new RecordingDataService();
+
+    private int established;
+    private int lost;
+    private int disconnected;
+    private ShardRouter router;
+
+    @Before
+    public void setUp() {
+        final MqttCloudEndpoint endpoint = new MqttCloudEndpoint() {
+
+            @Override
+            protected void onCloudConnectionEstablished() {
+                ShardRouterTest.this.established++;
+            }
+
+            @Override
+            protected void onCloudConnectionLost() {
+                ShardRouterTest.this.lost++;
+            }
+
+            @Override
+            protected void onCloudDisconnected() {
+                ShardRouterTest.this.disconnected++;
+            }
+        };
+        this.router = new ShardRouter(endpoint, this.endpointDataService);
+    }
+
+    @Test
+    public void testEndpointConnectsWithTheFirstShardAndDisconnectsWithTheLast() {
+        this.firstShard.setConnected(false);
+        this.router.setShards(new DataService[] { this.firstShard }, false);
+        assertEquals(0, this.router.getConnectedShardCount());
+
+        this.firstShard.getListeners().get(0).onConnectionEstablished();
+        this.router.onConnectionEstablished(0);
+        assertEquals(2, this.router.getConnectedShardCount());
+        assertEquals(1, this.established);
+
+        this.router.onConnectionLost(0, false);
+        assertEquals(0, this.lost);
+        // a DataService may notify both the lost connection and the disconnection, both are forwarded
+        this.firstShard.getListeners().get(0).onConnectionLost(null);
+        assertEquals(1, this.lost);
+        this.firstShard.getListeners().get(0).onDisconnected();
+        assertEquals(1, this.disconnected);
+        assertEquals(0, this.router.getConnectedShardCount());
+    }
+
+    @Test
+    public void testPublisherStaysOnItsShard() {
+        this.router.setShards(new DataService[] { this.firstShard, this.secondShard }, false);
+        final DataService[] shards = this.router.getDataServices();
+        final Map<String, Object> properties = Collections.singletonMap(
+                MqttCloudEndpointConstants.PUBLISHER_ID.name(), "publisher");
+
+        final int shard = this.router.select(shards, properties);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(shard, this.router.select(shards, properties));
+        }
+
+        ((RecordingDataService) shards[shard]).setConnected(false);
+        assertNotEquals(shard, this.router.select(shards, properties));
+    }
+
+    @Test
+    public void testRoundRobinSkipsDisconnectedShards() {
+        this.router.setShards(new DataService[] { this.firstShard, this.secondShard }, true);
+        final DataService[] shards = this.router.getDataServices();
+
+        final Set<Integer> selected = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            selected.add(this.router.select(shards, null));
+        }
+        assertEquals(3, selected.size());
+
+        this.secondShard.setConnected(false);
+        for (int i = 0; i < 6; i++) {
+            assertNotEquals(2, this.router.select(shards, null));
+        }
+    }
+
+    @Test
+    public void testNoConnectedShardFallsBackToTheEndpoint() {
+        this.firstShard.setConnected(false);
+        this.endpointDataService.setConnected(false);
+        this.router.setShards(new DataService[] { this.firstShard, null }, false);
+
+        assertEquals(0, this.router.select(this.router.getDataServices(), null));
+        assertFalse(this.router.isConnected());
+    }
+
+    @Test
+    public void testRemovedShardIsNoLongerListened() {
+        this.router.setShards(new DataService[] { this.firstShard, this.secondShard }, false);
+        assertEquals(1, this.secondShard.getListeners().size());
+
+        this.router.setShards(new DataService[] { this.firstShard }, false);
+
+        assertEquals(1, this.firstShard.getListeners().size());
+        assertTrue(this.secondShard.getListeners().isEmpty());
+        assertEquals(2, this.router.getShardCount());
+    }
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+
+/**
+ * Payloads shared by the encoder and decoder tests.
+ *
+ */
+final class TestPayloads {
+
+    // characters that need escaping in JSON or more than one byte in UTF-8
+    private static final String[] TEXTS = { "", "plain", "quote\"backslash\\slash/", "\n\r\t\b\f", "\u0000\u001f\u007f",
+            "café", "€100", "  ", "😀 emoji", "日本語" };
+
+    private TestPayloads() {
+    }
+
+    /**
+     * Returns a payload with a timestamp, a position with all the fields set, a metric of each type and a body.
+     */
+    static KuraPayload full() {
+        final KuraPayload payload = new KuraPayload();
+        payload.setTimestamp(new Date(1546300800123L));
+
+        final KuraPosition position = new KuraPosition();
+        position.setLatitude(45.4642);
+        position.setLongitude(-9.19);
+        position.setAltitude(122.0);
+        position.setHeading(359.5);
+        position.setPrecision(0.5);
+        position.setSatellites(12);
+        position.setSpeed(0.0);
+        position.setTimestamp(new Date(1546300799000L));
+        position.setStatus(1);
+        payload.setPosition(position);
+
+        payload.addMetric("boolean", true);
+        payload.addMetric("double", 3.141592653589793);
+        payload.addMetric("float", 2.5f);
+        payload.addMetric("int", -42);
+        payload.addMetric("long", Long.MAX_VALUE);
+        payload.addMetric("string", "café \"quoted\"");
+        payload.addMetric("bytes", new byte[] { 0, 1, 2, (byte) 0xff });
+        payload.setBody(new byte[] { 'b', 'o', 'd', 'y', 0, (byte) 0x80 });
+        return payload;
+    }
+
+    /**
+     * Returns a payload with random fields, metrics of random types and values picked among the edge cases of each
+     * type.
+     */
+    static KuraPayload random(final Random random) {
+        final KuraPayload payload = new KuraPayload();
+        if (random.nextBoolean()) {
+            payload.setTimestamp(new Date(random.nextLong() >>> 20));
+        }
+        if (random.nextBoolean()) {
+            final KuraPosition position = new KuraPosition();
+            if (random.nextBoolean()) {
+                position.setLatitude(randomDouble(random));
+            }
+            if (random.nextBoolean()) {
+                position.setLongitude(randomDouble(random));
+            }
+            if (random.nextBoolean()) {
+                position.setSatellites(random.nextInt(64));
+            }
+            if (random.nextBoolean()) {
+                position.setTimestamp(new Date(random.nextLong() >>> 20));
+            }
+            payload.setPosition(position);
+        }
+
+        final int metrics = random.nextInt(12);
+        for (int i = 0; i < metrics; i++) {
+            payload.addMetric(randomText(random) + i, randomValue(random));
+        }
+
+        if (random.nextBoolean()) {
+            final byte[] body = new byte[random.nextInt(100)];
+            random.nextBytes(body);
+            payload.setBody(body);
+        }
+        return payload;
+    }
+
+    /**
+     * Checks a payload decoded by an independent decoder into maps, lists and boxed values. Integral numbers are
+     * expected as {@link Long}s, floating point numbers as {@link Double}s and byte arrays as {@code byte[]}.
+     */
+    static void assertDecoded(final KuraPayload expected, final Map<String, Object> actual) {
+        if (expected.getTimestamp() != null) {
+            assertEquals(expected.getTimestamp().getTime(), actual.get("sentOn"));
+        }
+
+        final KuraPosition position = expected.getPosition();
+        if (position != null) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> actualPosition = (Map<String, Object>) actual.get("position");
+            assertEquals(position.getLatitude(), actualPosition.get("latitude"));
+            assertEquals(position.getLongitude(), actualPosition.get("longitude"));
+            assertEquals(position.getAltitude(), actualPosition.get("altitude"));
+            assertEquals(position.getHeading(), actualPosition.get("heading"));
+            assertEquals(position.getPrecision(), actualPosition.get("precision"));
+            assertEquals(position.getSatellites() != null ? (long) position.getSatellites() : null,
+                    actualPosition.get("satellites"));
+            assertEquals(position.getSpeed(), actualPosition.get("speed"));
+            assertEquals(position.getTimestamp() != null ? position.getTimestamp().getTime() : null,
+                    actualPosition.get("timestamp"));
+            assertEquals(position.getStatus() != null ? (long) position.getStatus() : null,
+                    actualPosition.get("status"));
+        }
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> actualMetrics = (Map<String, Object>) actual.get("metrics");
+        assertEquals(expected.metricNames(), actualMetrics.keySet());
+        for (final String name : expected.metricNames()) {
+            final Object value = expected.getMetric(name);
+            if (value instanceof byte[]) {
+                assertArrayEquals(name, (byte[]) value, (byte[]) actualMetrics.get(name));
+            } else if (value instanceof Integer) {
+                assertEquals(name, ((Integer) value).longValue(), actualMetrics.get(name));
+            } else if (value instanceof Float) {
+                assertEquals(name, ((Float) value).doubleValue(), actualMetrics.get(name));
+            } else {
+                assertEquals(name, value, actualMetrics.get(name));
+            }
+        }
+
+        if (expected.getBody() != null) {
+            assertArrayEquals(expected.getBody(), (byte[]) actual.get("body"));
+        }
+    }
+
+    private static Object randomValue(final Random random) {
+        switch (random.nextInt(7)) {
+        case 0:
+            return random.nextBoolean();
+        case 1:
+            return randomDouble(random);
+        case 2:
+            final float value = (float) randomDouble(random);
+            return Float.isInfinite(value) ? Float.MAX_VALUE : value;
+        case 3:
+            return (int) randomLong(random);
+        case 4:
+            return randomLong(random);
+        case 5:
+            return randomText(random);
+        default:
+            final byte[] bytes = new byte[random.nextInt(40)];
+            random.nextBytes(bytes);
+            return bytes;
+        }
+    }
+
+    private static String randomText(final Random random) {
+        return TEXTS[random.nextInt(TEXTS.length)];
+    }
+
+    private static long randomLong(final Random random) {
+        final long[] values = { 0, 1, -1, 23, 24, -24, -25, 127, 128, -128, -129, 255, 256, 32767, 32768, -32768,
+                -32769, 65535, 65536, Integer.MAX_VALUE, Integer.MIN_VALUE, 4294967295L, 4294967296L, Long.MAX_VALUE,
+                Long.MIN_VALUE };
+        return random.nextBoolean() ? values[random.nextInt(values.length)] : random.nextLong() >> random.nextInt(64);
+    }
+
+    private static double randomDouble(final Random random) {
+        final double[] values = { 0.0, -0.0, 1.0, -1.0, 0.1, 1e-7, 1e7, 1.0e20, 123456789.0, Double.MIN_VALUE,
+                Double.MAX_VALUE, -Double.MAX_VALUE };
+        return random.nextBoolean() ? values[random.nextInt(values.length)]
+                : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+    }
+}
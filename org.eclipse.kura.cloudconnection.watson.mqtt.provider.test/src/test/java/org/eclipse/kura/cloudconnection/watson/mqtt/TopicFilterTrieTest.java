@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class TopicFilterTrieTest {
+
+    @Test
+    public void testLiteralFilter() {
+        final TopicFilterTrie<String> trie = trie("iot-2/cmd/reboot/fmt/json");
+
+        assertMatches(trie, "iot-2/cmd/reboot/fmt/json", "iot-2/cmd/reboot/fmt/json");
+        assertMatches(trie, "iot-2/cmd/reboot/fmt");
+        assertMatches(trie, "iot-2/cmd/reboot/fmt/json/extra");
+    }
+
+    @Test
+    public void testSingleLevelWildcard() {
+        final TopicFilterTrie<String> trie = trie("iot-2/cmd/+/fmt/json", "+/+");
+
+        assertMatches(trie, "iot-2/cmd/reboot/fmt/json", "iot-2/cmd/+/fmt/json");
+        assertMatches(trie, "iot-2/cmd//fmt/json", "iot-2/cmd/+/fmt/json");
+        assertMatches(trie, "iot-2/cmd/reboot/extra/fmt/json");
+        assertMatches(trie, "iot-2/cmd", "+/+");
+        assertMatches(trie, "iot-2");
+    }
+
+    @Test
+    public void testMultiLevelWildcard() {
+        final TopicFilterTrie<String> trie = trie("iot-2/cmd/#", "#");
+
+        assertMatches(trie, "iot-2/cmd/reboot/fmt/json", "#", "iot-2/cmd/#");
+        assertMatches(trie, "iot-2/cmd/reboot", "#", "iot-2/cmd/#");
+        // '#' also matches the parent level
+        assertMatches(trie, "iot-2/cmd", "#", "iot-2/cmd/#");
+        assertMatches(trie, "iot-2/evt", "#");
+    }
+
+    @Test
+    public void testOverlappingFilters() {
+        final TopicFilterTrie<String> trie = trie("iot-2/cmd/reboot/fmt/json", "iot-2/cmd/+/fmt/json",
+                "iot-2/+/reboot/#", "iot-2/cmd/+/fmt/xml");
+
+        assertMatches(trie, "iot-2/cmd/reboot/fmt/json", "iot-2/+/reboot/#", "iot-2/cmd/+/fmt/json",
+                "iot-2/cmd/reboot/fmt/json");
+    }
+
+    @Test
+    public void testSystemTopics() {
+        final TopicFilterTrie<String> trie = trie("#", "+/monitor", "$SYS/#", "$SYS/+");
+
+        // filters starting with a wildcard do not match the topics starting with '$'
+        assertMatches(trie, "$SYS/monitor", "$SYS/#", "$SYS/+");
+        assertMatches(trie, "$SYS", "$SYS/#");
+        assertMatches(trie, "app/monitor", "#", "+/monitor");
+        // '$' only matters at the first level
+        assertMatches(trie, "app/$monitor", "#");
+    }
+
+    @Test
+    public void testReplace() {
+        final TopicFilterTrie<String> trie = new TopicFilterTrie<>();
+        trie.put("a/+", "first");
+        trie.put("a/+", "second");
+
+        assertMatches(trie, "a/b", "second");
+    }
+
+    @Test
+    public void testRemove() {
+        final TopicFilterTrie<String> trie = trie("a/#", "a/+", "a/b/c");
+
+        trie.remove("a/+");
+        assertMatches(trie, "a/b", "a/#");
+        assertMatches(trie, "a/b/c", "a/#", "a/b/c");
+
+        // the filters sharing the removed nodes are kept
+        trie.remove("a/#");
+        assertMatches(trie, "a/b/c", "a/b/c");
+        assertMatches(trie, "a");
+
+        trie.remove("a/b/c");
+        assertMatches(trie, "a/b/c");
+
+        // removing an unknown filter or a prefix of a filter has no effect
+        trie.put("x/y/z", "x/y/z");
+        trie.remove("x/y/z/w");
+        trie.remove("x/y");
+        assertMatches(trie, "x/y/z", "x/y/z");
+    }
+
+    @Test
+    public void testFilterCanBeAddedAgainAfterRemoval() {
+        final TopicFilterTrie<String> trie = trie("a/b/c");
+        trie.remove("a/b/c");
+        trie.put("a/b/c", "again");
+
+        assertMatches(trie, "a/b/c", "again");
+    }
+
+    private static TopicFilterTrie<String> trie(final String... filters) {
+        final TopicFilterTrie<String> trie = new TopicFilterTrie<>();
+        for (final String filter : filters) {
+            trie.put(filter, filter);
+        }
+        return trie;
+    }
+
+    private static void assertMatches(final TopicFilterTrie<String> trie, final String topic,
+            final String... expected) {
+        final Set<String> matched = new TreeSet<>();
+        final List<String> all = new ArrayList<>();
+        trie.match(topic, value -> {
+            matched.add(value);
+            all.add(value);
+        });
+
+        assertEquals(topic, new TreeSet<>(Arrays.asList(expected)), matched);
+        // a filter matches at most once
+        assertEquals(topic, matched.size(), all.size());
+    }
+}
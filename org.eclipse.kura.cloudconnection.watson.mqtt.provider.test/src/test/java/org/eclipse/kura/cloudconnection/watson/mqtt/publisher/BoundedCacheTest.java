@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testUsedEntriesSurviveEviction() {
+        final BoundedCache<Integer, String> cache = new BoundedCache<>(4);
+        for (int key = 0; key < 4; key++) {
+            cache.putIfAbsent(key, String.valueOf(key));
+        }
+        assertEquals("0", cache.get(0));
+        assertEquals("2", cache.get(2));
+
+        cache.putIfAbsent(4, "4");
+        cache.putIfAbsent(5, "5");
+
+        assertEquals(4, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals("0", cache.get(0));
+        assertEquals("2", cache.get(2));
+        assertNull(cache.get(1));
+        assertNull(cache.get(3));
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(4);
+        assertEquals("first", cache.putIfAbsent("key", "first"));
+        assertEquals("first", cache.putIfAbsent("key", "second"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(0);
+        assertEquals("value", cache.putIfAbsent("key", "value"));
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentUse() throws InterruptedException {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<>(64);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Thread thread = new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < 100_000; j++) {
+                    final int key = random.nextInt(256);
+                    final Integer value = cache.get(key);
+                    if (value == null) {
+                        cache.putIfAbsent(key, key);
+                    } else {
+                        assertEquals(key, value.intValue());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.size() <= 64);
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.Test;
+
+public class DeltaFilterTest {
+
+    @Test
+    public void testUnchangedPayloadIsSkipped() {
+        final DeltaFilter filter = newFilter();
+        final KuraPayload keyframe = payload(1);
+        final DeltaFilter.Delta first = filter.filter(keyframe);
+        assertSame(keyframe, first.getPayload());
+        filter.commit(first);
+
+        assertNull(filter.filter(payload(1)));
+
+        final KuraPayload withBody = payload(1);
+        withBody.setBody(new byte[] { 1 });
+        assertEquals(Collections.emptySet(), filter.filter(withBody).getPayload().metricNames());
+    }
+
+    @Test
+    public void testUncommittedChangesAreSentAgain() {
+        final DeltaFilter filter = newFilter();
+        filter.commit(filter.filter(payload(1)));
+
+        // the publish of the change failed, it is not committed
+        assertEquals(Collections.singleton("a"), filter.filter(payload(2)).getPayload().metricNames());
+
+        final DeltaFilter.Delta retry = filter.filter(payload(2));
+        assertEquals(Collections.singleton("a"), retry.getPayload().metricNames());
+        filter.commit(retry);
+        assertNull(filter.filter(payload(2)));
+    }
+
+    @Test
+    public void testUncommittedKeyframeIsSentAgain() {
+        final DeltaFilter filter = newFilter();
+        final KuraPayload failed = payload(1);
+        assertSame(failed, filter.filter(failed).getPayload());
+
+        final KuraPayload keyframe = payload(1);
+        assertSame(keyframe, filter.filter(keyframe).getPayload());
+    }
+
+    @Test
+    public void testKeyframeRequestedDuringPublish() {
+        final DeltaFilter filter = newFilter();
+        final DeltaFilter.Delta keyframe = filter.filter(payload(1));
+        filter.requestKeyframe();
+        filter.commit(keyframe);
+
+        final KuraPayload next = payload(1);
+        assertSame(next, filter.filter(next).getPayload());
+    }
+
+    private static DeltaFilter newFilter() {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("delta.enabled", true);
+        properties.put("delta.keyframe.interval", 0);
+        return new DeltaFilter(new WatsonPublisherOptions(properties));
+    }
+
+    private static KuraPayload payload(final int value) {
+        final KuraPayload payload = new KuraPayload();
+        payload.addMetric("a", value);
+        payload.addMetric("b", "constant");
+        return payload;
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.watson.mqtt.MqttCloudEndpointConstants;
+import org.junit.Test;
+
+public class DeviceTopicCacheTest {
+
+    @Test
+    public void testTopic() throws KuraException {
+        final DeviceTopicCache cache = newCache(2);
+        final Map<String, Object> properties = cache.getProperties("sensor", "s1", "status");
+
+        assertEquals("iot-2/type/sensor/id/s1/evt/status/fmt/json",
+                properties.get(MqttCloudEndpointConstants.TOPIC.name()));
+        assertSame(properties, cache.getProperties("sensor", "s1", "status"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDeviceIsEvicted() throws KuraException {
+        final DeviceTopicCache cache = newCache(2);
+        final Map<String, Object> first = cache.getProperties("sensor", "s1", "status");
+        final Map<String, Object> second = cache.getProperties("sensor", "s2", "status");
+        cache.getProperties("sensor", "s1", "status");
+
+        cache.getProperties("sensor", "s3", "status");
+
+        assertEquals(2, cache.getCachedDeviceCount());
+        assertSame(first, cache.getProperties("sensor", "s1", "status"));
+        assertNotSame(second, cache.getProperties("sensor", "s2", "status"));
+    }
+
+    @Test
+    public void testManyDevicesStayBounded() throws KuraException {
+        final DeviceTopicCache cache = newCache(16);
+        for (int i = 0; i < 1000; i++) {
+            cache.getProperties("sensor", "s" + i, "status");
+        }
+        assertEquals(16, cache.getCachedDeviceCount());
+    }
+
+    @Test
+    public void testInvalidDeviceIsNotCached() {
+        final DeviceTopicCache cache = newCache(2);
+        try {
+            cache.getProperties("sensor", "s/1", "status");
+        } catch (final KuraException e) {
+            assertEquals(0, cache.getCachedDeviceCount());
+            return;
+        }
+        throw new AssertionError("invalid device id accepted");
+    }
+
+    private static DeviceTopicCache newCache(final int maxDevices) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("gateway.max.devices", maxDevices);
+        return new DeviceTopicCache(Collections.emptyMap(), new WatsonPublisherOptions(properties));
+    }
+}
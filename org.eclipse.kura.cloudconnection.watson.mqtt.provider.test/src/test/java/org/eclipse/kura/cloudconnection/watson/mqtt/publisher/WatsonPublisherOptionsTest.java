@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadFormat;
+import org.junit.Test;
+
+public class WatsonPublisherOptionsTest {
+
+    @Test
+    public void testFormatFromTopic() {
+        final WatsonPublisherOptions options = newOptions("iot-2/evt/status/fmt/cbor", "auto");
+        assertEquals(PayloadFormat.CBOR, options.getPayloadFormat());
+        assertEquals("iot-2/evt/status/fmt/cbor", options.getTopic());
+    }
+
+    @Test
+    public void testExplicitFormatReplacesTopicFormat() {
+        assertTopic("iot-2/evt/status/fmt/cbor", "iot-2/evt/status/fmt/json", "cbor");
+        assertTopic("iot-2/evt/status/fmt/msgpack", "iot-2/evt/status/fmt/json", "msgpack");
+        assertTopic("iot-2/evt/status/fmt/json", "iot-2/evt/status/fmt/cbor", "json");
+        assertTopic("iot-2/evt/$eventId/fmt/cbor", "iot-2/evt/$eventId/fmt/$fmt", "cbor");
+    }
+
+    @Test
+    public void testMatchingTopicIsKept() {
+        assertTopic("iot-2/evt/status/fmt/messagepack", "iot-2/evt/status/fmt/messagepack", "msgpack");
+        assertTopic("iot-2/evt/$eventId/fmt/$fmt", "iot-2/evt/$eventId/fmt/$fmt", "json");
+        assertTopic("custom/topic", "custom/topic", "cbor");
+    }
+
+    @Test
+    public void testTemplateTopicFormat() throws Exception {
+        final WatsonPublisherOptions options = newOptions("iot-2/evt/$eventId/fmt/$fmt", "msgpack");
+        final TopicTemplate template = TopicTemplate.compile(options.getTopic(), options.getPayloadFormat(),
+                new HashMap<>(), 4);
+        final Map<String, Object> messageProperties = new HashMap<>();
+        messageProperties.put("EVENT_ID", "status");
+
+        assertEquals("iot-2/evt/status/fmt/msgpack", template.getProperties(messageProperties).get("TOPIC"));
+    }
+
+    private static void assertTopic(final String expected, final String topic, final String format) {
+        final WatsonPublisherOptions options = newOptions(topic, format);
+        assertEquals(PayloadFormat.fromValue(format), options.getPayloadFormat());
+        assertEquals(expected, options.getTopic());
+    }
+
+    private static WatsonPublisherOptions newOptions(final String topic, final String format) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("topic", topic);
+        properties.put("payload.format", format);
+        return new WatsonPublisherOptions(properties);
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.kura.cloudconnection.message.KuraMessage;
+import org.eclipse.kura.cloudconnection.watson.mqtt.RecordingDataService;
+import org.eclipse.kura.cloudconnection.watson.mqtt.WatsonCloudEndpoint;
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WatsonPublisherTest {
+
+    private RecordingDataService dataService;
+    private WatsonCloudEndpoint endpoint;
+    private WatsonPublisher publisher;
+
+    @Before
+    public void setUp() {
+        this.dataService = new RecordingDataService();
+        this.endpoint = new WatsonCloudEndpoint();
+        this.endpoint.bindDataService(this.dataService);
+        this.endpoint.activateInternal();
+        this.publisher = new WatsonPublisher();
+    }
+
+    @After
+    public void tearDown() {
+        this.publisher.unsetCloudConnectionService();
+        this.endpoint.deactivateInternal();
+    }
+
+    @Test
+    public void testEndpointIsKeptAcrossReconfiguration() throws Exception {
+        this.publisher.setOptions(options("iot-2/evt/a/fmt/json", 0));
+        this.publisher.setCloudConnectionService(this.endpoint);
+        this.publisher.setOptions(options("iot-2/evt/b/fmt/json", 1));
+
+        this.publisher.publish(new KuraMessage(payload()));
+
+        final List<RecordingDataService.Message> messages = this.dataService.getMessages();
+        assertEquals(1, messages.size());
+        assertEquals("iot-2/evt/b/fmt/json", messages.get(0).getTopic());
+        assertEquals(1, messages.get(0).getQos());
+    }
+
+    @Test
+    public void testConcurrentReconfigurationNeverMixesOptions() throws Exception {
+        final WatsonPublisherOptions first = options("iot-2/evt/a/fmt/json", 0);
+        final WatsonPublisherOptions second = options("iot-2/evt/b/fmt/json", 1);
+        this.publisher.setOptions(first);
+        this.publisher.setCloudConnectionService(this.endpoint);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Throwable> failures = new ArrayList<>();
+        final Thread publishing = new Thread(() -> {
+            final KuraMessage message = new KuraMessage(payload());
+            try {
+                while (running.get()) {
+                    this.publisher.publish(message);
+                }
+            } catch (final Exception e) {
+                failures.add(e);
+            }
+        });
+        publishing.start();
+
+        for (int i = 0; i < 2000; i++) {
+            this.publisher.setOptions(i % 2 == 0 ? second : first);
+        }
+        running.set(false);
+        publishing.join();
+
+        assertEquals(new ArrayList<Throwable>(), failures);
+        assertFalse(this.dataService.getMessages().isEmpty());
+        for (final RecordingDataService.Message message : this.dataService.getMessages()) {
+            assertEquals(message.getTopic(), message.getQos() == 0 ? "iot-2/evt/a/fmt/json" : "iot-2/evt/b/fmt/json");
+        }
+    }
+
+    private static KuraPayload payload() {
+        final KuraPayload payload = new KuraPayload();
+        payload.addMetric("temperature", 21.5);
+        return payload;
+    }
+
+    private static WatsonPublisherOptions options(final String topic, final int qos) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("topic", topic);
+        properties.put("qos", qos);
+        return new WatsonPublisherOptions(properties);
+    }
+}
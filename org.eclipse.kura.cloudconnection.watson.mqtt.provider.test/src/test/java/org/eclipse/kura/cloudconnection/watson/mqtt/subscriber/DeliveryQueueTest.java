@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.subscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.cloudconnection.message.KuraMessage;
+import org.eclipse.kura.message.KuraPayload;
+import org.junit.After;
+import org.junit.Test;
+
+public class DeliveryQueueTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private final List<KuraMessage> delivered = new CopyOnWriteArrayList<>();
+    // the delivery thread holds the first message until released, so that the following ones pile up
+    private final CountDownLatch firstTaken = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DeliveryQueue queue;
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        if (this.queue != null) {
+            this.queue.close();
+        }
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        final KuraMessage[] messages = messages(4);
+        this.queue = newQueue("drop-newest", 2, 0);
+        holdFirst(messages[0]);
+
+        assertTrue(this.queue.offer(messages[1]));
+        assertTrue(this.queue.offer(messages[2]));
+        assertFalse(this.queue.offer(messages[3]));
+        assertEquals(1, this.queue.getDroppedCount());
+
+        this.release.countDown();
+        awaitDelivered(messages[0], messages[1], messages[2]);
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        final KuraMessage[] messages = messages(4);
+        this.queue = newQueue("drop-oldest", 2, 0);
+        holdFirst(messages[0]);
+
+        assertTrue(this.queue.offer(messages[1]));
+        assertTrue(this.queue.offer(messages[2]));
+        assertFalse(this.queue.offer(messages[3]));
+        assertEquals(1, this.queue.getDroppedCount());
+        assertEquals(2, this.queue.size());
+
+        this.release.countDown();
+        awaitDelivered(messages[0], messages[2], messages[3]);
+    }
+
+    @Test
+    public void testBlockNeverBlocksTheDispatcher() throws InterruptedException {
+        final KuraMessage[] messages = messages(6);
+        this.queue = newQueue("block", 2, TimeUnit.MINUTES.toMillis(1));
+        holdFirst(messages[0]);
+
+        // the consumer is still stuck, the offers that find the queue full must return at once
+        final long start = System.nanoTime();
+        assertTrue(this.queue.offer(messages[1]));
+        assertTrue(this.queue.offer(messages[2]));
+        assertTrue(this.queue.offer(messages[3]));
+        assertTrue(this.queue.offer(messages[4]));
+        assertFalse(this.queue.offer(messages[5]));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(1, this.queue.getDroppedCount());
+        assertEquals(4, this.queue.size());
+
+        this.release.countDown();
+        awaitDelivered(messages[0], messages[1], messages[2], messages[3], messages[4]);
+    }
+
+    @Test
+    public void testBlockDropsTheMessagesWaitingLongerThanTheTimeout() throws InterruptedException {
+        final KuraMessage[] messages = messages(5);
+        this.queue = newQueue("block", 2, 50);
+        holdFirst(messages[0]);
+
+        assertTrue(this.queue.offer(messages[1]));
+        assertTrue(this.queue.offer(messages[2]));
+        assertTrue(this.queue.offer(messages[3]));
+        Thread.sleep(200);
+
+        this.release.countDown();
+        awaitDelivered(messages[0], messages[1], messages[2]);
+        assertEquals(1, this.queue.getDroppedCount());
+
+        // the queue accepts messages again once drained
+        assertTrue(this.queue.offer(messages[4]));
+        awaitDelivered(messages[0], messages[1], messages[2], messages[4]);
+    }
+
+    @Test
+    public void testCloseDiscardsTheQueuedMessages() throws InterruptedException {
+        final KuraMessage[] messages = messages(3);
+        this.queue = newQueue("drop-oldest", 2, 0);
+        holdFirst(messages[0]);
+        this.queue.offer(messages[1]);
+        this.queue.offer(messages[2]);
+
+        this.queue.close();
+
+        assertEquals(0, this.queue.size());
+        assertFalse(this.queue.offer(messages[1]));
+    }
+
+    private DeliveryQueue newQueue(final String overflowPolicy, final int capacity, final long blockTimeoutMs) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("queue.capacity", capacity);
+        properties.put("queue.overflow.policy", overflowPolicy);
+        properties.put("queue.block.timeout.ms", (int) blockTimeoutMs);
+
+        return new DeliveryQueue(new WatsonSubscriberOptions(properties), "DeliveryQueueTest", message -> {
+            this.firstTaken.countDown();
+            try {
+                this.release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.delivered.add(message);
+        });
+    }
+
+    private void holdFirst(final KuraMessage message) throws InterruptedException {
+        assertTrue(this.queue.offer(message));
+        assertTrue(this.firstTaken.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private void awaitDelivered(final KuraMessage... expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (this.delivered.size() < expected.length && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Arrays.asList(expected), this.delivered);
+    }
+
+    private static KuraMessage[] messages(final int count) {
+        final KuraMessage[] messages = new KuraMessage[count];
+        for (int i = 0; i < count; i++) {
+            final KuraPayload payload = new KuraPayload();
+            payload.addMetric("index", i);
+            messages[i] = new KuraMessage(payload);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,390 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.message.KuraMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded queue of messages published asynchronously, drained by dedicated worker threads that encode the messages
+ * and hand them over to the {@code DataService}.
+ * <p>
+ * Each {@link PublishPriority} has its own lane, a ring buffer of preallocated slots, each guarded by a sequence
+ * number: producers and workers claim slots with a single compare-and-set on the tail and head counters of the lane,
+ * so enqueueing neither locks nor allocates. Workers drain up to a configured number of messages at a time, split
+ * among the lanes according to their weight and starting from the highest priority, and park when the queue is empty.
+ *
+ */
+public final class AsyncPublishQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncPublishQueue.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    interface MessageHandler {
+
+        /**
+         * Encodes and publishes a message taken from the queue.
+         *
+         * @param messageId
+         *            the id returned to the caller when the message was queued, {@code null} for QoS 0 messages
+         * @param enqueueNanos
+         *            the {@link System#nanoTime()} the message was queued at
+         */
+        void publish(KuraMessage message, String messageId, long enqueueNanos) throws KuraException;
+    }
+
+    private final Lane[] lanes;
+
+    private final MessageHandler handler;
+    private final int drainBatchSize;
+    private final Worker[] workers;
+    private volatile boolean closed;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder enqueueNanos = new LongAdder();
+    private final AtomicLong maxEnqueueNanos = new AtomicLong();
+    private final LongAdder queuedNanos = new LongAdder();
+    private final AtomicLong maxQueuedNanos = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            the maximum number of queued messages of each priority, rounded up to the next power of two
+     * @param workerCount
+     *            the number of worker threads
+     * @param drainBatchSize
+     *            the maximum number of messages a worker takes from the queue at a time
+     */
+    AsyncPublishQueue(final int capacity, final int workerCount, final int drainBatchSize,
+            final MessageHandler handler) {
+        final int size = MetricNameCache.tableSizeFor(capacity);
+        this.handler = handler;
+        this.drainBatchSize = Math.max(1, drainBatchSize);
+
+        final PublishPriority[] priorities = PublishPriority.values();
+        int totalWeight = 0;
+        for (final PublishPriority priority : priorities) {
+            totalWeight += priority.getWeight();
+        }
+        this.lanes = new Lane[priorities.length];
+        for (final PublishPriority priority : priorities) {
+            final int quota = Math.max(1, this.drainBatchSize * priority.getWeight() / totalWeight);
+            this.lanes[priority.ordinal()] = new Lane(size, quota);
+        }
+
+        this.workers = new Worker[Math.max(1, workerCount)];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker("WatsonAsyncPublisher-" + i);
+        }
+        for (final Worker worker : this.workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Queues a message for publishing.
+     *
+     * @return {@code false} if the lane of the message priority is full or the queue is closed
+     */
+    boolean offer(final KuraMessage message, final String messageId, final PublishPriority priority) {
+        if (this.closed) {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        if (!this.lanes[priority.ordinal()].offer(message, messageId, start)) {
+            this.dropped.increment();
+            return false;
+        }
+
+        this.enqueued.increment();
+        wakeUpWorker();
+        record(System.nanoTime() - start, this.enqueueNanos, this.maxEnqueueNanos);
+        return true;
+    }
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Stops accepting messages and waits for the workers to publish the queued ones.
+     */
+    void close() {
+        this.closed = true;
+        for (final Worker worker : this.workers) {
+            LockSupport.unpark(worker.thread);
+        }
+
+        final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+        try {
+            for (final Worker worker : this.workers) {
+                worker.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final int left = getDepth();
+        if (left > 0) {
+            this.dropped.add(left);
+            logger.warn("{} queued messages not published", left);
+        }
+    }
+
+    /**
+     * Returns the maximum number of queued messages of each priority.
+     */
+    public int getCapacity() {
+        return this.lanes[0].mask + 1;
+    }
+
+    /**
+     * Returns the number of messages waiting in the queue.
+     */
+    public int getDepth() {
+        int depth = 0;
+        for (final Lane lane : this.lanes) {
+            depth += lane.depth();
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the number of messages of the provided priority waiting in the queue.
+     */
+    public int getDepth(final PublishPriority priority) {
+        return this.lanes[priority.ordinal()].depth();
+    }
+
+    public long getEnqueuedCount() {
+        return this.enqueued.sum();
+    }
+
+    /**
+     * Returns the number of messages rejected because the queue was full or left in the queue when it was closed.
+     */
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Returns the number of queued messages that could not be encoded or handed over to the {@code DataService}.
+     */
+    public long getFailedCount() {
+        return this.failed.sum();
+    }
+
+    /**
+     * Returns the average time spent by producers to queue a message.
+     */
+    public long getAverageEnqueueLatencyNanos() {
+        final long count = getEnqueuedCount();
+        return count == 0 ? 0 : this.enqueueNanos.sum() / count;
+    }
+
+    public long getMaxEnqueueLatencyNanos() {
+        return this.maxEnqueueNanos.get();
+    }
+
+    /**
+     * Returns the average time messages waited in the queue before being handed over to the {@code DataService}.
+     */
+    public long getAverageQueuedNanos() {
+        final long count = getEnqueuedCount() - getDepth();
+        return count <= 0 ? 0 : this.queuedNanos.sum() / count;
+    }
+
+    public long getMaxQueuedNanos() {
+        return this.maxQueuedNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncPublishQueue [capacity=" + getCapacity() + ", depth=" + getDepth() + ", enqueued="
+                + getEnqueuedCount() + ", dropped=" + getDroppedCount() + ", failed=" + getFailedCount()
+                + ", avgEnqueueNanos=" + getAverageEnqueueLatencyNanos() + ", maxEnqueueNanos="
+                + getMaxEnqueueLatencyNanos() + ", avgQueuedNanos=" + getAverageQueuedNanos() + ", maxQueuedNanos="
+                + getMaxQueuedNanos() + "]";
+    }
+
+    private int drain(final KuraMessage[] drainedMessages, final String[] drainedIds, final long[] drainedTimes) {
+        int count = 0;
+        for (final Lane lane : this.lanes) {
+            count = lane.drain(drainedMessages, drainedIds, drainedTimes, count,
+                    Math.min(drainedMessages.length, count + lane.quota));
+        }
+        return count;
+    }
+
+    private void wakeUpWorker() {
+        for (final Worker worker : this.workers) {
+            if (worker.parked) {
+                worker.parked = false;
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private static void record(final long nanos, final LongAdder total, final AtomicLong max) {
+        total.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    private static final class Lane {
+
+        private final int mask;
+        private final int quota;
+        private final AtomicLongArray sequences;
+        private final KuraMessage[] messages;
+        private final String[] messageIds;
+        private final long[] enqueueTimes;
+
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        Lane(final int size, final int quota) {
+            this.mask = size - 1;
+            this.quota = quota;
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                this.sequences.set(i, i);
+            }
+            this.messages = new KuraMessage[size];
+            this.messageIds = new String[size];
+            this.enqueueTimes = new long[size];
+        }
+
+        int depth() {
+            return (int) Math.max(0, this.tail.get() - this.head.get());
+        }
+
+        boolean offer(final KuraMessage message, final String messageId, final long enqueueTime) {
+            long position = this.tail.get();
+            for (;;) {
+                final int index = (int) position & this.mask;
+                final long difference = this.sequences.get(index) - position;
+                if (difference == 0) {
+                    if (this.tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                    position = this.tail.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = this.tail.get();
+                }
+            }
+
+            final int index = (int) position & this.mask;
+            this.messages[index] = message;
+            this.messageIds[index] = messageId;
+            this.enqueueTimes[index] = enqueueTime;
+            this.sequences.lazySet(index, position + 1);
+            return true;
+        }
+
+        /**
+         * Moves queued messages to the provided arrays, starting at {@code from} and stopping at {@code to} or when
+         * the lane is empty.
+         *
+         * @return the index following the last drained message
+         */
+        int drain(final KuraMessage[] drainedMessages, final String[] drainedIds, final long[] drainedTimes,
+                final int from, final int to) {
+            int count = from;
+            while (count < to) {
+                long position = this.head.get();
+                int index;
+                for (;;) {
+                    index = (int) position & this.mask;
+                    final long difference = this.sequences.get(index) - (position + 1);
+                    if (difference == 0) {
+                        if (this.head.compareAndSet(position, position + 1)) {
+                            break;
+                        }
+                        position = this.head.get();
+                    } else if (difference < 0) {
+                        return count;
+                    } else {
+                        position = this.head.get();
+                    }
+                }
+
+                drainedMessages[count] = this.messages[index];
+                drainedIds[count] = this.messageIds[index];
+                drainedTimes[count] = this.enqueueTimes[index];
+                this.messages[index] = null;
+                this.messageIds[index] = null;
+                this.sequences.lazySet(index, position + this.mask + 1);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        private final Thread thread;
+        private final KuraMessage[] drainedMessages = new KuraMessage[AsyncPublishQueue.this.drainBatchSize];
+        private final String[] drainedIds = new String[AsyncPublishQueue.this.drainBatchSize];
+        private final long[] drainedTimes = new long[AsyncPublishQueue.this.drainBatchSize];
+        private volatile boolean parked;
+
+        Worker(final String name) {
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                final int count = drain(this.drainedMessages, this.drainedIds, this.drainedTimes);
+                if (count == 0) {
+                    if (AsyncPublishQueue.this.closed) {
+                        return;
+                    }
+                    this.parked = true;
+                    // re-check after advertising, a producer may have missed the flag
+                    if (getDepth() == 0) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    this.parked = false;
+                    continue;
+                }
+
+                final long now = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    record(now - this.drainedTimes[i], AsyncPublishQueue.this.queuedNanos,
+                            AsyncPublishQueue.this.maxQueuedNanos);
+                    try {
+                        AsyncPublishQueue.this.handler.publish(this.drainedMessages[i], this.drainedIds[i],
+                                this.drainedTimes[i]);
+                    } catch (final Exception e) {
+                        AsyncPublishQueue.this.failed.increment();
+                        logger.warn("failed to publish queued message", e);
+                    }
+                    this.drainedMessages[i] = null;
+                    this.drainedIds[i] = null;
+                }
+            }
+        }
+    }
+}
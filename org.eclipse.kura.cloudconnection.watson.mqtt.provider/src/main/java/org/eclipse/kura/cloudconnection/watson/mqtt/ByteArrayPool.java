@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of the byte arrays holding encoded payloads until the {@code DataService} has accepted them.
+ * <p>
+ * {@code DataService.publish} takes the payload as a whole array, so a leased array has exactly the requested length.
+ * Idle arrays are kept in power of two size classes, each with a fixed number of slots holding arrays of any length in
+ * its range: a lease is served from the pool if an idle array of the requested length is found in its class, and a
+ * released array takes a free slot of its class or, if there is none, replaces the array in the slot its length maps
+ * to. Payloads of the same shape, as most telemetry, have few distinct lengths and keep hitting the pool.
+ *
+ */
+public final class ByteArrayPool {
+
+    private static final int MIN_CLASS_SHIFT = 6;
+    static final int MIN_ARRAY_LENGTH = 1 << MIN_CLASS_SHIFT;
+
+    private final int maxArrayLength;
+    private final AtomicReferenceArray<byte[]>[] classes;
+    private final int slotMask;
+
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * @param maxArrayLength
+     *            the length of the largest pooled arrays, longer arrays are allocated and left to the garbage
+     *            collector
+     * @param arraysPerClass
+     *            the maximum number of idle arrays of each size class, rounded up to the next power of two
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    ByteArrayPool(final int maxArrayLength, final int arraysPerClass) {
+        this.maxArrayLength = Math.max(MIN_ARRAY_LENGTH, maxArrayLength);
+        final int slots = MetricNameCache.tableSizeFor(arraysPerClass);
+        this.slotMask = slots - 1;
+
+        this.classes = new AtomicReferenceArray[classOf(this.maxArrayLength) + 1];
+        for (int i = 0; i < this.classes.length; i++) {
+            this.classes[i] = new AtomicReferenceArray<>(slots);
+        }
+    }
+
+    /**
+     * Leases an array of the provided length, with undefined content. It must be handed back with
+     * {@link #release(byte[])} once its content is no longer referenced.
+     */
+    byte[] acquire(final int length) {
+        this.leases.increment();
+        this.outstanding.incrementAndGet();
+        if (length == 0 || length > this.maxArrayLength) {
+            return new byte[length];
+        }
+
+        final AtomicReferenceArray<byte[]> slots = this.classes[classOf(length)];
+        for (int i = 0; i <= this.slotMask; i++) {
+            final byte[] array = slots.get(i);
+            if (array != null && array.length == length && slots.compareAndSet(i, array, null)) {
+                this.hits.increment();
+                return array;
+            }
+        }
+        return new byte[length];
+    }
+
+    void release(final byte[] array) {
+        this.outstanding.decrementAndGet();
+        if (array.length == 0 || array.length > this.maxArrayLength) {
+            return;
+        }
+
+        final AtomicReferenceArray<byte[]> slots = this.classes[classOf(array.length)];
+        for (int i = 0; i <= this.slotMask; i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, array)) {
+                return;
+            }
+        }
+        // the class is full, make room for the latest length
+        slots.set(array.length & this.slotMask, array);
+    }
+
+    public int getMaxArrayLength() {
+        return this.maxArrayLength;
+    }
+
+    public long getLeaseCount() {
+        return this.leases.sum();
+    }
+
+    /**
+     * Returns the number of leases served with an idle array rather than a new one.
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the ratio between the leases served with an idle array and all the leases.
+     */
+    public double getHitRate() {
+        final long count = getLeaseCount();
+        return count == 0 ? 0 : (double) getHitCount() / count;
+    }
+
+    /**
+     * Returns the number of leased arrays not handed back yet. A value growing over time reveals a leak.
+     */
+    public int getOutstandingLeases() {
+        return this.outstanding.get();
+    }
+
+    /**
+     * Returns the number of bytes held by the idle arrays.
+     */
+    public long getIdleBytes() {
+        long bytes = 0;
+        for (final AtomicReferenceArray<byte[]> slots : this.classes) {
+            for (int i = 0; i <= this.slotMask; i++) {
+                final byte[] array = slots.get(i);
+                if (array != null) {
+                    bytes += array.length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteArrayPool [maxArrayLength=" + getMaxArrayLength() + ", leases=" + getLeaseCount() + ", hitRate="
+                + String.format("%.3f", getHitRate()) + ", outstandingLeases=" + getOutstandingLeases()
+                + ", idleBytes=" + getIdleBytes() + "]";
+    }
+
+    /**
+     * Returns the size class of the provided length, class {@code n} holding the lengths up to
+     * {@code MIN_ARRAY_LENGTH << n}.
+     */
+    static int classOf(final int length) {
+        return Math.max(0, 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_CLASS_SHIFT);
+    }
+}
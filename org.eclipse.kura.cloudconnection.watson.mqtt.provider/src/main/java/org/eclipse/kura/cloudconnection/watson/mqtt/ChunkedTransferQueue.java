@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.listener.CloudDeliveryListener;
+import org.eclipse.kura.message.KuraPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A queue of payloads with large bodies, published as a sequence of JSON messages, each carrying a slice of the body
+ * and the metrics needed to reassemble it: the id of the transfer, the index of the chunk, the number of chunks, the
+ * CRC32 of the chunk, and the size and CRC32 of the whole body. The first chunk also carries the metrics and the
+ * position of the payload.
+ * <p>
+ * Transfers are sent one at a time, in the order they were queued, by a single thread publishing at most a configured
+ * number of chunks per second through the endpoint, and only while it is connected. Each chunk is encoded when it is
+ * sent, so that a transfer only keeps a reference to the body and one encoded chunk at a time.
+ *
+ */
+public final class ChunkedTransferQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedTransferQueue.class);
+
+    public static final String TRANSFER_ID_METRIC = "transfer_id";
+    public static final String TRANSFER_SIZE_METRIC = "transfer_size";
+    public static final String TRANSFER_CRC32_METRIC = "transfer_crc32";
+    public static final String CHUNK_INDEX_METRIC = "chunk_index";
+    public static final String CHUNK_TOTAL_METRIC = "chunk_total";
+    public static final String CHUNK_CRC32_METRIC = "chunk_crc32";
+
+    private static final int TICKS_PER_SECOND = 20;
+
+    private final MqttCloudEndpoint endpoint;
+    private final Queue<Transfer> transfers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService executor;
+    private volatile int chunksPerSecond;
+    private volatile int maxPendingTransfers;
+    private int credit;
+
+    private final LongAdder sentChunks = new LongAdder();
+    private final LongAdder completedTransfers = new LongAdder();
+    private final LongAdder failedTransfers = new LongAdder();
+
+    /**
+     * @param chunksPerSecond
+     *            the maximum number of chunks published per second
+     * @param maxPendingTransfers
+     *            the maximum number of transfers waiting to be sent, including the one being sent
+     */
+    ChunkedTransferQueue(final MqttCloudEndpoint endpoint, final int chunksPerSecond, final int maxPendingTransfers) {
+        this.endpoint = endpoint;
+        setLimits(chunksPerSecond, maxPendingTransfers);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "WatsonChunkedTransfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long tick = TimeUnit.SECONDS.toMillis(1) / TICKS_PER_SECOND;
+        this.executor.scheduleAtFixedRate(this::sendChunks, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    void setLimits(final int chunksPerSecond, final int maxPendingTransfers) {
+        this.chunksPerSecond = Math.max(1, chunksPerSecond);
+        this.maxPendingTransfers = Math.max(1, maxPendingTransfers);
+    }
+
+    /**
+     * Queues the transfer of a payload. The body of the payload is not copied and must not be modified until the
+     * transfer is complete.
+     *
+     * @param properties
+     *            the publishing properties of the chunks, the DELIVERY_LISTENER property, if set, is notified with the
+     *            transfer id once all the chunks have been confirmed
+     * @param chunkSize
+     *            the maximum number of body bytes carried by a chunk
+     * @return the transfer id, or {@code null} if too many transfers are pending
+     */
+    String offer(final KuraPayload payload, final Map<String, Object> properties, final int chunkSize) {
+        if (this.pending.incrementAndGet() > this.maxPendingTransfers) {
+            this.pending.decrementAndGet();
+            return null;
+        }
+
+        final Transfer transfer = new Transfer(payload, properties, Math.max(1, chunkSize));
+        this.transfers.add(transfer);
+        return transfer.id;
+    }
+
+    /**
+     * Stops sending chunks, the pending transfers are dropped.
+     */
+    void close() {
+        this.executor.shutdownNow();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final int left = this.transfers.size();
+        this.transfers.clear();
+        this.pending.set(0);
+        if (left > 0) {
+            this.failedTransfers.add(left);
+            logger.warn("{} pending chunked transfers dropped", left);
+        }
+    }
+
+    public int getChunksPerSecond() {
+        return this.chunksPerSecond;
+    }
+
+    public int getMaxPendingTransfers() {
+        return this.maxPendingTransfers;
+    }
+
+    /**
+     * Returns the number of transfers waiting to be sent, including the one being sent.
+     */
+    public int getPendingTransferCount() {
+        return this.pending.get();
+    }
+
+    public long getSentChunkCount() {
+        return this.sentChunks.sum();
+    }
+
+    /**
+     * Returns the number of transfers whose chunks have all been handed over to the {@code DataService}.
+     */
+    public long getCompletedTransferCount() {
+        return this.completedTransfers.sum();
+    }
+
+    /**
+     * Returns the number of transfers aborted because a chunk could not be published, or dropped when the queue was
+     * closed.
+     */
+    public long getFailedTransferCount() {
+        return this.failedTransfers.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkedTransferQueue [chunksPerSecond=" + getChunksPerSecond() + ", pending="
+                + getPendingTransferCount() + ", sentChunks=" + getSentChunkCount() + ", completed="
+                + getCompletedTransferCount() + ", failed=" + getFailedTransferCount() + "]";
+    }
+
+    private void sendChunks() {
+        if (this.transfers.isEmpty() || !this.endpoint.isConnected()) {
+            this.credit = 0;
+            return;
+        }
+
+        // spread the rate over the ticks, carrying over the remainder
+        this.credit += this.chunksPerSecond;
+        int budget = this.credit / TICKS_PER_SECOND;
+        this.credit %= TICKS_PER_SECOND;
+
+        while (budget > 0) {
+            final Transfer transfer = this.transfers.peek();
+            if (transfer == null) {
+                return;
+            }
+
+            try {
+                transfer.publishNextChunk();
+                this.sentChunks.increment();
+                budget--;
+                if (transfer.isSent()) {
+                    remove(transfer);
+                    this.completedTransfers.increment();
+                }
+            } catch (final Exception e) {
+                remove(transfer);
+                this.failedTransfers.increment();
+                logger.warn("Aborted chunked transfer {} at chunk {} of {}", transfer.id, transfer.nextIndex,
+                        transfer.total, e);
+            }
+        }
+    }
+
+    private void remove(final Transfer transfer) {
+        this.transfers.remove(transfer);
+        this.pending.decrementAndGet();
+    }
+
+    private final class Transfer implements CloudDeliveryListener {
+
+        private final String id = UUID.randomUUID().toString();
+        private final KuraPayload payload;
+        private final byte[] body;
+        private final int chunkSize;
+        private final int total;
+        private final long crc32;
+        private final Map<String, Object> properties;
+        private final CloudDeliveryListener owner;
+        private final AtomicInteger unconfirmed;
+        private int nextIndex;
+
+        Transfer(final KuraPayload payload, final Map<String, Object> properties, final int chunkSize) {
+            this.payload = payload;
+            final byte[] payloadBody = payload.getBody();
+            this.body = payloadBody != null ? payloadBody : new byte[0];
+            this.chunkSize = chunkSize;
+            this.total = Math.max(1, (this.body.length + chunkSize - 1) / chunkSize);
+            this.unconfirmed = new AtomicInteger(this.total);
+
+            final CRC32 checksum = new CRC32();
+            checksum.update(this.body, 0, this.body.length);
+            this.crc32 = checksum.getValue();
+
+            final Object listener = properties.get(MqttCloudEndpointConstants.DELIVERY_LISTENER.name());
+            this.owner = listener instanceof CloudDeliveryListener ? (CloudDeliveryListener) listener : null;
+            this.properties = new HashMap<>(properties);
+            if (this.owner != null) {
+                this.properties.put(MqttCloudEndpointConstants.DELIVERY_LISTENER.name(), this);
+            }
+        }
+
+        boolean isSent() {
+            return this.nextIndex >= this.total;
+        }
+
+        void publishNextChunk() throws KuraException {
+            final int offset = this.nextIndex * this.chunkSize;
+            final int length = Math.min(this.chunkSize, this.body.length - offset);
+
+            final KuraPayload header = new KuraPayload();
+            header.setTimestamp(this.payload.getTimestamp());
+            if (this.nextIndex == 0) {
+                header.setPosition(this.payload.getPosition());
+                for (final String name : this.payload.metricNames()) {
+                    header.addMetric(name, this.payload.getMetric(name));
+                }
+            }
+
+            final CRC32 checksum = new CRC32();
+            checksum.update(this.body, offset, length);
+            header.addMetric(TRANSFER_ID_METRIC, this.id);
+            header.addMetric(CHUNK_INDEX_METRIC, this.nextIndex);
+            header.addMetric(CHUNK_TOTAL_METRIC, this.total);
+            header.addMetric(CHUNK_CRC32_METRIC, checksum.getValue());
+            header.addMetric(TRANSFER_SIZE_METRIC, this.body.length);
+            header.addMetric(TRANSFER_CRC32_METRIC, this.crc32);
+
+            final MqttCloudEndpoint currentEndpoint = ChunkedTransferQueue.this.endpoint;
+            final ByteArrayPool pool = currentEndpoint.getBufferPool();
+            final byte[] chunk = CloudPayloadJsonStreamEncoder.getBytes(header, this.body, offset, length,
+                    currentEndpoint.getMetricNameCache(), pool);
+            try {
+                currentEndpoint.publishEncoded(this.properties, chunk);
+            } finally {
+                if (pool != null) {
+                    pool.release(chunk);
+                }
+            }
+            this.nextIndex++;
+        }
+
+        @Override
+        public void onMessageConfirmed(final String messageId) {
+            if (this.unconfirmed.decrementAndGet() == 0) {
+                this.owner.onMessageConfirmed(this.id);
+            }
+        }
+    }
+}
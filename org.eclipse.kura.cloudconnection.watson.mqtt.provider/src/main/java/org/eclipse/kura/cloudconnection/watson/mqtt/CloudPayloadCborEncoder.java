@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.BODY;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.METRICS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.POSITION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.SENTON;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.ALTITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.HEADING;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LATITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LONGITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.PRECISION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SATELLITES;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SPEED;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.STATUS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.TIMESTAMP;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+
+/**
+ * Encodes a {@link KuraPayload} as CBOR (RFC 7049), using the same sentOn/position/metrics/body layout of the JSON
+ * encoding. Numbers keep their native width and byte arrays are carried as byte strings instead of Base64 text.
+ *
+ */
+public class CloudPayloadCborEncoder {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_MAP = 5;
+
+    static final int ARRAY_INDEFINITE = 0x9f;
+    static final int BREAK = 0xff;
+
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int FLOAT32 = 0xfa;
+    private static final int FLOAT64 = 0xfb;
+
+    private CloudPayloadCborEncoder() {
+    }
+
+    /**
+     * This static method takes a {@link KuraPayload} and converts it into a CBOR encoded {@code byte[]}
+     *
+     * @param kuraPayload
+     *            a {@link KuraPayload} object that has to be converted.
+     * @return a byte[] that maps the received {@link KuraPayload} object
+     * @throws IllegalArgumentException
+     *             if the conversion fails
+     */
+    public static byte[] getBytes(KuraPayload kuraPayload) {
+        final PayloadBuffer buffer = ScratchBuffers.acquire();
+
+        try {
+            encode(kuraPayload, buffer);
+            return buffer.toByteArray();
+        } finally {
+            ScratchBuffers.release(buffer);
+        }
+    }
+
+    static void encode(KuraPayload kuraPayload, PayloadBuffer buffer) {
+        final Date timestamp = kuraPayload.getTimestamp();
+        final KuraPosition position = kuraPayload.getPosition();
+        final byte[] body = kuraPayload.getBody();
+
+        writeHeader(buffer, MAJOR_MAP,
+                1 + (timestamp != null ? 1 : 0) + (position != null ? 1 : 0) + (body != null ? 1 : 0));
+
+        if (timestamp != null) {
+            writeText(buffer, SENTON.value());
+            writeLong(buffer, timestamp.getTime());
+        }
+
+        if (position != null) {
+            writeText(buffer, POSITION.value());
+            encodePosition(position, buffer);
+        }
+
+        writeText(buffer, METRICS.value());
+        encodeMetrics(kuraPayload, buffer);
+
+        if (body != null) {
+            writeText(buffer, BODY.value());
+            writeBytes(buffer, body);
+        }
+    }
+
+    private static void encodeMetrics(KuraPayload kuraPayload, PayloadBuffer buffer) {
+        final Set<String> names = kuraPayload.metricNames();
+        writeHeader(buffer, MAJOR_MAP, names.size());
+
+        for (String name : names) {
+            Object object = kuraPayload.getMetric(name);
+
+            writeText(buffer, name);
+            if (object instanceof Boolean) {
+                buffer.write((Boolean) object ? TRUE : FALSE);
+            } else if (object instanceof Double) {
+                writeDouble(buffer, (Double) object);
+            } else if (object instanceof Float) {
+                buffer.write(FLOAT32);
+                writeInt32(buffer, Float.floatToIntBits((Float) object));
+            } else if (object instanceof Integer) {
+                writeLong(buffer, (Integer) object);
+            } else if (object instanceof Long) {
+                writeLong(buffer, (Long) object);
+            } else if (object instanceof String) {
+                writeText(buffer, (String) object);
+            } else if (object instanceof byte[]) {
+                writeBytes(buffer, (byte[]) object);
+            } else {
+                throw new IllegalArgumentException("Cannot encode this value: " + object);
+            }
+        }
+    }
+
+    private static void encodePosition(KuraPosition position, PayloadBuffer buffer) {
+        final Double latitude = position.getLatitude();
+        final Double longitude = position.getLongitude();
+        final Double altitude = position.getAltitude();
+        final Double heading = position.getHeading();
+        final Double precision = position.getPrecision();
+        final Integer satellites = position.getSatellites();
+        final Double speed = position.getSpeed();
+        final Date timestamp = position.getTimestamp();
+        final Integer status = position.getStatus();
+
+        writeHeader(buffer, MAJOR_MAP, countNonNull(latitude, longitude, altitude, heading, precision, satellites,
+                speed, timestamp, status));
+
+        if (latitude != null) {
+            writeText(buffer, LATITUDE.value());
+            writeDouble(buffer, latitude);
+        }
+        if (longitude != null) {
+            writeText(buffer, LONGITUDE.value());
+            writeDouble(buffer, longitude);
+        }
+        if (altitude != null) {
+            writeText(buffer, ALTITUDE.value());
+            writeDouble(buffer, altitude);
+        }
+        if (heading != null) {
+            writeText(buffer, HEADING.value());
+            writeDouble(buffer, heading);
+        }
+        if (precision != null) {
+            writeText(buffer, PRECISION.value());
+            writeDouble(buffer, precision);
+        }
+        if (satellites != null) {
+            writeText(buffer, SATELLITES.value());
+            writeLong(buffer, satellites);
+        }
+        if (speed != null) {
+            writeText(buffer, SPEED.value());
+            writeDouble(buffer, speed);
+        }
+        if (timestamp != null) {
+            writeText(buffer, TIMESTAMP.value());
+            writeLong(buffer, timestamp.getTime());
+        }
+        if (status != null) {
+            writeText(buffer, STATUS.value());
+            writeLong(buffer, status);
+        }
+    }
+
+    static int countNonNull(Object... fields) {
+        int count = 0;
+        for (Object field : fields) {
+            if (field != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeDouble(PayloadBuffer buffer, double value) {
+        buffer.write(FLOAT64);
+        final long bits = Double.doubleToLongBits(value);
+        writeInt32(buffer, (int) (bits >>> 32));
+        writeInt32(buffer, (int) bits);
+    }
+
+    private static void writeLong(PayloadBuffer buffer, long value) {
+        if (value >= 0) {
+            writeHeader(buffer, MAJOR_UNSIGNED, value);
+        } else {
+            // -1 - value, never negative for a negative long
+            writeHeader(buffer, MAJOR_NEGATIVE, ~value);
+        }
+    }
+
+    private static void writeText(PayloadBuffer buffer, String value) {
+        final int length = Utf8.encodedLength(value);
+        writeHeader(buffer, MAJOR_TEXT, length);
+        Utf8.write(buffer, value, length);
+    }
+
+    private static void writeBytes(PayloadBuffer buffer, byte[] value) {
+        writeHeader(buffer, MAJOR_BYTES, value.length);
+        buffer.write(value);
+    }
+
+    private static void writeHeader(PayloadBuffer buffer, int majorType, long argument) {
+        final int major = majorType << 5;
+        if (argument < 24) {
+            buffer.write(major | (int) argument);
+        } else if (argument < 0x100) {
+            buffer.write(major | 24);
+            buffer.write((int) argument);
+        } else if (argument < 0x10000) {
+            buffer.write(major | 25);
+            buffer.write((int) (argument >>> 8));
+            buffer.write((int) argument);
+        } else if (argument < 0x100000000L) {
+            buffer.write(major | 26);
+            writeInt32(buffer, (int) argument);
+        } else {
+            buffer.write(major | 27);
+            writeInt32(buffer, (int) (argument >>> 32));
+            writeInt32(buffer, (int) argument);
+        }
+    }
+
+    private static void writeInt32(PayloadBuffer buffer, int value) {
+        buffer.write(value >>> 24);
+        buffer.write(value >>> 16);
+        buffer.write(value >>> 8);
+        buffer.write(value);
+    }
+}
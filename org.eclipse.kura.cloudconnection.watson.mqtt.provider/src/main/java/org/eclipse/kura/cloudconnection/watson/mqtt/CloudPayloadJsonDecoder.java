@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.BODY;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.METRICS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.POSITION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.SENTON;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.ALTITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.HEADING;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LATITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LONGITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.PRECISION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SATELLITES;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SPEED;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.STATUS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.TIMESTAMP;
+
+import java.util.Date;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+
+/**
+ * This class provides a set of methods that allow to decode a byte[] message, with the layout produced by
+ * {@link CloudPayloadJsonEncoder}, into a {@link KuraPayload}.
+ * <p>
+ * The message is parsed in a single pass that checks its structure and decodes the timestamp and the position. Metric
+ * values and the body are only located and are decoded the first time they are read from the returned payload, so a
+ * malformed metric value is reported when it is read.
+ * Numbers are decoded as {@link Long} if integral and as {@link Double} otherwise, Base64 encoded byte array metrics
+ * are returned as {@link String}s and null metrics are ignored.
+ *
+ */
+public class CloudPayloadJsonDecoder {
+
+    private CloudPayloadJsonDecoder() {
+    }
+
+    /**
+     * This static method takes a byte[] and decodes it into a {@link KuraPayload}
+     *
+     * @param bytes
+     *            the UTF-8 encoded JSON message
+     * @return a {@link KuraPayload} that maps the received message
+     * @throws IllegalArgumentException
+     *             if the message is not a JSON object
+     */
+    public static KuraPayload buildFromByteArray(byte[] bytes) {
+        final LazyKuraPayload kuraPayload = new LazyKuraPayload(bytes);
+        final JsonByteReader reader = new JsonByteReader(bytes, 0);
+
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                final String name = reader.readMemberName();
+                if (SENTON.value().equals(name)) {
+                    kuraPayload.setTimestamp(new Date(reader.readLong()));
+                } else if (POSITION.value().equals(name)) {
+                    kuraPayload.setPosition(decodePosition(reader));
+                } else if (METRICS.value().equals(name)) {
+                    decodeMetrics(reader, kuraPayload);
+                } else if (BODY.value().equals(name)) {
+                    decodeBody(reader, kuraPayload);
+                } else {
+                    reader.skipValue();
+                }
+            } while (reader.nextMember());
+        }
+
+        if (reader.peek() != -1) {
+            throw new IllegalArgumentException("Unexpected content after the end of the payload");
+        }
+        return kuraPayload;
+    }
+
+    private static void decodeBody(JsonByteReader reader, LazyKuraPayload kuraPayload) {
+        if (reader.isNullLiteral()) {
+            reader.skipValue();
+            return;
+        }
+        kuraPayload.setPendingBody(reader.position());
+        reader.skipString();
+    }
+
+    private static void decodeMetrics(JsonByteReader reader, LazyKuraPayload kuraPayload) {
+        reader.expect('{');
+        if (reader.consume('}')) {
+            return;
+        }
+
+        do {
+            final String name = reader.readMemberName();
+            final boolean isNull = reader.isNullLiteral();
+            final int valueOffset = reader.position();
+            reader.skipValue();
+            if (!isNull) {
+                kuraPayload.addPendingMetric(name, valueOffset);
+            }
+        } while (reader.nextMember());
+    }
+
+    private static KuraPosition decodePosition(JsonByteReader reader) {
+        final KuraPosition position = new KuraPosition();
+
+        reader.expect('{');
+        if (reader.consume('}')) {
+            return position;
+        }
+
+        do {
+            final String name = reader.readMemberName();
+            if (LATITUDE.value().equals(name)) {
+                position.setLatitude(reader.readNumber().doubleValue());
+            } else if (LONGITUDE.value().equals(name)) {
+                position.setLongitude(reader.readNumber().doubleValue());
+            } else if (ALTITUDE.value().equals(name)) {
+                position.setAltitude(reader.readNumber().doubleValue());
+            } else if (HEADING.value().equals(name)) {
+                position.setHeading(reader.readNumber().doubleValue());
+            } else if (PRECISION.value().equals(name)) {
+                position.setPrecision(reader.readNumber().doubleValue());
+            } else if (SATELLITES.value().equals(name)) {
+                position.setSatellites((int) reader.readLong());
+            } else if (SPEED.value().equals(name)) {
+                position.setSpeed(reader.readNumber().doubleValue());
+            } else if (TIMESTAMP.value().equals(name)) {
+                position.setTimestamp(new Date(reader.readLong()));
+            } else if (STATUS.value().equals(name)) {
+                position.setStatus((int) reader.readLong());
+            } else {
+                reader.skipValue();
+            }
+        } while (reader.nextMember());
+
+        return position;
+    }
+}
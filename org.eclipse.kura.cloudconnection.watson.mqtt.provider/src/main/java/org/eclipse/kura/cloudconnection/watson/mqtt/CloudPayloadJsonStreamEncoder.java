@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.BODY;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.METRICS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.POSITION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.SENTON;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.ALTITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.HEADING;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LATITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LONGITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.PRECISION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SATELLITES;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SPEED;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.STATUS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.TIMESTAMP;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+
+/**
+ * Streaming counterpart of {@link CloudPayloadJsonEncoder}. The {@link KuraPayload} is written field by field into a
+ * per-thread reusable buffer instead of being assembled as a JSON object tree, the only allocation per call being
+ * the returned array. The produced bytes are identical to the ones returned by
+ * {@link CloudPayloadJsonEncoder#getBytes(KuraPayload)}.
+ *
+ */
+public class CloudPayloadJsonStreamEncoder {
+
+    private static final byte[] SENTON_NAME = memberName(SENTON.value());
+    private static final byte[] POSITION_NAME = memberName(POSITION.value());
+    private static final byte[] METRICS_NAME = memberName(METRICS.value());
+    private static final byte[] BODY_NAME = memberName(BODY.value());
+
+    private static final byte[] LATITUDE_NAME = memberName(LATITUDE.value());
+    private static final byte[] LONGITUDE_NAME = memberName(LONGITUDE.value());
+    private static final byte[] ALTITUDE_NAME = memberName(ALTITUDE.value());
+    private static final byte[] HEADING_NAME = memberName(HEADING.value());
+    private static final byte[] PRECISION_NAME = memberName(PRECISION.value());
+    private static final byte[] SATELLITES_NAME = memberName(SATELLITES.value());
+    private static final byte[] SPEED_NAME = memberName(SPEED.value());
+    private static final byte[] TIMESTAMP_NAME = memberName(TIMESTAMP.value());
+    private static final byte[] STATUS_NAME = memberName(STATUS.value());
+
+    private CloudPayloadJsonStreamEncoder() {
+    }
+
+    /**
+     * This static method takes a {@link KuraPayload} and converts it into a {@code byte[]}
+     *
+     * @param kuraPayload
+     *            a {@link KuraPayload} object that has to be converted.
+     * @return a byte[] that maps the received {@link KuraPayload} object
+     * @throws IllegalArgumentException
+     *             if the conversion fails
+     */
+    public static byte[] getBytes(KuraPayload kuraPayload) {
+        return getBytes(kuraPayload, null);
+    }
+
+    /**
+     * Converts the provided {@link KuraPayload} into a {@code byte[]}, taking the encoded metric names from the
+     * provided cache.
+     *
+     * @param kuraPayload
+     *            a {@link KuraPayload} object that has to be converted.
+     * @param metricNameCache
+     *            the cache of encoded metric names, can be {@code null}
+     * @return a byte[] that maps the received {@link KuraPayload} object
+     * @throws IllegalArgumentException
+     *             if the conversion fails
+     */
+    public static byte[] getBytes(KuraPayload kuraPayload, MetricNameCache metricNameCache) {
+        final PayloadBuffer buffer = ScratchBuffers.acquire();
+
+        try {
+            encode(kuraPayload, new JsonByteWriter(buffer), metricNameCache);
+            return buffer.toByteArray();
+        } finally {
+            ScratchBuffers.release(buffer);
+        }
+    }
+
+    /**
+     * Converts the provided {@link KuraPayload} into a {@code byte[]}, with a slice of {@code body} as body instead of
+     * the body of the payload. The slice is Base64 encoded straight into the output buffer, without copying it.
+     *
+     * @param pool
+     *            the pool the returned array is leased from, can be {@code null}
+     */
+    static byte[] getBytes(KuraPayload kuraPayload, byte[] body, int offset, int length,
+            MetricNameCache metricNameCache, ByteArrayPool pool) {
+        final PayloadBuffer buffer = ScratchBuffers.acquire();
+
+        try {
+            final JsonByteWriter writer = new JsonByteWriter(buffer);
+            encodeHeader(kuraPayload, writer, metricNameCache);
+            writer.writeObjectSeparator();
+            writer.writeRaw(BODY_NAME);
+            writer.writeBase64(body, offset, length);
+            writer.writeObjectClose();
+            return pool != null ? buffer.toByteArray(pool) : buffer.toByteArray();
+        } finally {
+            ScratchBuffers.release(buffer);
+        }
+    }
+
+    static void encode(KuraPayload kuraPayload, JsonByteWriter writer, MetricNameCache metricNameCache) {
+        encodeHeader(kuraPayload, writer, metricNameCache);
+
+        encodeBody(kuraPayload, writer);
+
+        writer.writeObjectClose();
+    }
+
+    /**
+     * Writes the opening of the object, the timestamp, the position and the metrics.
+     */
+    private static void encodeHeader(KuraPayload kuraPayload, JsonByteWriter writer,
+            MetricNameCache metricNameCache) {
+        writer.writeObjectOpen();
+
+        final boolean hasTimestamp = encodeTimestamp(kuraPayload, writer);
+
+        final boolean hasPosition = encodePosition(kuraPayload, writer, hasTimestamp);
+
+        if (hasTimestamp || hasPosition) {
+            writer.writeObjectSeparator();
+        }
+        encodeMetrics(kuraPayload, writer, metricNameCache);
+    }
+
+    private static void encodeBody(KuraPayload kuraPayload, JsonByteWriter writer) {
+        byte[] body = kuraPayload.getBody();
+        if (body != null) {
+            writer.writeObjectSeparator();
+            writer.writeRaw(BODY_NAME);
+            writer.writeBase64(body);
+        }
+    }
+
+    private static void encodeMetrics(KuraPayload kuraPayload, JsonByteWriter writer,
+            MetricNameCache metricNameCache) {
+        writer.writeRaw(METRICS_NAME);
+        writer.writeObjectOpen();
+
+        boolean first = true;
+        for (String name : kuraPayload.metricNames()) {
+            Object object = kuraPayload.getMetric(name);
+
+            if (!first) {
+                writer.writeObjectSeparator();
+            }
+            first = false;
+
+            if (metricNameCache != null) {
+                writer.writeRaw(metricNameCache.get(name));
+            } else {
+                writer.writeMemberName(name);
+            }
+            if (object instanceof Boolean) {
+                writer.writeBoolean((Boolean) object);
+            } else if (object instanceof Double) {
+                writer.writeDouble((Double) object);
+            } else if (object instanceof Float) {
+                writer.writeFloat((Float) object);
+            } else if (object instanceof Integer) {
+                writer.writeLong((Integer) object);
+            } else if (object instanceof Long) {
+                writer.writeLong((Long) object);
+            } else if (object instanceof String) {
+                writer.writeString((String) object);
+            } else if (object instanceof byte[]) {
+                writer.writeBase64((byte[]) object);
+            } else {
+                throw new IllegalArgumentException("Cannot encode this value: " + object);
+            }
+        }
+
+        writer.writeObjectClose();
+    }
+
+    private static boolean encodePosition(KuraPayload kuraPayload, JsonByteWriter writer, boolean needsSeparator) {
+        KuraPosition position = kuraPayload.getPosition();
+        if (position == null) {
+            return false;
+        }
+
+        if (needsSeparator) {
+            writer.writeObjectSeparator();
+        }
+        writer.writeRaw(POSITION_NAME);
+        writer.writeObjectOpen();
+
+        boolean first = true;
+        if (position.getLatitude() != null) {
+            first = writeDoubleMember(writer, first, LATITUDE_NAME, position.getLatitude());
+        }
+        if (position.getLongitude() != null) {
+            first = writeDoubleMember(writer, first, LONGITUDE_NAME, position.getLongitude());
+        }
+        if (position.getAltitude() != null) {
+            first = writeDoubleMember(writer, first, ALTITUDE_NAME, position.getAltitude());
+        }
+        if (position.getHeading() != null) {
+            first = writeDoubleMember(writer, first, HEADING_NAME, position.getHeading());
+        }
+        if (position.getPrecision() != null) {
+            first = writeDoubleMember(writer, first, PRECISION_NAME, position.getPrecision());
+        }
+        if (position.getSatellites() != null) {
+            first = writeLongMember(writer, first, SATELLITES_NAME, position.getSatellites());
+        }
+        if (position.getSpeed() != null) {
+            first = writeDoubleMember(writer, first, SPEED_NAME, position.getSpeed());
+        }
+        if (position.getTimestamp() != null) {
+            first = writeLongMember(writer, first, TIMESTAMP_NAME, position.getTimestamp().getTime());
+        }
+        if (position.getStatus() != null) {
+            writeLongMember(writer, first, STATUS_NAME, position.getStatus());
+        }
+
+        writer.writeObjectClose();
+        return true;
+    }
+
+    private static boolean encodeTimestamp(KuraPayload kuraPayload, JsonByteWriter writer) {
+        Date timestamp = kuraPayload.getTimestamp();
+        if (timestamp == null) {
+            return false;
+        }
+
+        writer.writeRaw(SENTON_NAME);
+        writer.writeLong(timestamp.getTime());
+        return true;
+    }
+
+    private static boolean writeDoubleMember(JsonByteWriter writer, boolean first, byte[] name, double value) {
+        if (!first) {
+            writer.writeObjectSeparator();
+        }
+        writer.writeRaw(name);
+        writer.writeDouble(value);
+        return false;
+    }
+
+    private static boolean writeLongMember(JsonByteWriter writer, boolean first, byte[] name, long value) {
+        if (!first) {
+            writer.writeObjectSeparator();
+        }
+        writer.writeRaw(name);
+        writer.writeLong(value);
+        return false;
+    }
+
+    private static byte[] memberName(String name) {
+        return ('"' + name + "\":").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.BODY;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.METRICS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.POSITION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.SENTON;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.ALTITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.HEADING;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LATITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.LONGITUDE;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.PRECISION;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SATELLITES;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.SPEED;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.STATUS;
+import static org.eclipse.kura.cloudconnection.watson.mqtt.CloudPayloadJsonFields.CloudPayloadJsonPositionFields.TIMESTAMP;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+
+/**
+ * Encodes a {@link KuraPayload} as MessagePack, using the same sentOn/position/metrics/body layout of the JSON
+ * encoding. Numbers keep their native width and byte arrays are carried as bin values instead of Base64 text.
+ *
+ */
+public class CloudPayloadMsgPackEncoder {
+
+    private static final int FIXMAP = 0x80;
+    private static final int FIXSTR = 0xa0;
+    private static final int FALSE = 0xc2;
+    private static final int TRUE = 0xc3;
+    private static final int BIN8 = 0xc4;
+    private static final int BIN16 = 0xc5;
+    private static final int BIN32 = 0xc6;
+    private static final int FLOAT32 = 0xca;
+    private static final int FLOAT64 = 0xcb;
+    private static final int UINT8 = 0xcc;
+    private static final int UINT16 = 0xcd;
+    private static final int UINT32 = 0xce;
+    private static final int UINT64 = 0xcf;
+    private static final int INT8 = 0xd0;
+    private static final int INT16 = 0xd1;
+    private static final int INT32 = 0xd2;
+    private static final int INT64 = 0xd3;
+    private static final int STR8 = 0xd9;
+    private static final int STR16 = 0xda;
+    private static final int STR32 = 0xdb;
+    static final int ARRAY32 = 0xdd;
+    private static final int MAP16 = 0xde;
+    private static final int MAP32 = 0xdf;
+
+    private CloudPayloadMsgPackEncoder() {
+    }
+
+    /**
+     * This static method takes a {@link KuraPayload} and converts it into a MessagePack encoded {@code byte[]}
+     *
+     * @param kuraPayload
+     *            a {@link KuraPayload} object that has to be converted.
+     * @return a byte[] that maps the received {@link KuraPayload} object
+     * @throws IllegalArgumentException
+     *             if the conversion fails
+     */
+    public static byte[] getBytes(KuraPayload kuraPayload) {
+        final PayloadBuffer buffer = ScratchBuffers.acquire();
+
+        try {
+            encode(kuraPayload, buffer);
+            return buffer.toByteArray();
+        } finally {
+            ScratchBuffers.release(buffer);
+        }
+    }
+
+    static void encode(KuraPayload kuraPayload, PayloadBuffer buffer) {
+        final Date timestamp = kuraPayload.getTimestamp();
+        final KuraPosition position = kuraPayload.getPosition();
+        final byte[] body = kuraPayload.getBody();
+
+        writeMapHeader(buffer, 1 + CloudPayloadCborEncoder.countNonNull(timestamp, position, body));
+
+        if (timestamp != null) {
+            writeString(buffer, SENTON.value());
+            writeLong(buffer, timestamp.getTime());
+        }
+
+        if (position != null) {
+            writeString(buffer, POSITION.value());
+            encodePosition(position, buffer);
+        }
+
+        writeString(buffer, METRICS.value());
+        encodeMetrics(kuraPayload, buffer);
+
+        if (body != null) {
+            writeString(buffer, BODY.value());
+            writeBinary(buffer, body);
+        }
+    }
+
+    private static void encodeMetrics(KuraPayload kuraPayload, PayloadBuffer buffer) {
+        final Set<String> names = kuraPayload.metricNames();
+        writeMapHeader(buffer, names.size());
+
+        for (String name : names) {
+            Object object = kuraPayload.getMetric(name);
+
+            writeString(buffer, name);
+            if (object instanceof Boolean) {
+                buffer.write((Boolean) object ? TRUE : FALSE);
+            } else if (object instanceof Double) {
+                writeDouble(buffer, (Double) object);
+            } else if (object instanceof Float) {
+                buffer.write(FLOAT32);
+                writeInt32(buffer, Float.floatToIntBits((Float) object));
+            } else if (object instanceof Integer) {
+                writeLong(buffer, (Integer) object);
+            } else if (object instanceof Long) {
+                writeLong(buffer, (Long) object);
+            } else if (object instanceof String) {
+                writeString(buffer, (String) object);
+            } else if (object instanceof byte[]) {
+                writeBinary(buffer, (byte[]) object);
+            } else {
+                throw new IllegalArgumentException("Cannot encode this value: " + object);
+            }
+        }
+    }
+
+    private static void encodePosition(KuraPosition position, PayloadBuffer buffer) {
+        final Double latitude = position.getLatitude();
+        final Double longitude = position.getLongitude();
+        final Double altitude = position.getAltitude();
+        final Double heading = position.getHeading();
+        final Double precision = position.getPrecision();
+        final Integer satellites = position.getSatellites();
+        final Double speed = position.getSpeed();
+        final Date timestamp = position.getTimestamp();
+        final Integer status = position.getStatus();
+
+        writeMapHeader(buffer, CloudPayloadCborEncoder.countNonNull(latitude, longitude, altitude, heading, precision,
+                satellites, speed, timestamp, status));
+
+        if (latitude != null) {
+            writeString(buffer, LATITUDE.value());
+            writeDouble(buffer, latitude);
+        }
+        if (longitude != null) {
+            writeString(buffer, LONGITUDE.value());
+            writeDouble(buffer, longitude);
+        }
+        if (altitude != null) {
+            writeString(buffer, ALTITUDE.value());
+            writeDouble(buffer, altitude);
+        }
+        if (heading != null) {
+            writeString(buffer, HEADING.value());
+            writeDouble(buffer, heading);
+        }
+        if (precision != null) {
+            writeString(buffer, PRECISION.value());
+            writeDouble(buffer, precision);
+        }
+        if (satellites != null) {
+            writeString(buffer, SATELLITES.value());
+            writeLong(buffer, satellites);
+        }
+        if (speed != null) {
+            writeString(buffer, SPEED.value());
+            writeDouble(buffer, speed);
+        }
+        if (timestamp != null) {
+            writeString(buffer, TIMESTAMP.value());
+            writeLong(buffer, timestamp.getTime());
+        }
+        if (status != null) {
+            writeString(buffer, STATUS.value());
+            writeLong(buffer, status);
+        }
+    }
+
+    private static void writeDouble(PayloadBuffer buffer, double value) {
+        buffer.write(FLOAT64);
+        final long bits = Double.doubleToLongBits(value);
+        writeInt32(buffer, (int) (bits >>> 32));
+        writeInt32(buffer, (int) bits);
+    }
+
+    private static void writeLong(PayloadBuffer buffer, long value) {
+        if (value >= 0) {
+            if (value < 0x80) {
+                buffer.write((int) value);
+            } else if (value < 0x100) {
+                buffer.write(UINT8);
+                buffer.write((int) value);
+            } else if (value < 0x10000) {
+                buffer.write(UINT16);
+                writeInt16(buffer, (int) value);
+            } else if (value < 0x100000000L) {
+                buffer.write(UINT32);
+                writeInt32(buffer, (int) value);
+            } else {
+                buffer.write(UINT64);
+                writeInt32(buffer, (int) (value >>> 32));
+                writeInt32(buffer, (int) value);
+            }
+        } else if (value >= -32) {
+            // negative fixint
+            buffer.write((int) value);
+        } else if (value >= Byte.MIN_VALUE) {
+            buffer.write(INT8);
+            buffer.write((int) value);
+        } else if (value >= Short.MIN_VALUE) {
+            buffer.write(INT16);
+            writeInt16(buffer, (int) value);
+        } else if (value >= Integer.MIN_VALUE) {
+            buffer.write(INT32);
+            writeInt32(buffer, (int) value);
+        } else {
+            buffer.write(INT64);
+            writeInt32(buffer, (int) (value >>> 32));
+            writeInt32(buffer, (int) value);
+        }
+    }
+
+    private static void writeString(PayloadBuffer buffer, String value) {
+        final int length = Utf8.encodedLength(value);
+        if (length < 32) {
+            buffer.write(FIXSTR | length);
+        } else if (length < 0x100) {
+            buffer.write(STR8);
+            buffer.write(length);
+        } else if (length < 0x10000) {
+            buffer.write(STR16);
+            writeInt16(buffer, length);
+        } else {
+            buffer.write(STR32);
+            writeInt32(buffer, length);
+        }
+        Utf8.write(buffer, value, length);
+    }
+
+    private static void writeBinary(PayloadBuffer buffer, byte[] value) {
+        final int length = value.length;
+        if (length < 0x100) {
+            buffer.write(BIN8);
+            buffer.write(length);
+        } else if (length < 0x10000) {
+            buffer.write(BIN16);
+            writeInt16(buffer, length);
+        } else {
+            buffer.write(BIN32);
+            writeInt32(buffer, length);
+        }
+        buffer.write(value);
+    }
+
+    private static void writeMapHeader(PayloadBuffer buffer, int size) {
+        if (size < 16) {
+            buffer.write(FIXMAP | size);
+        } else if (size < 0x10000) {
+            buffer.write(MAP16);
+            writeInt16(buffer, size);
+        } else {
+            buffer.write(MAP32);
+            writeInt32(buffer, size);
+        }
+    }
+
+    private static void writeInt16(PayloadBuffer buffer, int value) {
+        buffer.write(value >>> 8);
+        buffer.write(value);
+    }
+
+    static void writeInt32(PayloadBuffer buffer, int value) {
+        buffer.write(value >>> 24);
+        buffer.write(value >>> 16);
+        buffer.write(value >>> 8);
+        buffer.write(value);
+    }
+}
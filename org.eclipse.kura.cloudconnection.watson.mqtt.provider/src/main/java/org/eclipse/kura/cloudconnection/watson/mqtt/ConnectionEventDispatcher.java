@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the notifications of the connection state changes on a dedicated thread, so that slow listeners do not block
+ * the {@code DataService} callback thread. Notifications never run on the caller thread.
+ * <p>
+ * Only the latest connection state matters to the listeners: a state change reported while the notifications of the
+ * previous one are still waiting to run replaces them, so at most one set of notifications is pending and the queue
+ * cannot grow. The notifications of a state always run after the ones of the states reported before it.
+ *
+ */
+final class ConnectionEventDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionEventDispatcher.class);
+
+    static final long SLOW_NOTIFICATION_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ExecutorService executor;
+    private final AtomicReference<Runnable> pending = new AtomicReference<>();
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+
+    ConnectionEventDispatcher(final String threadName) {
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the notifications of a connection state, replacing the ones of the previous state if they have not
+     * started yet.
+     */
+    void dispatch(final Runnable notifications) {
+        this.dispatched.increment();
+        if (this.pending.getAndSet(notifications) != null) {
+            // the task already scheduled runs the latest notifications
+            this.coalesced.increment();
+            logger.debug("connection state changed before the listeners were notified of the previous one");
+            return;
+        }
+
+        try {
+            this.executor.execute(this::runPending);
+        } catch (final RejectedExecutionException e) {
+            this.pending.set(null);
+            logger.debug("endpoint deactivated, dropping connection event");
+        }
+    }
+
+    /**
+     * Runs a notification, logging it if it fails or takes more than 100 ms.
+     *
+     * @param event
+     *            the name of the event, for logging
+     * @param target
+     *            the notified object, for logging
+     */
+    void runTimed(final String event, final Object target, final Runnable notification) {
+        final long start = System.nanoTime();
+        try {
+            notification.run();
+        } catch (final Exception e) {
+            logger.warn("{} notification to {} failed", event, target, e);
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        if (elapsed > SLOW_NOTIFICATION_NANOS) {
+            this.slow.increment();
+            logger.warn("{} notification to {} took {} ms", event, target, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+
+    long getDispatchedCount() {
+        return this.dispatched.sum();
+    }
+
+    /**
+     * Returns the number of connection states whose notifications were replaced by the ones of a later state.
+     */
+    long getCoalescedCount() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * Returns the number of notifications that took more than 100 ms.
+     */
+    long getSlowNotificationCount() {
+        return this.slow.sum();
+    }
+
+    /**
+     * Stops the dispatcher thread once the pending notifications have run, later events are dropped.
+     */
+    void close() {
+        this.executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionEventDispatcher [dispatched=" + getDispatchedCount() + ", coalesced=" + getCoalescedCount()
+                + ", slow=" + getSlowNotificationCount() + "]";
+    }
+
+    private void runPending() {
+        final Runnable notifications = this.pending.getAndSet(null);
+        if (notifications != null) {
+            notifications.run();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of {@link Deflater} instances. Deflaters hold native memory that is only released by
+ * {@link Deflater#end()}, pooling them avoids paying the native allocation and the finalization on every message.
+ *
+ */
+final class DeflaterPool {
+
+    private final int level;
+    private final boolean nowrap;
+    private final BlockingQueue<Deflater> idle;
+
+    DeflaterPool(final int level, final boolean nowrap, final int capacity) {
+        this.level = level;
+        this.nowrap = nowrap;
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    Deflater acquire() {
+        final Deflater deflater = this.idle.poll();
+        return deflater != null ? deflater : new Deflater(this.level, this.nowrap);
+    }
+
+    void release(final Deflater deflater) {
+        deflater.reset();
+        if (!this.idle.offer(deflater)) {
+            deflater.end();
+        }
+    }
+}
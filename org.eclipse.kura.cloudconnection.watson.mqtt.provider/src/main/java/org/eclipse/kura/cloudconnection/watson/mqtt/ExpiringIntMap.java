@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+/**
+ * A map from primitive {@code int} keys to values that expire after a fixed time, used to remember the messages
+ * waiting for a delivery confirmation without boxing their ids.
+ * <p>
+ * Entries are stored in open addressing tables with linear probing. Expired entries are not removed individually:
+ * they are discarded when the table fills up and is rebuilt, so the table only grows if the live entries need it.
+ *
+ */
+final class ExpiringIntMap<V> {
+
+    private static final int MIN_CAPACITY = 64;
+
+    private final long ttlNanos;
+
+    private int[] keys;
+    private Object[] values;
+    private long[] deadlines;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    ExpiringIntMap(final long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+        allocate(MIN_CAPACITY);
+    }
+
+    synchronized void put(final int key, final V value) {
+        final long now = System.nanoTime();
+        if (this.size + 1 > this.threshold) {
+            rebuild(now);
+        }
+        insert(key, value, now + this.ttlNanos);
+    }
+
+    /**
+     * Returns the value associated to the provided key, {@code null} if there is none or it has expired.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized V get(final int key) {
+        int index = indexOf(key);
+        while (this.values[index] != null) {
+            if (this.keys[index] == key) {
+                return this.deadlines[index] - System.nanoTime() < 0 ? null : (V) this.values[index];
+            }
+            index = index + 1 & this.mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the value associated to the provided key.
+     *
+     * @return the value, or {@code null} if there is none or it has expired
+     */
+    @SuppressWarnings("unchecked")
+    synchronized V remove(final int key) {
+        int index = indexOf(key);
+        while (this.values[index] != null) {
+            if (this.keys[index] == key) {
+                final Object value = this.values[index];
+                final boolean expired = this.deadlines[index] - System.nanoTime() < 0;
+                delete(index);
+                return expired ? null : (V) value;
+            }
+            index = index + 1 & this.mask;
+        }
+        return null;
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    private void insert(final int key, final Object value, final long deadline) {
+        int index = indexOf(key);
+        while (this.values[index] != null) {
+            if (this.keys[index] == key) {
+                break;
+            }
+            index = index + 1 & this.mask;
+        }
+
+        if (this.values[index] == null) {
+            this.size++;
+        }
+        this.keys[index] = key;
+        this.values[index] = value;
+        this.deadlines[index] = deadline;
+    }
+
+    /**
+     * Removes the entry at the provided index, shifting back the following entries of the probe sequence.
+     */
+    private void delete(final int index) {
+        int free = index;
+        int current = index;
+        for (;;) {
+            current = current + 1 & this.mask;
+            if (this.values[current] == null) {
+                break;
+            }
+            final int home = indexOf(this.keys[current]);
+            // move the entry only if its home slot is not cyclically within (free, current]
+            final boolean reachable = free <= current ? free < home && home <= current
+                    : free < home || home <= current;
+            if (!reachable) {
+                this.keys[free] = this.keys[current];
+                this.values[free] = this.values[current];
+                this.deadlines[free] = this.deadlines[current];
+                free = current;
+            }
+        }
+        this.values[free] = null;
+        this.size--;
+    }
+
+    private void rebuild(final long now) {
+        final int[] oldKeys = this.keys;
+        final Object[] oldValues = this.values;
+        final long[] oldDeadlines = this.deadlines;
+
+        int live = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null && oldDeadlines[i] - now >= 0) {
+                live++;
+            }
+        }
+
+        // keep the load factor below 1/2 after the rebuild
+        allocate((live + 1) * 4 > oldValues.length ? oldValues.length * 2 : oldValues.length);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null && oldDeadlines[i] - now >= 0) {
+                insert(oldKeys[i], oldValues[i], oldDeadlines[i]);
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.deadlines = new long[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+        this.threshold = capacity * 3 / 4;
+    }
+
+    private int indexOf(final int key) {
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ hash >>> 16) & this.mask;
+    }
+}
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A cursor over UTF-8 encoded JSON text. Values can either be read or skipped, skipping only checks the structure of
+ * the value so that its position can be recorded and the value read later.
+ * <p>
+ * All methods throw {@link IllegalArgumentException} on malformed input.
+ *
+ */
+final class JsonByteReader {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    JsonByteReader(final byte[] bytes, final int position) {
+        this.bytes = bytes;
+        this.end = bytes.length;
+        this.position = position;
+    }
+
+    int position() {
+        return this.position;
+    }
+
+    /**
+     * Skips whitespace and returns the next byte without consuming it, or {@code -1} at the end of the input.
+     */
+    int peek() {
+        skipWhitespace();
+        return this.position < this.end ? this.bytes[this.position] : -1;
+    }
+
+    void expect(final char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        this.position++;
+    }
+
+    /**
+     * Consumes the next byte if it is the provided one.
+     */
+    boolean consume(final char c) {
+        if (peek() == c) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consumes a member separator or the end of the enclosing object.
+     *
+     * @return {@code true} if another member follows
+     */
+    boolean nextMember() {
+        if (consume(',')) {
+            return true;
+        }
+        expect('}');
+        return false;
+    }
+
+    String readMemberName() {
+        final String name = readString();
+        expect(':');
+        return name;
+    }
+
+    String readString() {
+        expect('"');
+
+        final int start = this.position;
+        int segmentStart = start;
+        StringBuilder builder = null;
+
+        while (this.position < this.end) {
+            final byte b = this.bytes[this.position];
+            if (b == '"') {
+                final String tail = new String(this.bytes, segmentStart, this.position - segmentStart,
+                        StandardCharsets.UTF_8);
+                this.position++;
+                return builder == null ? tail : builder.append(tail).toString();
+            } else if (b == '\\') {
+                if (builder == null) {
+                    builder = new StringBuilder(this.position - start + 16);
+                }
+                builder.append(new String(this.bytes, segmentStart, this.position - segmentStart,
+                        StandardCharsets.UTF_8));
+                this.position++;
+                builder.append(readEscape());
+                segmentStart = this.position;
+            } else if ((b & 0xff) < 0x20) {
+                throw error("Unescaped control character in string");
+            } else {
+                this.position++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Reads a number, as a {@link Long} if it is integral and fits, as a {@link Double} otherwise.
+     */
+    Number readNumber() {
+        skipWhitespace();
+        final int start = this.position;
+        boolean integral = true;
+
+        while (this.position < this.end) {
+            final byte b = this.bytes[this.position];
+            if (b == '.' || b == 'e' || b == 'E') {
+                integral = false;
+            } else if (!(b >= '0' && b <= '9' || b == '-' || b == '+')) {
+                break;
+            }
+            this.position++;
+        }
+        if (start == this.position) {
+            throw error("Expected a number");
+        }
+
+        final String text = new String(this.bytes, start, this.position - start, StandardCharsets.US_ASCII);
+        try {
+            // the encoder writes -0.0 as -0, which only a double can hold
+            if (integral && !"-0".equals(text)) {
+                try {
+                    return Long.parseLong(text);
+                } catch (final NumberFormatException e) {
+                    // out of the long range
+                }
+            }
+            return Double.parseDouble(text);
+        } catch (final NumberFormatException e) {
+            throw error("Invalid number " + text);
+        }
+    }
+
+    long readLong() {
+        final Number number = readNumber();
+        if (number instanceof Long) {
+            return (Long) number;
+        }
+        return number.longValue();
+    }
+
+    /**
+     * Reads a string, a number or a boolean, {@code null} for the JSON null literal.
+     */
+    Object readScalar() {
+        final int next = peek();
+        if (next == '"') {
+            return readString();
+        } else if (next == 't') {
+            expectLiteral("true");
+            return Boolean.TRUE;
+        } else if (next == 'f') {
+            expectLiteral("false");
+            return Boolean.FALSE;
+        } else if (next == 'n') {
+            expectLiteral("null");
+            return null;
+        } else if (next == '-' || next >= '0' && next <= '9') {
+            return readNumber();
+        }
+        throw error("Cannot decode this value");
+    }
+
+    /**
+     * Skips the next value of any type.
+     */
+    void skipValue() {
+        skipValue(0);
+    }
+
+    /**
+     * Skips the next string without decoding it.
+     *
+     * @return {@code true} if the string contains escape sequences
+     */
+    boolean skipString() {
+        expect('"');
+
+        boolean escaped = false;
+        while (this.position < this.end) {
+            final byte b = this.bytes[this.position++];
+            if (b == '"') {
+                return escaped;
+            } else if (b == '\\') {
+                escaped = true;
+                this.position++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    boolean isNullLiteral() {
+        return peek() == 'n';
+    }
+
+    private void skipValue(final int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("Too many nested values");
+        }
+
+        final int next = peek();
+        if (next == '"') {
+            skipString();
+        } else if (next == '{') {
+            this.position++;
+            if (consume('}')) {
+                return;
+            }
+            do {
+                skipString();
+                expect(':');
+                skipValue(depth + 1);
+            } while (nextMember());
+        } else if (next == '[') {
+            this.position++;
+            if (consume(']')) {
+                return;
+            }
+            do {
+                skipValue(depth + 1);
+            } while (consume(','));
+            expect(']');
+        } else if (next == 't') {
+            expectLiteral("true");
+        } else if (next == 'f') {
+            expectLiteral("false");
+        } else if (next == 'n') {
+            expectLiteral("null");
+        } else if (next == '-' || next >= '0' && next <= '9') {
+            while (this.position < this.end && isNumberByte(this.bytes[this.position])) {
+                this.position++;
+            }
+        } else {
+            throw error("Unexpected value");
+        }
+    }
+
+    private char readEscape() {
+        if (this.position >= this.end) {
+            throw error("Unterminated string");
+        }
+
+        final byte b = this.bytes[this.position++];
+        switch (b) {
+        case '"':
+        case '\\':
+        case '/':
+            return (char) b;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            return readUnicodeEscape();
+        default:
+            throw error("Invalid escape sequence");
+        }
+    }
+
+    private char readUnicodeEscape() {
+        if (this.position + 4 > this.end) {
+            throw error("Invalid unicode escape");
+        }
+
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            final int digit = Character.digit(this.bytes[this.position++], 16);
+            if (digit < 0) {
+                throw error("Invalid unicode escape");
+            }
+            value = value << 4 | digit;
+        }
+        return (char) value;
+    }
+
+    private void expectLiteral(final String literal) {
+        final int length = literal.length();
+        if (this.position + length > this.end) {
+            throw error("Expected " + literal);
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.bytes[this.position + i] != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+        }
+        this.position += length;
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.end) {
+            final byte b = this.bytes[this.position];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return;
+            }
+            this.position++;
+        }
+    }
+
+    private static boolean isNumberByte(final byte b) {
+        return b >= '0' && b <= '9' || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message + " at offset " + this.position);
+    }
+}
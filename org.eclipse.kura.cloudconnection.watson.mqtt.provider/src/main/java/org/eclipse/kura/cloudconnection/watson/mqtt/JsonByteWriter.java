@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON tokens as UTF-8 directly into a {@link PayloadBuffer}.
+ * <p>
+ * Formatting follows the minimal-json library used by {@link CloudPayloadJsonEncoder}: no whitespace, numbers
+ * rendered with {@link Double#toString(double)} / {@link Float#toString(float)} with a trailing {@code .0} removed,
+ * and the same string escaping rules (including U+2028 and U+2029).
+ *
+ */
+final class JsonByteWriter {
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final PayloadBuffer buffer;
+
+    JsonByteWriter(final PayloadBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    void writeObjectOpen() {
+        this.buffer.write('{');
+    }
+
+    void writeObjectClose() {
+        this.buffer.write('}');
+    }
+
+    void writeObjectSeparator() {
+        this.buffer.write(',');
+    }
+
+    void writeRaw(final byte[] bytes) {
+        this.buffer.write(bytes);
+    }
+
+    void writeMemberName(final String name) {
+        writeString(name);
+        this.buffer.write(':');
+    }
+
+    void writeBoolean(final boolean value) {
+        this.buffer.write(value ? TRUE : FALSE);
+    }
+
+    void writeLong(final long value) {
+        if (value == Long.MIN_VALUE) {
+            this.buffer.write(MIN_LONG);
+            return;
+        }
+
+        long remaining = value;
+        if (remaining < 0) {
+            this.buffer.write('-');
+            remaining = -remaining;
+        }
+
+        final int digits = countDigits(remaining);
+        final int start = this.buffer.ensureCapacity(digits);
+        final byte[] bytes = this.buffer.array();
+        for (int i = start + digits - 1; i >= start; i--) {
+            bytes[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        this.buffer.advance(digits);
+    }
+
+    void writeDouble(final double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            throw new IllegalArgumentException("Infinite and NaN values not permitted in JSON");
+        }
+        if (value == (long) value && Math.abs(value) < 1e7 && !isNegativeZero(value)) {
+            // Double.toString() renders these as "<integer>.0"
+            writeLong((long) value);
+            return;
+        }
+        writeNumber(Double.toString(value));
+    }
+
+    void writeFloat(final float value) {
+        if (Float.isInfinite(value) || Float.isNaN(value)) {
+            throw new IllegalArgumentException("Infinite and NaN values not permitted in JSON");
+        }
+        if (value == (long) value && Math.abs(value) < 1e7f && !isNegativeZero(value)) {
+            writeLong((long) value);
+            return;
+        }
+        writeNumber(Float.toString(value));
+    }
+
+    void writeString(final String value) {
+        final int length = value.length();
+        // worst case: every char expands to a six byte escape sequence
+        this.buffer.ensureCapacity(length * 6 + 2);
+        final byte[] bytes = this.buffer.array();
+        int pos = this.buffer.size();
+
+        bytes[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            final char ch = value.charAt(i);
+            if (ch < 0x80) {
+                pos = writeAsciiChar(bytes, pos, ch);
+            } else if (ch < 0x800) {
+                bytes[pos++] = (byte) (0xc0 | ch >> 6);
+                bytes[pos++] = (byte) (0x80 | ch & 0x3f);
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+                    bytes[pos++] = (byte) (0xf0 | codePoint >> 18);
+                    bytes[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    bytes[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    bytes[pos++] = (byte) (0x80 | codePoint & 0x3f);
+                } else {
+                    // same replacement String.getBytes(UTF_8) applies to malformed input
+                    bytes[pos++] = '?';
+                }
+            } else if (ch == '\u2028' || ch == '\u2029') {
+                pos = writeUnicodeEscape(bytes, pos, ch);
+            } else {
+                bytes[pos++] = (byte) (0xe0 | ch >> 12);
+                bytes[pos++] = (byte) (0x80 | ch >> 6 & 0x3f);
+                bytes[pos++] = (byte) (0x80 | ch & 0x3f);
+            }
+        }
+        bytes[pos++] = '"';
+
+        this.buffer.advance(pos - this.buffer.size());
+    }
+
+    /**
+     * Writes {@code data} as a quoted Base64 string, equivalent to {@code Base64.getEncoder().encodeToString(data)}.
+     */
+    void writeBase64(final byte[] data) {
+        writeBase64(data, 0, data.length);
+    }
+
+    void writeBase64(final byte[] data, final int offset, final int length) {
+        final int encodedLength = 4 * ((length + 2) / 3);
+        this.buffer.ensureCapacity(encodedLength + 2);
+        final byte[] bytes = this.buffer.array();
+        int pos = this.buffer.size();
+
+        bytes[pos++] = '"';
+        pos = encodeBase64(data, offset, length, bytes, pos);
+        bytes[pos++] = '"';
+
+        this.buffer.advance(pos - this.buffer.size());
+    }
+
+    static int encodeBase64(final byte[] data, final int offset, final int length, final byte[] dst, final int dstPos) {
+        int pos = dstPos;
+        final int end = offset + length;
+        final int fullGroupsEnd = offset + length / 3 * 3;
+
+        int i = offset;
+        while (i < fullGroupsEnd) {
+            final int bits = (data[i++] & 0xff) << 16 | (data[i++] & 0xff) << 8 | data[i++] & 0xff;
+            dst[pos++] = BASE64_ALPHABET[bits >>> 18 & 0x3f];
+            dst[pos++] = BASE64_ALPHABET[bits >>> 12 & 0x3f];
+            dst[pos++] = BASE64_ALPHABET[bits >>> 6 & 0x3f];
+            dst[pos++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+
+        if (i < end) {
+            final int b0 = data[i++] & 0xff;
+            dst[pos++] = BASE64_ALPHABET[b0 >> 2];
+            if (i == end) {
+                dst[pos++] = BASE64_ALPHABET[b0 << 4 & 0x3f];
+                dst[pos++] = '=';
+            } else {
+                final int b1 = data[i] & 0xff;
+                dst[pos++] = BASE64_ALPHABET[(b0 << 4 & 0x3f) | b1 >> 4];
+                dst[pos++] = BASE64_ALPHABET[b1 << 2 & 0x3f];
+            }
+            dst[pos++] = '=';
+        }
+        return pos;
+    }
+
+    private void writeNumber(final String number) {
+        int length = number.length();
+        if (number.endsWith(".0")) {
+            length -= 2;
+        }
+        final int start = this.buffer.ensureCapacity(length);
+        final byte[] bytes = this.buffer.array();
+        for (int i = 0; i < length; i++) {
+            bytes[start + i] = (byte) number.charAt(i);
+        }
+        this.buffer.advance(length);
+    }
+
+    private static int writeAsciiChar(final byte[] bytes, final int position, final char ch) {
+        int pos = position;
+        switch (ch) {
+        case '"':
+            bytes[pos++] = '\\';
+            bytes[pos++] = '"';
+            break;
+        case '\\':
+            bytes[pos++] = '\\';
+            bytes[pos++] = '\\';
+            break;
+        case '\n':
+            bytes[pos++] = '\\';
+            bytes[pos++] = 'n';
+            break;
+        case '\r':
+            bytes[pos++] = '\\';
+            bytes[pos++] = 'r';
+            break;
+        case '\t':
+            bytes[pos++] = '\\';
+            bytes[pos++] = 't';
+            break;
+        default:
+            if (ch < 0x20) {
+                pos = writeUnicodeEscape(bytes, pos, ch);
+            } else {
+                bytes[pos++] = (byte) ch;
+            }
+        }
+        return pos;
+    }
+
+    private static int writeUnicodeEscape(final byte[] bytes, final int position, final char ch) {
+        int pos = position;
+        bytes[pos++] = '\\';
+        bytes[pos++] = 'u';
+        bytes[pos++] = HEX_DIGITS[ch >> 12 & 0xf];
+        bytes[pos++] = HEX_DIGITS[ch >> 8 & 0xf];
+        bytes[pos++] = HEX_DIGITS[ch >> 4 & 0xf];
+        bytes[pos++] = HEX_DIGITS[ch & 0xf];
+        return pos;
+    }
+
+    private static int countDigits(final long value) {
+        long limit = 10;
+        for (int digits = 1; digits < 19; digits++) {
+            if (value < limit) {
+                return digits;
+            }
+            limit *= 10;
+        }
+        return 19;
+    }
+
+    private static boolean isNegativeZero(final double value) {
+        return Double.doubleToRawLongBits(value) == Long.MIN_VALUE;
+    }
+
+    private static boolean isNegativeZero(final float value) {
+        return Float.floatToRawIntBits(value) == Integer.MIN_VALUE;
+    }
+}
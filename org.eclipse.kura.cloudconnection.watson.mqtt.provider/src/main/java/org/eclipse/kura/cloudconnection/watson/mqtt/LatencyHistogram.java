@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.LatencySnapshot;
+
+/**
+ * A fixed size histogram of latencies in microseconds, in the style of HdrHistogram: values below
+ * {@value #LINEAR_BUCKETS} are counted exactly, larger values in buckets whose width doubles every
+ * {@value #SUB_BUCKETS} buckets, for a relative error below 1/{@value #SUB_BUCKETS}. Values above about 19 hours are
+ * counted in the last bucket.
+ * <p>
+ * Recording is lock free and does not allocate.
+ *
+ */
+final class LatencyHistogram {
+
+    static final int LINEAR_BUCKETS = 64;
+    static final int SUB_BUCKETS = LINEAR_BUCKETS / 2;
+    private static final int MAX_SHIFT = 30;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    void recordNanos(final long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    /**
+     * Records a latency in microseconds.
+     */
+    void record(final long micros) {
+        this.counts.incrementAndGet(bucketIndex(micros));
+    }
+
+    /**
+     * Returns a consistent enough copy of the recorded counts, recording can continue while the copy is taken.
+     */
+    LatencySnapshot snapshot() {
+        final long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return new LatencySnapshotImpl(copy);
+    }
+
+    static int bucketIndex(final long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        // value >> shift is in [SUB_BUCKETS, LINEAR_BUCKETS)
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - 5;
+        if (shift > MAX_SHIFT) {
+            return BUCKET_COUNT - 1;
+        }
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the highest value counted in the bucket.
+     */
+    static long highestValue(final int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        final long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return (subBucket + 1 << shift) - 1;
+    }
+
+    /**
+     * Returns the value in the middle of the bucket.
+     */
+    static long medianValue(final int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        final long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return (subBucket << shift) + (1L << shift - 1);
+    }
+}
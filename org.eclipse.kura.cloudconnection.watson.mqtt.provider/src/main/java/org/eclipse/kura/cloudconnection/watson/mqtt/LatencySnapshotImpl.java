@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.LatencySnapshot;
+
+/**
+ * An immutable copy of the counts of a {@link LatencyHistogram}.
+ *
+ */
+final class LatencySnapshotImpl implements LatencySnapshot {
+
+    private final long[] counts;
+    private final long totalCount;
+
+    LatencySnapshotImpl(final long[] counts) {
+        this.counts = counts;
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+        this.totalCount = total;
+    }
+
+    @Override
+    public long getCount() {
+        return this.totalCount;
+    }
+
+    @Override
+    public long getValueAtPercentile(final double percentile) {
+        if (this.totalCount == 0) {
+            return 0;
+        }
+
+        final double clamped = Math.min(100, Math.max(0, percentile));
+        final long rank = Math.max(1, (long) Math.ceil(clamped / 100 * this.totalCount));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public long getMax() {
+        for (int i = this.counts.length - 1; i >= 0; i--) {
+            if (this.counts[i] > 0) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long getMean() {
+        if (this.totalCount == 0) {
+            return 0;
+        }
+
+        double sum = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] > 0) {
+                sum += (double) this.counts[i] * LatencyHistogram.medianValue(i);
+            }
+        }
+        return Math.round(sum / this.totalCount);
+    }
+
+    @Override
+    public LatencySnapshot since(final LatencySnapshot previous) {
+        if (!(previous instanceof LatencySnapshotImpl)) {
+            throw new IllegalArgumentException("Not a snapshot of a latency histogram");
+        }
+
+        final long[] previousCounts = ((LatencySnapshotImpl) previous).counts;
+        final long[] difference = new long[this.counts.length];
+        for (int i = 0; i < difference.length; i++) {
+            difference[i] = Math.max(0, this.counts[i] - previousCounts[i]);
+        }
+        return new LatencySnapshotImpl(difference);
+    }
+
+    @Override
+    public String toString() {
+        return "[count=" + getCount() + ", p50=" + getValueAtPercentile(50) + ", p90=" + getValueAtPercentile(90)
+                + ", p99=" + getValueAtPercentile(99) + ", p999=" + getValueAtPercentile(99.9) + ", max=" + getMax()
+                + ", mean=" + getMean() + "]";
+    }
+}
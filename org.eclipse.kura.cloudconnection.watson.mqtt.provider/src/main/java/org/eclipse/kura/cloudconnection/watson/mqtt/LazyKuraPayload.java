@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.kura.message.KuraPayload;
+
+/**
+ * A {@link KuraPayload} backed by the received JSON bytes. The metric values and the body are only decoded the first
+ * time they are read, the decoded values are then stored in the payload.
+ *
+ */
+final class LazyKuraPayload extends KuraPayload {
+
+    private final byte[] json;
+    private final Map<String, Integer> pendingMetrics = new HashMap<>();
+    private final Set<String> metricNames = new LinkedHashSet<>();
+    private int bodyOffset = -1;
+
+    LazyKuraPayload(final byte[] json) {
+        this.json = json;
+    }
+
+    void addPendingMetric(final String name, final int valueOffset) {
+        this.pendingMetrics.put(name, valueOffset);
+        this.metricNames.add(name);
+    }
+
+    void setPendingBody(final int bodyOffset) {
+        this.bodyOffset = bodyOffset;
+    }
+
+    @Override
+    public synchronized Object getMetric(final String name) {
+        final Integer valueOffset = this.pendingMetrics.remove(name);
+        if (valueOffset != null) {
+            super.addMetric(name, new JsonByteReader(this.json, valueOffset).readScalar());
+        }
+        return super.getMetric(name);
+    }
+
+    @Override
+    public synchronized void addMetric(final String name, final Object value) {
+        this.pendingMetrics.remove(name);
+        this.metricNames.add(name);
+        super.addMetric(name, value);
+    }
+
+    @Override
+    public synchronized void removeMetric(final String name) {
+        this.pendingMetrics.remove(name);
+        this.metricNames.remove(name);
+        super.removeMetric(name);
+    }
+
+    @Override
+    public synchronized void removeAllMetrics() {
+        this.pendingMetrics.clear();
+        this.metricNames.clear();
+        super.removeAllMetrics();
+    }
+
+    @Override
+    public synchronized Set<String> metricNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(this.metricNames));
+    }
+
+    @Override
+    public Iterator<String> metricsIterator() {
+        return metricNames().iterator();
+    }
+
+    @Override
+    public synchronized Map<String, Object> metrics() {
+        for (final String name : this.metricNames) {
+            getMetric(name);
+        }
+        return super.metrics();
+    }
+
+    @Override
+    public synchronized byte[] getBody() {
+        if (this.bodyOffset >= 0) {
+            super.setBody(decodeBody());
+            this.bodyOffset = -1;
+        }
+        return super.getBody();
+    }
+
+    @Override
+    public synchronized void setBody(final byte[] body) {
+        this.bodyOffset = -1;
+        super.setBody(body);
+    }
+
+    private byte[] decodeBody() {
+        final JsonByteReader reader = new JsonByteReader(this.json, this.bodyOffset);
+        final int start = reader.position();
+        if (reader.skipString()) {
+            // escaped Base64 text, e.g. "\/" emitted by some encoders
+            return Base64.getDecoder().decode(
+                    new JsonByteReader(this.json, start).readString().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        final int quote = indexOf(this.json, start, '"');
+        final ByteBuffer decoded = Base64.getDecoder()
+                .decode(ByteBuffer.wrap(this.json, quote + 1, reader.position() - quote - 2));
+        if (decoded.arrayOffset() == 0 && decoded.remaining() == decoded.array().length) {
+            return decoded.array();
+        }
+        final byte[] body = new byte[decoded.remaining()];
+        decoded.get(body);
+        return body;
+    }
+
+    private static int indexOf(final byte[] bytes, final int from, final char c) {
+        int i = from;
+        while (bytes[i] != c) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache that maps metric names to their JSON member name encoding, i.e. the escaped, quoted, UTF-8
+ * encoded name followed by the colon.
+ * <p>
+ * The cache is a direct-mapped table indexed by the name hash: lookups and insertions are lock free and a new entry
+ * evicts the one stored in the same slot. Names longer than {@value #MAX_CACHEABLE_NAME_LENGTH} characters are
+ * encoded on every call and never stored.
+ *
+ */
+public final class MetricNameCache {
+
+    static final int MAX_CACHEABLE_NAME_LENGTH = 256;
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity
+     *            the maximum number of cached names, rounded up to the next power of two
+     */
+    public MetricNameCache(final int capacity) {
+        final int tableSize = tableSizeFor(capacity);
+        this.table = new AtomicReferenceArray<>(tableSize);
+        this.mask = tableSize - 1;
+    }
+
+    /**
+     * Returns the encoded member name for the provided metric name. The returned array must not be modified.
+     */
+    byte[] get(final String name) {
+        if (name.length() > MAX_CACHEABLE_NAME_LENGTH) {
+            this.misses.increment();
+            return encode(name);
+        }
+
+        final int index = spread(name.hashCode()) & this.mask;
+        final Entry entry = this.table.get(index);
+        if (entry != null && entry.name.equals(name)) {
+            this.hits.increment();
+            return entry.encodedName;
+        }
+
+        this.misses.increment();
+        if (entry != null) {
+            this.evictions.increment();
+        }
+
+        final byte[] encodedName = encode(name);
+        this.table.set(index, new Entry(name, encodedName));
+        return encodedName;
+    }
+
+    public int getCapacity() {
+        return this.table.length();
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricNameCache [capacity=" + getCapacity() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    static int tableSizeFor(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        return Integer.highestOneBit(Math.min(capacity, 1 << 20) * 2 - 1);
+    }
+
+    private static byte[] encode(final String name) {
+        final PayloadBuffer buffer = new PayloadBuffer(name.length() + 3);
+        new JsonByteWriter(buffer).writeMemberName(name);
+        return buffer.toByteArray();
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ hash >>> 16;
+    }
+
+    private static final class Entry {
+
+        private final String name;
+        private final byte[] encodedName;
+
+        Entry(final String name, final byte[] encodedName) {
+            this.name = name;
+            this.encodedName = encodedName;
+        }
+    }
+}
@@ -4,12 +4,24 @@
 
 package org.eclipse.kura.cloudconnection.watson.mqtt;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.eclipse.kura.KuraConnectException;
 import org.eclipse.kura.KuraDisconnectException;
@@ -21,6 +33,7 @@ import org.eclipse.kura.cloudconnection.listener.CloudConnectionListener;
 import org.eclipse.kura.cloudconnection.listener.CloudDeliveryListener;
 import org.eclipse.kura.cloudconnection.message.KuraMessage;
 import org.eclipse.kura.cloudconnection.subscriber.listener.CloudSubscriberListener;
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.PublishLatencyStatistics;
 import org.eclipse.kura.core.util.MqttTopicUtil;
 import org.eclipse.kura.data.DataService;
 import org.eclipse.kura.data.listener.DataServiceListener;
@@ -32,11 +45,55 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
 
     private static final Logger logger = LoggerFactory.getLogger(MqttCloudEndpoint.class);
 
+    private static final String DEVICE_TOPIC_PREFIX = "iot-2/type/";
+    private static final String JSON_FORMAT_TOPIC_SUFFIX = "/fmt/" + PayloadFormat.JSON.value();
+    private static final String ASYNC_MESSAGE_ID_PREFIX = "async-";
+    private static final String SPOOL_MESSAGE_ID_PREFIX = "spool-";
+    private static final String SHARD_MESSAGE_ID_PREFIX = "shard";
+    private static final long CONFIRMATION_ROUTE_EXPIRY_NANOS = TimeUnit.HOURS.toNanos(1);
+    private static final long EARLY_DELIVERY_EVENT_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int HAND_OFF_EVENT = 0;
+    private static final int CONFIRMATION_EVENT = 1;
+    private static final long NO_EVENT = Long.MIN_VALUE;
+    private static final int SPOOL_REPLAY_TICKS_PER_SECOND = 10;
+
     private final Set<CloudConnectionListener> registeredCloudConnectionListeners = new CopyOnWriteArraySet<>();
     private final Set<CloudDeliveryListener> registeredCloudDeliveryListeners = new CopyOnWriteArraySet<>();
     private final Map<String, List<CloudSubscriberListener>> registeredCloudSubscriberListeners = new ConcurrentHashMap<>();
+    private final TopicFilterTrie<List<CloudSubscriberListener>> subscriberTopicFilters = new TopicFilterTrie<>();
 
     private DataService dataService;
+    private volatile ShardRouter shardRouter;
+    private volatile MetricNameCache metricNameCache;
+    private volatile ByteArrayPool bufferPool;
+    private int bufferPoolArraysPerClass;
+    private volatile ExecutorService subscriberDispatcher;
+    private volatile ConnectionEventDispatcher connectionEventDispatcher;
+    private volatile AsyncPublishQueue asyncPublishQueue;
+    private int asyncPublishWorkerCount;
+    private int asyncPublishDrainBatchSize;
+
+    private final AtomicLong asyncMessageSequence = new AtomicLong();
+    // DataService message id to the id returned by an asynchronous publish and to the publisher and latency series
+    // indexed by shard, the message ids assigned by different DataServices overlap
+    private final ConfirmationRoutes[] confirmationRoutes = ConfirmationRoutes
+            .create(WatsonCloudConnectionFactory.MAX_SHARDS);
+    private final Object confirmationLock = new Object();
+    private int trackedPublishesInFlight;
+    private volatile PublishLatencyTracker latencyTracker;
+
+    private volatile PublishRateLimiter rateLimiter;
+
+    private volatile PayloadSpool spool;
+    // spool sequence number to the listener of the publisher
+    private volatile ExpiringIntMap<CloudDeliveryListener> spooledMessageOwners;
+    private ScheduledExecutorService spoolReplayExecutor;
+    private int spoolSegmentSize;
+    private int spoolMaxSegments;
+    private volatile long spoolMessageTtlMillis;
+    private volatile int spoolReplayRate;
+    private int spoolReplayCredit;
+    private volatile ChunkedTransferQueue chunkedTransferQueue;
 
     /*
      * Dependencies
@@ -44,6 +101,7 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
      */
     public void bindDataServiceInternal(final DataService dataService) {
         this.dataService = dataService;
+        this.shardRouter = new ShardRouter(this, dataService);
     }
 
     public void unbindDataServiceInternal() {
@@ -55,37 +113,356 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
      * 
      */
     public void activateInternal() {
+        this.subscriberDispatcher = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "WatsonSubscriberDispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connectionEventDispatcher = new ConnectionEventDispatcher("WatsonConnectionEventDispatcher");
         this.dataService.addDataServiceListener(this);
     }
 
     public void deactivateInternal() {
+        setAsyncPublishing(false, 0, 0, 0);
+        setSpooling(false, null, 0, 0, 0, 0);
+        setChunkedTransfers(false, 0, 0);
+        setBufferPooling(false, 0, 0);
+        setShards(new DataService[0], false);
         this.dataService.removeDataServiceListener(this);
+        this.subscriberDispatcher.shutdown();
+        this.connectionEventDispatcher.close();
+        logger.info("closed {}", this.connectionEventDispatcher);
     }
     
     public DataService getDataService() {
         return this.dataService;
     }
 
+    /**
+     * Returns the cache of encoded metric names used by this endpoint, or {@code null} if caching is disabled.
+     */
+    public MetricNameCache getMetricNameCache() {
+        return this.metricNameCache;
+    }
+
+    protected void setMetricNameCacheSize(final int size) {
+        final MetricNameCache current = this.metricNameCache;
+        if (size <= 0) {
+            this.metricNameCache = null;
+        } else if (current == null || current.getCapacity() != MetricNameCache.tableSizeFor(size)) {
+            this.metricNameCache = new MetricNameCache(size);
+        } else {
+            return;
+        }
+
+        if (current != null) {
+            logger.info("replaced {}", current);
+        }
+    }
+
+    /**
+     * Returns the pool of the arrays holding the encoded payloads, or {@code null} if pooling is disabled.
+     */
+    public ByteArrayPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    /**
+     * Enables or disables the pooling of the arrays holding the encoded payloads. When enabled, the payloads published
+     * by {@link #publish(KuraMessage)} and the chunks of chunked transfers are encoded into leased arrays, handed back
+     * to the pool as soon as the {@link DataService} has accepted them: the DataService must not keep a reference to
+     * the published array, it is expected to copy it into its message store.
+     *
+     * @param maxArrayLength
+     *            the length of the largest pooled arrays
+     * @param arraysPerClass
+     *            the maximum number of idle arrays of each power of two size class
+     */
+    protected synchronized void setBufferPooling(final boolean enabled, final int maxArrayLength,
+            final int arraysPerClass) {
+        final ByteArrayPool current = this.bufferPool;
+        if (enabled && current != null
+                && current.getMaxArrayLength() == Math.max(ByteArrayPool.MIN_ARRAY_LENGTH, maxArrayLength)
+                && this.bufferPoolArraysPerClass == arraysPerClass) {
+            return;
+        }
+
+        this.bufferPool = enabled ? new ByteArrayPool(maxArrayLength, arraysPerClass) : null;
+        this.bufferPoolArraysPerClass = arraysPerClass;
+
+        if (current != null) {
+            // the leases still outstanding are handed back to the replaced pool, which is then discarded
+            logger.info("replaced {}", current);
+        }
+    }
+
+    /**
+     * Returns the latencies of the QoS 1 messages, per publisher and topic, an empty list if latency tracking is
+     * disabled.
+     */
+    public List<PublishLatencyStatistics> getPublishLatencyStatistics() {
+        final PublishLatencyTracker tracker = this.latencyTracker;
+        return tracker == null ? Collections.emptyList() : tracker.getStatistics();
+    }
+
+    protected void setLatencyTracking(final boolean enabled) {
+        if (!enabled) {
+            this.latencyTracker = null;
+        } else if (this.latencyTracker == null) {
+            this.latencyTracker = new PublishLatencyTracker();
+        }
+    }
+
+    /**
+     * Returns the queue of asynchronously published messages, or {@code null} if messages are published on the
+     * caller thread.
+     */
+    public AsyncPublishQueue getAsyncPublishQueue() {
+        return this.asyncPublishQueue;
+    }
+
+    /**
+     * Enables or disables asynchronous publishing. When enabled, {@link #publish(KuraMessage)} queues the message and
+     * returns immediately, the message is encoded and handed over to the {@link DataService} by a worker thread.
+     */
+    protected void setAsyncPublishing(final boolean enabled, final int capacity, final int workerCount,
+            final int drainBatchSize) {
+        final AsyncPublishQueue current = this.asyncPublishQueue;
+        if (enabled && current != null && current.getCapacity() == MetricNameCache.tableSizeFor(capacity)
+                && this.asyncPublishWorkerCount == workerCount && this.asyncPublishDrainBatchSize == drainBatchSize) {
+            return;
+        }
+
+        this.asyncPublishQueue = enabled
+                ? new AsyncPublishQueue(capacity, workerCount, drainBatchSize, this::publishQueued)
+                : null;
+        this.asyncPublishWorkerCount = workerCount;
+        this.asyncPublishDrainBatchSize = drainBatchSize;
+
+        if (current != null) {
+            current.close();
+            logger.info("replaced {}", current);
+        }
+    }
+
+    /**
+     * Returns the number of {@link DataService} shards the messages are spread over, including the DataService of the
+     * endpoint.
+     */
+    public int getShardCount() {
+        return this.shardRouter.getShardCount();
+    }
+
+    public int getConnectedShardCount() {
+        return this.shardRouter.getConnectedShardCount();
+    }
+
+    /**
+     * Sets the additional {@link DataService}s, each with its own transport and MQTT session, the published messages
+     * are spread over. Messages are assigned to a connected shard by hashing their publisher, or their topic, so that
+     * the messages of a publisher keep their order, or in round robin. The endpoint is connected while at least one
+     * shard is connected, subscriptions are only made on the DataService of the endpoint.
+     *
+     * @param dataServices
+     *            the DataService of shards 1 to n, a {@code null} element for a shard that is not available yet
+     * @throws IllegalArgumentException
+     *             if there are more than {@link WatsonCloudConnectionFactory#MAX_SHARDS} shards
+     */
+    protected void setShards(final DataService[] dataServices, final boolean roundRobin) {
+        this.shardRouter.setShards(dataServices, roundRobin);
+    }
+
+    /**
+     * Returns the rate limiter of the messages handed over to the {@link DataService}, or {@code null} if the rate is
+     * not limited.
+     */
+    public PublishRateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    /**
+     * Enables or disables the rate limiting of the messages handed over to the {@link DataService}, including the
+     * replayed spooled messages.
+     *
+     * @param messagesPerSecond
+     *            the maximum message rate, 0 for no limit
+     * @param bytesPerSecond
+     *            the maximum payload throughput, 0 for no limit
+     * @param burstMillis
+     *            the burst allowed after an idle period, as a time at the maximum rate
+     * @param maxWaitMillis
+     *            the maximum time a message is delayed with the {@link RateLimitPolicy#QUEUE} policy
+     */
+    protected void setRateLimiting(final boolean enabled, final int messagesPerSecond, final int bytesPerSecond,
+            final int burstMillis, final RateLimitPolicy policy, final int maxWaitMillis) {
+        final PublishRateLimiter current = this.rateLimiter;
+        this.rateLimiter = enabled && (messagesPerSecond > 0 || bytesPerSecond > 0)
+                ? new PublishRateLimiter(messagesPerSecond, bytesPerSecond, burstMillis, policy, maxWaitMillis)
+                : null;
+
+        if (current != null) {
+            logger.info("replaced {}", current);
+        }
+    }
+
+    /**
+     * Returns the spool of the messages published while disconnected, or {@code null} if these messages are stored by
+     * the {@link DataService}.
+     */
+    public PayloadSpool getSpool() {
+        return this.spool;
+    }
+
+    /**
+     * Enables or disables the spool. When enabled, the messages published while the {@link DataService} is not
+     * connected are appended to the spool, unless it is full, and replayed at the provided rate once the connection is
+     * established again.
+     *
+     * @param messageTtlMillis
+     *            the time after which a spooled message is discarded instead of being replayed
+     * @param replayRate
+     *            the maximum number of spooled messages replayed per second
+     */
+    protected synchronized void setSpooling(final boolean enabled, final Path directory, final int segmentSize,
+            final int maxSegments, final long messageTtlMillis, final int replayRate) {
+        this.spoolMessageTtlMillis = messageTtlMillis;
+        this.spoolReplayRate = replayRate;
+
+        final PayloadSpool current = this.spool;
+        if (enabled && current != null && current.getDirectory().equals(directory)
+                && this.spoolSegmentSize == segmentSize && this.spoolMaxSegments == maxSegments) {
+            return;
+        }
+
+        this.spool = null;
+        if (current != null) {
+            current.close();
+            logger.info("closed {}", current);
+        }
+
+        if (!enabled) {
+            if (this.spoolReplayExecutor != null) {
+                this.spoolReplayExecutor.shutdownNow();
+                this.spoolReplayExecutor = null;
+            }
+            return;
+        }
+
+        try {
+            this.spooledMessageOwners = new ExpiringIntMap<>(TimeUnit.MILLISECONDS.toNanos(messageTtlMillis));
+            this.spool = new PayloadSpool(directory, segmentSize, maxSegments);
+            this.spoolSegmentSize = segmentSize;
+            this.spoolMaxSegments = maxSegments;
+        } catch (final IOException e) {
+            logger.warn("Cannot open the spool in {}, messages published while disconnected are stored by the data "
+                    + "service", directory, e);
+            return;
+        }
+
+        if (this.spoolReplayExecutor == null) {
+            this.spoolReplayExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "WatsonSpoolReplay");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long tick = TimeUnit.SECONDS.toMillis(1) / SPOOL_REPLAY_TICKS_PER_SECOND;
+            this.spoolReplayExecutor.scheduleAtFixedRate(this::replaySpool, tick, tick, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the queue of chunked transfers, or {@code null} if chunked transfers are disabled.
+     */
+    public ChunkedTransferQueue getChunkedTransferQueue() {
+        return this.chunkedTransferQueue;
+    }
+
+    /**
+     * Enables or disables chunked transfers, see {@link #publishChunked(KuraPayload, Map, int)}. Disabling them drops
+     * the pending transfers.
+     *
+     * @param chunksPerSecond
+     *            the maximum number of chunks published per second
+     * @param maxPendingTransfers
+     *            the maximum number of transfers waiting to be sent
+     */
+    protected synchronized void setChunkedTransfers(final boolean enabled, final int chunksPerSecond,
+            final int maxPendingTransfers) {
+        final ChunkedTransferQueue current = this.chunkedTransferQueue;
+        if (enabled && current != null) {
+            current.setLimits(chunksPerSecond, maxPendingTransfers);
+            return;
+        }
+
+        this.chunkedTransferQueue = enabled ? new ChunkedTransferQueue(this, chunksPerSecond, maxPendingTransfers)
+                : null;
+        if (current != null) {
+            current.close();
+            logger.info("closed {}", current);
+        }
+    }
+
+    /**
+     * Queues the transfer of a payload whose body is published in chunks of at most {@code chunkSize} bytes, using
+     * the TOPIC, QOS, RETAIN, PRIORITY, COMPRESSION and COMPRESSION_THRESHOLD publishing properties. The chunks are
+     * always encoded as JSON, and sent at the configured rate while the endpoint is connected. The DELIVERY_LISTENER
+     * property, if set, is notified with the returned id once all the chunks have been confirmed.
+     * <p>
+     * The body of the payload is not copied and must not be modified until the transfer is complete.
+     *
+     * @return the transfer id, or {@code null} if the chunks are published with QoS 0
+     * @throws KuraException
+     *             if chunked transfers are disabled or too many transfers are pending
+     */
+    public String publishChunked(final KuraPayload payload, final Map<String, Object> properties,
+            final int chunkSize) throws KuraException {
+        final ChunkedTransferQueue queue = this.chunkedTransferQueue;
+        if (queue == null) {
+            throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "Chunked transfers are disabled.");
+        }
+
+        final String transferId = queue.offer(payload, properties, chunkSize);
+        if (transferId == null) {
+            throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "Too many pending chunked transfers.");
+        }
+        return extractQos(properties) == 0 ? null : transferId;
+    }
+
     /*
      * CloudEndpoint Methods
      * 
      */
     @Override
     public String publish(KuraMessage message) throws KuraException {
+        final long publishNanos = System.nanoTime();
         final Map<String, Object> properties = message.getProperties();
 
-        final String topic = (String) properties.get(MqttCloudEndpointConstants.TOPIC.name());
-        final int qos = (Integer) properties.get(MqttCloudEndpointConstants.QOS.name());
-        
-        byte[] appPayload = encodePayload(message.getPayload());    
-        
-        int id = this.dataService.publish(topic, appPayload, qos, false, 7);
-        
-        if (qos == 0) {
-            return null;
+        final AsyncPublishQueue queue = this.asyncPublishQueue;
+        if (queue != null) {
+            final String messageId = extractQos(properties) == 0 ? null
+                    : ASYNC_MESSAGE_ID_PREFIX + this.asyncMessageSequence.incrementAndGet();
+            if (queue.offer(message, messageId, extractPriority(properties))) {
+                return messageId;
+            }
+            if (!queue.isClosed()) {
+                throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "The async publish queue is full.");
+            }
+            // the queue is being replaced, publish on the caller thread
         }
-        
-        return String.valueOf(id);
+
+        return publishMessage(message, null, publishNanos);
+    }
+
+    /**
+     * Publishes an already encoded payload using the TOPIC, QOS, RETAIN and PRIORITY publishing properties. If the
+     * COMPRESSION property is set and the payload is at least COMPRESSION_THRESHOLD bytes long, the payload is
+     * compressed and published on the topic returned by {@link PayloadCompression#compressedTopic(String)}. The
+     * confirmation of the message is only notified to the DELIVERY_LISTENER property, if set.
+     *
+     * @return the message id, or {@code null} if the message has been published with QoS 0
+     */
+    public String publishEncoded(final Map<String, Object> properties, final byte[] appPayload) throws KuraException {
+        return publishToDataService(properties, appPayload, null, System.nanoTime());
     }
 
     @Override
@@ -105,7 +482,11 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
         final int qos = extractOrDefault(subscriptionProperties, MqttCloudEndpointConstants.QOS.name(), 0);
 
         final List<CloudSubscriberListener> listeners = this.registeredCloudSubscriberListeners.computeIfAbsent(topic,
-                t -> new CopyOnWriteArrayList<>());
+                t -> {
+                    final List<CloudSubscriberListener> topicListeners = new CopyOnWriteArrayList<>();
+                    this.subscriberTopicFilters.put(t, topicListeners);
+                    return topicListeners;
+                });
         listeners.add(cloudSubscriberListener);
 
         if (listeners.size() == 1) {
@@ -124,6 +505,7 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
             final boolean isEmpty = listeners.isEmpty();
 
             if (isEmpty) {
+                this.subscriberTopicFilters.remove(topicFilter);
                 unsubscribe(topicFilter);
                 return true;
             } else {
@@ -138,17 +520,17 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
      */
     @Override
     public void connect() throws KuraConnectException {
-        this.dataService.connect();
+        this.shardRouter.connect();
     }
 
     @Override
     public void disconnect() throws KuraDisconnectException {
-        this.dataService.disconnect(10);
+        this.shardRouter.disconnect();
     }
 
     @Override
     public boolean isConnected() {
-        return this.dataService.isConnected();
+        return this.shardRouter.isConnected();
     }
 
     @Override
@@ -168,23 +550,17 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
      */
     @Override
     public void onConnectionEstablished() {
-        for (final CloudConnectionListener cloudConnectionListener : this.registeredCloudConnectionListeners) {
-            cloudConnectionListener.onConnectionEstablished();
-        }
+        this.shardRouter.onConnectionEstablished(0);
     }
 
     @Override
     public void onConnectionLost(Throwable arg0) {
-        for (final CloudConnectionListener cloudConnectionListener : this.registeredCloudConnectionListeners) {
-            cloudConnectionListener.onConnectionLost();
-        }
+        this.shardRouter.onConnectionLost(0, false);
     }
 
     @Override
     public void onDisconnected() {
-        for (final CloudConnectionListener cloudConnectionListener : this.registeredCloudConnectionListeners) {
-            cloudConnectionListener.onDisconnected();
-        }
+        this.shardRouter.onConnectionLost(0, true);
     }
 
     @Override
@@ -195,32 +571,404 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
     @Override
     public void onMessageArrived(String topic, byte[] payload, int qos, boolean retained) {
         logger.debug("message arrived, topic: {} qos: {}", topic, qos);
+
+        final List<CloudSubscriberListener> listeners = new ArrayList<>();
+        this.subscriberTopicFilters.match(topic, listeners::addAll);
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        try {
+            this.subscriberDispatcher.execute(() -> dispatch(topic, payload, qos, retained, listeners));
+        } catch (final RejectedExecutionException e) {
+            logger.debug("endpoint deactivated, dropping message on {}", topic);
+        }
     }
 
     @Override
     public void onMessageConfirmed(int messageId, String topic) {
-        for (final CloudDeliveryListener listener : this.registeredCloudDeliveryListeners) {
-            listener.onMessageConfirmed(String.valueOf(messageId));
-        }
+        onShardMessageConfirmed(0, messageId);
     }
 
     @Override
     public void onMessagePublished(int messageId, String topic) {
-        // noop
+        onShardMessagePublished(0, messageId);
+    }
+
+    /**
+     * Encodes the provided {@link KuraPayload} as JSON.
+     */
+    public byte[] encodePayload(KuraPayload payload) {
+        return encodePayload(payload, PayloadFormat.JSON);
+    }
+
+    /**
+     * Encodes the provided {@link KuraPayload} in the requested format.
+     */
+    public byte[] encodePayload(KuraPayload payload, PayloadFormat format) {
+        return format.encode(payload, this.metricNameCache);
+    }
+
+    /**
+     * Runs a notification of a connection state change, logging it if it fails or takes more than 100 ms. Only for
+     * use by the {@code notify} methods, which run on the connection event thread.
+     *
+     * @param event
+     *            the name of the event, for logging
+     * @param target
+     *            the notified object, for logging
+     */
+    protected void runTimed(final String event, final Object target, final Runnable notification) {
+        this.connectionEventDispatcher.runTimed(event, target, notification);
     }
 
     /*
      * Private Methods
      * 
      */
-    private byte[] encodePayload(KuraPayload payload) {
-        return encodeJsonPayload(payload);
+
+    /**
+     * Called when the endpoint becomes connected, that is when its first shard is connected.
+     */
+    protected void onCloudConnectionEstablished() {
+        final PayloadSpool currentSpool = this.spool;
+        if (currentSpool != null && currentSpool.getPendingCount() > 0) {
+            logger.info("replaying {} spooled messages at {} messages/s", currentSpool.getPendingCount(),
+                    this.spoolReplayRate);
+        }
+
+        dispatchConnectionEvent(this::notifyConnectionEstablished);
     }
 
-    private byte[] encodeJsonPayload(KuraPayload kuraPayload) {
-        return CloudPayloadJsonEncoder.getBytes(kuraPayload);
+    /**
+     * Notifies the listeners that the endpoint is connected, on the connection event thread.
+     */
+    protected void notifyConnectionEstablished() {
+        notifyConnectionListeners("onConnectionEstablished", CloudConnectionListener::onConnectionEstablished);
     }
-    
+
+    /**
+     * Called when the connection of the last connected shard is lost.
+     */
+    protected void onCloudConnectionLost() {
+        dispatchConnectionEvent(this::notifyConnectionLost);
+    }
+
+    /**
+     * Notifies the listeners that the connection is lost, on the connection event thread.
+     */
+    protected void notifyConnectionLost() {
+        notifyConnectionListeners("onConnectionLost", CloudConnectionListener::onConnectionLost);
+    }
+
+    /**
+     * Called when the last connected shard is disconnected.
+     */
+    protected void onCloudDisconnected() {
+        dispatchConnectionEvent(this::notifyDisconnected);
+    }
+
+    /**
+     * Notifies the listeners that the endpoint is disconnected, on the connection event thread.
+     */
+    protected void notifyDisconnected() {
+        notifyConnectionListeners("onDisconnected", CloudConnectionListener::onDisconnected);
+    }
+
+    /**
+     * Returns a message id unique across the shards, from the id assigned by the DataService of a shard. The ids of
+     * the DataService of the endpoint are returned as they are.
+     */
+    private static String formatMessageId(final int shard, final int messageId) {
+        return shard == 0 ? String.valueOf(messageId) : SHARD_MESSAGE_ID_PREFIX + shard + '-' + messageId;
+    }
+
+    /**
+     * Called when the DataService of a shard confirms the delivery of a message.
+     */
+    void onShardMessageConfirmed(final int shard, final int messageId) {
+        final ConfirmationRoutes routes = this.confirmationRoutes[shard];
+        final long nanos = System.nanoTime();
+        final PendingConfirmation pending;
+        synchronized (this.confirmationLock) {
+            pending = routes.pending.remove(messageId);
+            if (pending == null && this.trackedPublishesInFlight > 0) {
+                // the message may be the one whose publish call has not returned yet
+                routes.park(messageId, CONFIRMATION_EVENT, nanos);
+                return;
+            }
+        }
+        deliverConfirmation(shard, messageId, pending, nanos);
+    }
+
+    /**
+     * Called when the DataService of a shard hands a message over to its transport.
+     */
+    void onShardMessagePublished(final int shard, final int messageId) {
+        if (this.latencyTracker == null) {
+            // the hand-off time is only used by the latency statistics
+            return;
+        }
+
+        final ConfirmationRoutes routes = this.confirmationRoutes[shard];
+        final long nanos = System.nanoTime();
+        final PendingConfirmation pending;
+        synchronized (this.confirmationLock) {
+            pending = routes.pending.get(messageId);
+            if (pending == null && this.trackedPublishesInFlight > 0) {
+                routes.park(messageId, HAND_OFF_EVENT, nanos);
+                return;
+            }
+        }
+        if (pending != null) {
+            pending.onHandOff(nanos);
+        }
+    }
+
+    private void deliverConfirmation(final int shard, final int messageId, final PendingConfirmation pending,
+            final long nanos) {
+        final String confirmedId = pending != null && pending.getMessageId() != null ? pending.getMessageId()
+                : formatMessageId(shard, messageId);
+        if (pending != null) {
+            pending.onConfirmation(nanos);
+            if (pending.getOwner() != null) {
+                pending.getOwner().onMessageConfirmed(confirmedId);
+                return;
+            }
+        }
+
+        // published without a DELIVERY_LISTENER property, or the route has expired
+        for (final CloudDeliveryListener listener : this.registeredCloudDeliveryListeners) {
+            listener.onMessageConfirmed(confirmedId);
+        }
+    }
+
+    /**
+     * Publishes a QoS 1 or 2 message on a shard and registers the route of its confirmation. A DataService may notify
+     * the hand-off and the confirmation of a message before its publish call returns: these events are parked until
+     * the id of the message is known, and then applied to the route.
+     *
+     * @return the id of the message, unique across the shards
+     */
+    private String publishTracked(final DataService shardDataService, final int shard, final String topic,
+            final byte[] payload, final int qos, final boolean retain, final int priority,
+            final PendingConfirmation pending) throws KuraException {
+        synchronized (this.confirmationLock) {
+            this.trackedPublishesInFlight++;
+        }
+
+        final ConfirmationRoutes routes = this.confirmationRoutes[shard];
+        int id = 0;
+        boolean published = false;
+        final long[] events;
+        try {
+            id = shardDataService.publish(topic, payload, qos, retain, priority);
+            published = true;
+        } finally {
+            synchronized (this.confirmationLock) {
+                this.trackedPublishesInFlight--;
+                events = published ? routes.early.remove(id) : null;
+                if (published && (events == null || events[CONFIRMATION_EVENT] == NO_EVENT)) {
+                    routes.pending.put(id, pending);
+                }
+            }
+        }
+
+        if (events != null) {
+            if (events[HAND_OFF_EVENT] != NO_EVENT) {
+                pending.onHandOff(events[HAND_OFF_EVENT]);
+            }
+            if (events[CONFIRMATION_EVENT] != NO_EVENT) {
+                deliverConfirmation(shard, id, pending, events[CONFIRMATION_EVENT]);
+            }
+        }
+        return formatMessageId(shard, id);
+    }
+
+    private void notifyConnectionListeners(final String event, final Consumer<CloudConnectionListener> notification) {
+        for (final CloudConnectionListener cloudConnectionListener : this.registeredCloudConnectionListeners) {
+            runTimed(event, cloudConnectionListener, () -> notification.accept(cloudConnectionListener));
+        }
+    }
+
+    /**
+     * Schedules the notifications of a connection state change on the connection event thread, they replace the
+     * notifications of the previous state if those have not started yet.
+     */
+    private void dispatchConnectionEvent(final Runnable notifications) {
+        final ConnectionEventDispatcher dispatcher = this.connectionEventDispatcher;
+        if (dispatcher == null) {
+            logger.debug("endpoint not activated, dropping connection event");
+            return;
+        }
+        dispatcher.dispatch(notifications);
+    }
+
+    private String publishMessage(final KuraMessage message, final String asyncMessageId, final long publishNanos)
+            throws KuraException {
+        final Map<String, Object> properties = message.getProperties();
+
+        final Object format = properties.get(MqttCloudEndpointConstants.FORMAT.name());
+        final PayloadFormat payloadFormat = format instanceof PayloadFormat ? (PayloadFormat) format
+                : PayloadFormat.JSON;
+
+        final ByteArrayPool pool = this.bufferPool;
+        if (pool == null) {
+            return publishToDataService(properties, encodePayload(message.getPayload(), payloadFormat),
+                    asyncMessageId, publishNanos);
+        }
+
+        final byte[] appPayload = payloadFormat.encode(message.getPayload(), this.metricNameCache, pool);
+        try {
+            return publishToDataService(properties, appPayload, asyncMessageId, publishNanos);
+        } finally {
+            // the DataService, the spool and the compression have copied the bytes
+            pool.release(appPayload);
+        }
+    }
+
+    private void publishQueued(final KuraMessage message, final String messageId, final long enqueueNanos)
+            throws KuraException {
+        publishMessage(message, messageId, enqueueNanos);
+    }
+
+    private PendingConfirmation newPendingConfirmation(final Map<String, Object> properties,
+            final String asyncMessageId, final long publishNanos) {
+        final Object owner = properties.get(MqttCloudEndpointConstants.DELIVERY_LISTENER.name());
+        final PublishLatencyTracker tracker = this.latencyTracker;
+        final PublishLatencyTracker.Series series = tracker == null ? null
+                : tracker.getSeries(extractOrDefault(properties, MqttCloudEndpointConstants.PUBLISHER_ID.name(), ""),
+                        (String) properties.get(MqttCloudEndpointConstants.TOPIC.name()));
+
+        return new PendingConfirmation(owner instanceof CloudDeliveryListener ? (CloudDeliveryListener) owner : null,
+                asyncMessageId, series, publishNanos);
+    }
+
+    /**
+     * Hands over an encoded message to the {@link DataService}, or to the spool if the DataService is not connected.
+     *
+     * @return the id of the message, the provided asynchronous message id if not {@code null}, or {@code null} for
+     *         QoS 0 messages
+     */
+    private String publishToDataService(final Map<String, Object> properties, final byte[] appPayload,
+            final String asyncMessageId, final long publishNanos) throws KuraException {
+        String topic = (String) properties.get(MqttCloudEndpointConstants.TOPIC.name());
+        final int qos = extractQos(properties);
+        byte[] payload = appPayload;
+
+        final Object compression = properties.get(MqttCloudEndpointConstants.COMPRESSION.name());
+        if (compression instanceof PayloadCompression && compression != PayloadCompression.NONE
+                && appPayload.length >= extractOrDefault(properties,
+                        MqttCloudEndpointConstants.COMPRESSION_THRESHOLD.name(), 0)) {
+            final byte[] compressed = ((PayloadCompression) compression).compress(appPayload);
+            // incompressible payloads are sent as they are
+            if (compressed.length < appPayload.length) {
+                topic = ((PayloadCompression) compression).compressedTopic(topic);
+                payload = compressed;
+            }
+        }
+
+        final boolean retain = extractOrDefault(properties, MqttCloudEndpointConstants.RETAIN.name(), false);
+        final int priority = extractPriority(properties).getDataServicePriority();
+
+        final PayloadSpool currentSpool = this.spool;
+        if (currentSpool != null && !isConnected()) {
+            final long sequence = spoolMessage(currentSpool, properties, topic, payload, qos, retain, priority,
+                    asyncMessageId);
+            if (sequence >= 0) {
+                if (qos == 0) {
+                    return null;
+                }
+                return asyncMessageId != null ? asyncMessageId : SPOOL_MESSAGE_ID_PREFIX + sequence;
+            }
+            // the spool is full, let the DataService store the message
+        }
+
+        final PublishRateLimiter limiter = this.rateLimiter;
+        if (limiter != null) {
+            limiter.acquire(payload.length);
+        }
+
+        final ShardRouter router = this.shardRouter;
+        final DataService[] shards = router.getDataServices();
+        final int shard = router.select(shards, properties);
+        if (qos == 0) {
+            shards[shard].publish(topic, payload, qos, retain, priority);
+            return null;
+        }
+
+        final String id = publishTracked(shards[shard], shard, topic, payload, qos, retain, priority,
+                newPendingConfirmation(properties, asyncMessageId, publishNanos));
+        return asyncMessageId != null ? asyncMessageId : id;
+    }
+
+    private long spoolMessage(final PayloadSpool currentSpool, final Map<String, Object> properties,
+            final String topic, final byte[] payload, final int qos, final boolean retain, final int priority,
+            final String asyncMessageId) {
+        final long sequence;
+        try {
+            sequence = currentSpool.append(topic, payload, qos, retain, priority, asyncMessageId,
+                    System.currentTimeMillis() + this.spoolMessageTtlMillis);
+        } catch (final IOException e) {
+            logger.warn("Cannot spool message on {}", topic, e);
+            return -1;
+        }
+
+        final Object owner = properties.get(MqttCloudEndpointConstants.DELIVERY_LISTENER.name());
+        if (sequence >= 0 && qos > 0 && owner instanceof CloudDeliveryListener) {
+            this.spooledMessageOwners.put((int) sequence, (CloudDeliveryListener) owner);
+        }
+        return sequence;
+    }
+
+    private void replaySpool() {
+        final PayloadSpool currentSpool = this.spool;
+        final ShardRouter router = this.shardRouter;
+        final DataService[] shards = router.getDataServices();
+        final int shard = router.select(shards, null);
+        final DataService currentDataService = shards[shard];
+        if (currentSpool == null || currentSpool.getPendingCount() == 0 || currentDataService == null
+                || !currentDataService.isConnected()) {
+            this.spoolReplayCredit = 0;
+            return;
+        }
+
+        // spread the replay rate over the ticks, carrying over the remainder
+        this.spoolReplayCredit += Math.max(1, this.spoolReplayRate);
+        final int budget = this.spoolReplayCredit / SPOOL_REPLAY_TICKS_PER_SECOND;
+        this.spoolReplayCredit %= SPOOL_REPLAY_TICKS_PER_SECOND;
+        if (budget == 0) {
+            return;
+        }
+
+        try {
+            currentSpool.replay(budget, message -> publishSpooled(currentDataService, shard, message));
+        } catch (final Exception e) {
+            logger.warn("Cannot replay spooled messages", e);
+        }
+    }
+
+    private void publishSpooled(final DataService currentDataService, final int shard,
+            final PayloadSpool.SpooledMessage message) throws KuraException {
+        final PublishRateLimiter limiter = this.rateLimiter;
+        if (limiter != null) {
+            limiter.acquire(message.getPayload().length);
+        }
+
+        if (message.getQos() == 0) {
+            currentDataService.publish(message.getTopic(), message.getPayload(), message.getQos(), message.isRetain(),
+                    message.getPriority());
+            return;
+        }
+
+        final CloudDeliveryListener owner = this.spooledMessageOwners.remove((int) message.getSequence());
+        final String messageId = message.getMessageId() != null ? message.getMessageId()
+                : SPOOL_MESSAGE_ID_PREFIX + message.getSequence();
+        publishTracked(currentDataService, shard, message.getTopic(), message.getPayload(), message.getQos(),
+                message.isRetain(), message.getPriority(),
+                new PendingConfirmation(owner, messageId, null, System.nanoTime()));
+    }
+
     @SuppressWarnings("unchecked")
     private static final <T> T extract(final Map<String, Object> properties, final String key, final Class<T> clazz)
             throws KuraException {
@@ -245,6 +993,15 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
         return defaultValue;
     }
 
+    private static final int extractQos(final Map<String, Object> properties) {
+        return (Integer) properties.get(MqttCloudEndpointConstants.QOS.name());
+    }
+
+    private static final PublishPriority extractPriority(final Map<String, Object> properties) {
+        final Object priority = properties.get(MqttCloudEndpointConstants.PRIORITY.name());
+        return priority instanceof PublishPriority ? (PublishPriority) priority : PublishPriority.NORMAL;
+    }
+
     private static final String extractTopic(final Map<String, Object> subscriptionProperties) {
         String topic;
         try {
@@ -265,6 +1022,68 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
         }
     }
 
+    private static void dispatch(final String topic, final byte[] payload, final int qos, final boolean retained,
+            final List<CloudSubscriberListener> listeners) {
+        final KuraPayload kuraPayload = decodePayload(topic, payload);
+
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put(MqttCloudEndpointConstants.TOPIC.name(), topic);
+        properties.put(MqttCloudEndpointConstants.QOS.name(), qos);
+        properties.put(MqttCloudEndpointConstants.RETAIN.name(), retained);
+        addDeviceCommandProperties(topic, properties);
+        final KuraMessage message = new KuraMessage(kuraPayload, properties);
+
+        for (final CloudSubscriberListener listener : listeners) {
+            try {
+                listener.onMessageArrived(message);
+            } catch (final Exception e) {
+                logger.warn("subscriber listener failed to handle message on {}", topic, e);
+            }
+        }
+    }
+
+    /**
+     * Adds the DEVICE_TYPE, DEVICE_ID and COMMAND_ID properties of a command sent to a device through the gateway, on
+     * {@code iot-2/type/<type>/id/<id>/cmd/<command>/fmt/<fmt>}.
+     */
+    private static void addDeviceCommandProperties(final String topic, final Map<String, Object> properties) {
+        if (!topic.startsWith(DEVICE_TOPIC_PREFIX)) {
+            return;
+        }
+
+        final int typeEnd = topic.indexOf('/', DEVICE_TOPIC_PREFIX.length());
+        final int idStart = typeEnd + "/id/".length();
+        if (typeEnd < 0 || !topic.startsWith("/id/", typeEnd)) {
+            return;
+        }
+        final int idEnd = topic.indexOf('/', idStart);
+        final int commandStart = idEnd + "/cmd/".length();
+        if (idEnd < 0 || !topic.startsWith("/cmd/", idEnd)) {
+            return;
+        }
+        final int commandEnd = topic.indexOf('/', commandStart);
+
+        properties.put(MqttCloudEndpointConstants.DEVICE_TYPE.name(),
+                topic.substring(DEVICE_TOPIC_PREFIX.length(), typeEnd));
+        properties.put(MqttCloudEndpointConstants.DEVICE_ID.name(), topic.substring(idStart, idEnd));
+        properties.put(MqttCloudEndpointConstants.COMMAND_ID.name(),
+                commandEnd < 0 ? topic.substring(commandStart) : topic.substring(commandStart, commandEnd));
+    }
+
+    private static KuraPayload decodePayload(final String topic, final byte[] payload) {
+        if (topic.endsWith(JSON_FORMAT_TOPIC_SUFFIX)) {
+            try {
+                return CloudPayloadJsonDecoder.buildFromByteArray(payload);
+            } catch (final IllegalArgumentException e) {
+                logger.debug("message on {} is not a JSON KuraPayload, delivering it as body", topic, e);
+            }
+        }
+
+        final KuraPayload kuraPayload = new KuraPayload();
+        kuraPayload.setBody(payload);
+        return kuraPayload;
+    }
+
     private void unsubscribe(final String topicFilter) {
         try {
             logger.info("unsubscribing from {}", topicFilter);
@@ -273,4 +1092,32 @@ public class MqttCloudEndpoint implements CloudEndpoint, CloudConnectionManager,
             logger.warn("failed to unsubscribe", e);
         }
     }
+
+    /**
+     * The messages of a shard waiting for their confirmation, by the id assigned by the DataService of the shard.
+     */
+    private static final class ConfirmationRoutes {
+
+        private final ExpiringIntMap<PendingConfirmation> pending = new ExpiringIntMap<>(
+                CONFIRMATION_ROUTE_EXPIRY_NANOS);
+        // hand-off and confirmation times notified before the publish call of the message returned
+        private final ExpiringIntMap<long[]> early = new ExpiringIntMap<>(EARLY_DELIVERY_EVENT_EXPIRY_NANOS);
+
+        static ConfirmationRoutes[] create(final int shards) {
+            final ConfirmationRoutes[] routes = new ConfirmationRoutes[shards];
+            for (int i = 0; i < shards; i++) {
+                routes[i] = new ConfirmationRoutes();
+            }
+            return routes;
+        }
+
+        void park(final int messageId, final int event, final long nanos) {
+            long[] events = this.early.get(messageId);
+            if (events == null) {
+                events = new long[] { NO_EVENT, NO_EVENT };
+                this.early.put(messageId, events);
+            }
+            events[event] = nanos;
+        }
+    }
 }
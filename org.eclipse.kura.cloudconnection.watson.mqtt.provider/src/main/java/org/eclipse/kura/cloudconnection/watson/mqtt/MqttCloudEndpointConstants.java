@@ -8,5 +8,14 @@ public enum MqttCloudEndpointConstants {
     TOPIC,
     QOS,
     RETAIN,
-    PRIORITY
+    PRIORITY,
+    FORMAT,
+    COMPRESSION,
+    COMPRESSION_THRESHOLD,
+    DELIVERY_LISTENER,
+    PUBLISHER_ID,
+    DEVICE_TYPE,
+    DEVICE_ID,
+    EVENT_ID,
+    COMMAND_ID
 }
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.Arrays;
+
+/**
+ * A growable byte array used as scratch space by the payload encoders.
+ * Instances are not thread safe and are meant to be reset and reused.
+ *
+ */
+public final class PayloadBuffer {
+
+    private byte[] bytes;
+    private int size;
+
+    public PayloadBuffer(final int initialCapacity) {
+        this.bytes = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public void reset() {
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int capacity() {
+        return this.bytes.length;
+    }
+
+    public byte[] array() {
+        return this.bytes;
+    }
+
+    public void write(final int b) {
+        ensureCapacity(1);
+        this.bytes[this.size++] = (byte) b;
+    }
+
+    public void write(final byte[] src) {
+        write(src, 0, src.length);
+    }
+
+    public void write(final byte[] src, final int offset, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, this.bytes, this.size, length);
+        this.size += length;
+    }
+
+    /**
+     * Makes room for at least {@code additional} more bytes and returns the current write position. Callers that
+     * write directly into {@link #array()} must then commit the bytes with {@link #advance(int)}.
+     */
+    public int ensureCapacity(final int additional) {
+        final int required = this.size + additional;
+        if (required < 0) {
+            throw new IllegalStateException("Payload too large");
+        }
+        if (required > this.bytes.length) {
+            int newCapacity = this.bytes.length << 1;
+            if (newCapacity < required) {
+                newCapacity = required;
+            }
+            if (newCapacity < 0) {
+                newCapacity = Integer.MAX_VALUE - 8;
+            }
+            this.bytes = Arrays.copyOf(this.bytes, newCapacity);
+        }
+        return this.size;
+    }
+
+    public void advance(final int count) {
+        this.size += count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.bytes, this.size);
+    }
+
+    /**
+     * Returns a copy of the written bytes in an array leased from the provided pool.
+     */
+    byte[] toByteArray(final ByteArrayPool pool) {
+        final byte[] copy = pool.acquire(this.size);
+        System.arraycopy(this.bytes, 0, copy, 0, this.size);
+        return copy;
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The compression applied to encoded payloads. Compressed messages are published on the configured topic with the
+ * compression appended to the {@code fmt} segment, for example {@code iot-2/evt/status/fmt/json-gzip}.
+ *
+ */
+public enum PayloadCompression {
+
+    NONE("none") {
+
+        @Override
+        public byte[] compress(final byte[] payload) {
+            return payload;
+        }
+
+        @Override
+        public String compressedTopic(final String topic) {
+            return topic;
+        }
+    },
+
+    DEFLATE("deflate") {
+
+        @Override
+        public byte[] compress(final byte[] payload) {
+            final PayloadBuffer buffer = ScratchBuffers.acquire();
+            try {
+                deflate(ZLIB_DEFLATERS, payload, buffer);
+                return buffer.toByteArray();
+            } finally {
+                ScratchBuffers.release(buffer);
+            }
+        }
+    },
+
+    GZIP("gzip") {
+
+        @Override
+        public byte[] compress(final byte[] payload) {
+            final PayloadBuffer buffer = ScratchBuffers.acquire();
+            try {
+                buffer.write(GZIP_HEADER);
+                deflate(RAW_DEFLATERS, payload, buffer);
+
+                final CRC32 crc = new CRC32();
+                crc.update(payload, 0, payload.length);
+                writeIntLE(buffer, (int) crc.getValue());
+                writeIntLE(buffer, payload.length);
+
+                return buffer.toByteArray();
+            } finally {
+                ScratchBuffers.release(buffer);
+            }
+        }
+    };
+
+    private static final int DEFLATER_POOL_CAPACITY = 8;
+    private static final int DEFLATE_CHUNK_SIZE = 4096;
+
+    // magic, CM=deflate, no flags, no mtime, no extra flags, OS as written by java.util.zip.GZIPOutputStream
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static final DeflaterPool ZLIB_DEFLATERS = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, false,
+            DEFLATER_POOL_CAPACITY);
+    private static final DeflaterPool RAW_DEFLATERS = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true,
+            DEFLATER_POOL_CAPACITY);
+
+    private final String value;
+
+    private PayloadCompression(final String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the string representation of the constant
+     *
+     * @return the string value
+     */
+    public String value() {
+        return this.value;
+    }
+
+    public abstract byte[] compress(byte[] payload);
+
+    /**
+     * Returns the topic compressed payloads are published on.
+     */
+    public String compressedTopic(final String topic) {
+        return topic + '-' + this.value;
+    }
+
+    /**
+     * Returns the compression with the provided value, ignoring case, or {@link #NONE} if there is no such
+     * compression.
+     */
+    public static PayloadCompression fromValue(final String value) {
+        for (final PayloadCompression compression : values()) {
+            if (compression.value.equalsIgnoreCase(value)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    private static void deflate(final DeflaterPool pool, final byte[] payload, final PayloadBuffer buffer) {
+        final Deflater deflater = pool.acquire();
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            while (!deflater.finished()) {
+                final int position = buffer.ensureCapacity(DEFLATE_CHUNK_SIZE);
+                buffer.advance(deflater.deflate(buffer.array(), position, buffer.capacity() - position));
+            }
+        } finally {
+            pool.release(deflater);
+        }
+    }
+
+    private static void writeIntLE(final PayloadBuffer buffer, final int value) {
+        buffer.write(value);
+        buffer.write(value >>> 8);
+        buffer.write(value >>> 16);
+        buffer.write(value >>> 24);
+    }
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import org.eclipse.kura.message.KuraPayload;
+
+/**
+ * The encodings a {@link KuraPayload} can be published with. The value of each constant is the Watson {@code fmt}
+ * topic segment that identifies it.
+ *
+ */
+public enum PayloadFormat {
+
+    JSON("json") {
+
+        @Override
+        void encode(final KuraPayload payload, final MetricNameCache metricNameCache, final PayloadBuffer buffer) {
+            CloudPayloadJsonStreamEncoder.encode(payload, new JsonByteWriter(buffer), metricNameCache);
+        }
+
+        @Override
+        public void writeArrayStart(final PayloadBuffer buffer) {
+            buffer.write('[');
+        }
+
+        @Override
+        public void writeArraySeparator(final PayloadBuffer buffer) {
+            buffer.write(',');
+        }
+
+        @Override
+        public void writeArrayEnd(final PayloadBuffer buffer, final int arrayStart, final int size) {
+            buffer.write(']');
+        }
+    },
+
+    CBOR("cbor") {
+
+        @Override
+        void encode(final KuraPayload payload, final MetricNameCache metricNameCache, final PayloadBuffer buffer) {
+            CloudPayloadCborEncoder.encode(payload, buffer);
+        }
+
+        @Override
+        public void writeArrayStart(final PayloadBuffer buffer) {
+            buffer.write(CloudPayloadCborEncoder.ARRAY_INDEFINITE);
+        }
+
+        @Override
+        public void writeArrayEnd(final PayloadBuffer buffer, final int arrayStart, final int size) {
+            buffer.write(CloudPayloadCborEncoder.BREAK);
+        }
+    },
+
+    MSGPACK("msgpack") {
+
+        @Override
+        void encode(final KuraPayload payload, final MetricNameCache metricNameCache, final PayloadBuffer buffer) {
+            CloudPayloadMsgPackEncoder.encode(payload, buffer);
+        }
+
+        @Override
+        public void writeArrayStart(final PayloadBuffer buffer) {
+            // array32 header, the size is patched by writeArrayEnd()
+            buffer.write(CloudPayloadMsgPackEncoder.ARRAY32);
+            CloudPayloadMsgPackEncoder.writeInt32(buffer, 0);
+        }
+
+        @Override
+        public void writeArrayEnd(final PayloadBuffer buffer, final int arrayStart, final int size) {
+            final byte[] bytes = buffer.array();
+            bytes[arrayStart + 1] = (byte) (size >>> 24);
+            bytes[arrayStart + 2] = (byte) (size >>> 16);
+            bytes[arrayStart + 3] = (byte) (size >>> 8);
+            bytes[arrayStart + 4] = (byte) size;
+        }
+    };
+
+    private static final String FORMAT_TOPIC_SEGMENT = "/fmt/";
+
+    private final String value;
+
+    private PayloadFormat(final String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the string representation of the constant
+     *
+     * @return the string value
+     */
+    public String value() {
+        return this.value;
+    }
+
+    /**
+     * Encodes the provided payload.
+     *
+     * @param metricNameCache
+     *            the cache of encoded metric names, can be {@code null} and is ignored by binary formats
+     * @throws IllegalArgumentException
+     *             if the conversion fails
+     */
+    public byte[] encode(final KuraPayload payload, final MetricNameCache metricNameCache) {
+        final PayloadBuffer buffer = ScratchBuffers.acquire();
+
+        try {
+            encode(payload, metricNameCache, buffer);
+            return buffer.toByteArray();
+        } finally {
+            ScratchBuffers.release(buffer);
+        }
+    }
+
+    /**
+     * Encodes the provided payload into an array leased from the provided pool, that must be released once the
+     * encoded payload has been handed over.
+     *
+     * @param metricNameCache
+     *            the cache of encoded metric names, can be {@code null} and is ignored by binary formats
+     * @throws IllegalArgumentException
+     *             if the conversion fails
+     */
+    byte[] encode(final KuraPayload payload, final MetricNameCache metricNameCache, final ByteArrayPool pool) {
+        final PayloadBuffer buffer = ScratchBuffers.acquire();
+
+        try {
+            encode(payload, metricNameCache, buffer);
+            return buffer.toByteArray(pool);
+        } finally {
+            ScratchBuffers.release(buffer);
+        }
+    }
+
+    /**
+     * Appends the encoded payload to the provided buffer.
+     */
+    abstract void encode(KuraPayload payload, MetricNameCache metricNameCache, PayloadBuffer buffer);
+
+    /**
+     * Writes the beginning of an array of encoded payloads.
+     */
+    public abstract void writeArrayStart(PayloadBuffer buffer);
+
+    /**
+     * Writes what is needed between two elements of an array of encoded payloads.
+     */
+    public void writeArraySeparator(final PayloadBuffer buffer) {
+        // no separator by default
+    }
+
+    /**
+     * Completes an array of encoded payloads.
+     *
+     * @param arrayStart
+     *            the buffer position {@link #writeArrayStart(PayloadBuffer)} has been called at
+     * @param size
+     *            the number of elements in the array
+     */
+    public abstract void writeArrayEnd(PayloadBuffer buffer, int arrayStart, int size);
+
+    /**
+     * Returns the format with the provided value, ignoring case.
+     *
+     * @throws IllegalArgumentException
+     *             if no format has the provided value
+     */
+    public static PayloadFormat fromValue(final String value) {
+        for (final PayloadFormat format : values()) {
+            if (format.value.equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported payload format: " + value);
+    }
+
+    /**
+     * Returns the format named by the {@code fmt} segment of a Watson topic, such as {@code iot-2/evt/status/fmt/cbor}.
+     * Topics without a {@code fmt} segment or with a format that is not supported are published as JSON.
+     */
+    public static PayloadFormat fromTopic(final String topic) {
+        final int segmentIndex = topic.lastIndexOf(FORMAT_TOPIC_SEGMENT);
+        if (segmentIndex < 0) {
+            return JSON;
+        }
+
+        final int start = segmentIndex + FORMAT_TOPIC_SEGMENT.length();
+        final int end = topic.indexOf('/', start);
+        final String fmt = end < 0 ? topic.substring(start) : topic.substring(start, end);
+
+        if ("messagepack".equalsIgnoreCase(fmt)) {
+            return MSGPACK;
+        }
+        try {
+            return fromValue(fmt);
+        } catch (final IllegalArgumentException e) {
+            return JSON;
+        }
+    }
+
+    /**
+     * Returns the provided Watson topic with its {@code fmt} segment naming this format, the topic itself if it has no
+     * {@code fmt} segment or if the segment already names this format.
+     */
+    public String toTopic(final String topic) {
+        final int segmentIndex = topic.lastIndexOf(FORMAT_TOPIC_SEGMENT);
+        if (segmentIndex < 0 || fromTopic(topic) == this) {
+            return topic;
+        }
+
+        final int start = segmentIndex + FORMAT_TOPIC_SEGMENT.length();
+        final int end = topic.indexOf('/', start);
+        return topic.substring(0, start) + this.value + (end < 0 ? "" : topic.substring(end));
+    }
+}
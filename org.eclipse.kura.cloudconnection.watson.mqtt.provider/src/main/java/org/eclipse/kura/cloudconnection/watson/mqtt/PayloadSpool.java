@@ -0,0 +1,503 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.kura.KuraException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only store of encoded messages published while the connection is down, kept in memory-mapped segment
+ * files of fixed size so that the messages are neither serialized again nor lost on restart.
+ * <p>
+ * Each record is written as its fields followed by its length, the length is the last value written so that a
+ * partially written record is ignored on recovery. Replayed and expired records are marked as consumed in place and a
+ * segment file is deleted once all its records have been consumed. Segments are flushed to disk when a new segment is
+ * started and when the spool is closed.
+ *
+ */
+public final class PayloadSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(PayloadSpool.class);
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final byte CONSUMED = 0;
+    private static final byte PENDING = 1;
+
+    // length, state, deadline, sequence, qos, retain, priority, id length, topic length, payload length
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8 + 1 + 1 + 4 + 2 + 2 + 4;
+    private static final int STATE_OFFSET = 4;
+    private static final int DEADLINE_OFFSET = 5;
+    private static final int SEQUENCE_OFFSET = 13;
+
+    interface RecordHandler {
+
+        /**
+         * Publishes a message read from the spool. The message stays in the spool if an exception is thrown.
+         */
+        void publish(SpooledMessage message) throws KuraException;
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment writeSegment;
+    private long nextSegmentIndex;
+    private long sequence;
+    private boolean closed;
+    private volatile int pendingCount;
+
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Opens the spool stored in the provided directory, recovering the messages left by a previous run.
+     *
+     * @param segmentSize
+     *            the size in bytes of each segment file, also the maximum size of a record
+     * @param maxSegments
+     *            the maximum number of segment files
+     */
+    PayloadSpool(final Path directory, final int segmentSize, final int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Appends a message to the spool.
+     *
+     * @param messageId
+     *            the id returned to the publisher, {@code null} for QoS 0 messages
+     * @param deadlineMillis
+     *            the time after which the message is discarded instead of being replayed
+     * @return the sequence number of the message, or {@code -1} if the spool is full or closed
+     */
+    synchronized long append(final String topic, final byte[] payload, final int qos, final boolean retain,
+            final int priority, final String messageId, final long deadlineMillis) throws IOException {
+        final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        final byte[] idBytes = messageId == null ? new byte[0] : messageId.getBytes(StandardCharsets.UTF_8);
+        final int length = HEADER_SIZE + idBytes.length + topicBytes.length + payload.length;
+
+        if (this.closed || length > this.segmentSize) {
+            this.rejected.increment();
+            return -1;
+        }
+
+        if (!fits(this.writeSegment, length) && this.segments.size() >= this.maxSegments) {
+            // make room, discarding the oldest segments if all their messages have expired
+            discardExpired(System.currentTimeMillis());
+        }
+
+        Segment segment = this.writeSegment;
+        if (!fits(segment, length)) {
+            if (this.segments.size() >= this.maxSegments) {
+                this.rejected.increment();
+                return -1;
+            }
+            if (segment != null) {
+                segment.buffer.force();
+            }
+            segment = createSegment();
+        }
+
+        final long recordSequence = ++this.sequence;
+        segment.write(length, deadlineMillis, recordSequence, qos, retain, priority, idBytes, topicBytes, payload);
+        this.pendingCount++;
+        this.spooled.increment();
+        return recordSequence;
+    }
+
+    /**
+     * Hands over to the provided handler up to {@code maxMessages} spooled messages, oldest first, discarding the
+     * expired ones.
+     *
+     * @return the number of messages handed over
+     */
+    synchronized int replay(final int maxMessages, final RecordHandler handler) throws KuraException {
+        final long now = System.currentTimeMillis();
+        int count = 0;
+
+        while (count < maxMessages) {
+            final Segment segment = nextReadableSegment();
+            if (segment == null) {
+                break;
+            }
+
+            final int position = segment.readPosition;
+            if (segment.buffer.get(position + STATE_OFFSET) == PENDING) {
+                if (segment.deadline(position) < now) {
+                    this.expired.increment();
+                } else {
+                    handler.publish(segment.read(position));
+                    this.replayed.increment();
+                    count++;
+                }
+                segment.buffer.put(position + STATE_OFFSET, CONSUMED);
+                this.pendingCount--;
+            }
+            segment.readPosition = position + segment.buffer.getInt(position);
+        }
+        return count;
+    }
+
+    /**
+     * Flushes the segments to disk and stops accepting messages.
+     */
+    synchronized void close() {
+        this.closed = true;
+        for (final Segment segment : this.segments) {
+            segment.buffer.force();
+        }
+        this.segments.clear();
+        this.writeSegment = null;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Returns the number of messages waiting to be replayed, including the expired ones not discarded yet.
+     */
+    public int getPendingCount() {
+        return this.pendingCount;
+    }
+
+    public synchronized int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    public long getSpooledCount() {
+        return this.spooled.sum();
+    }
+
+    public long getReplayedCount() {
+        return this.replayed.sum();
+    }
+
+    public long getExpiredCount() {
+        return this.expired.sum();
+    }
+
+    /**
+     * Returns the number of messages not spooled because the spool was full or they did not fit in a segment.
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadSpool [directory=" + this.directory + ", segments=" + getSegmentCount() + ", pending="
+                + getPendingCount() + ", spooled=" + getSpooledCount() + ", replayed=" + getReplayedCount()
+                + ", expired=" + getExpiredCount() + ", rejected=" + getRejectedCount() + "]";
+    }
+
+    /**
+     * Returns the oldest segment with records left to read, deleting or resetting the segments that have been read.
+     */
+    private Segment nextReadableSegment() {
+        for (;;) {
+            final Segment segment = this.segments.peekFirst();
+            if (segment == null) {
+                return null;
+            }
+            if (segment.readPosition < segment.writePosition) {
+                return segment;
+            }
+            if (segment == this.writeSegment) {
+                // all read, start writing again from the beginning of the file
+                segment.reset();
+                return null;
+            }
+
+            this.segments.removeFirst();
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Discards the expired records at the head of the spool, stopping at the first record still to be replayed.
+     */
+    private void discardExpired(final long now) {
+        for (;;) {
+            final Segment segment = nextReadableSegment();
+            if (segment == null) {
+                return;
+            }
+
+            final int position = segment.readPosition;
+            if (segment.buffer.get(position + STATE_OFFSET) == PENDING) {
+                if (segment.deadline(position) >= now) {
+                    return;
+                }
+                segment.buffer.put(position + STATE_OFFSET, CONSUMED);
+                this.pendingCount--;
+                this.expired.increment();
+            }
+            segment.readPosition = position + segment.buffer.getInt(position);
+        }
+    }
+
+    private static boolean fits(final Segment segment, final int length) {
+        return segment != null && segment.capacity() - segment.writePosition >= length;
+    }
+
+    private void recover() throws IOException {
+        final List<Long> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    indexes.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (final NumberFormatException e) {
+                    logger.warn("ignoring unexpected file {} in the spool directory", file);
+                }
+            }
+        }
+        indexes.sort(null);
+
+        for (final long index : indexes) {
+            final Path file = segmentPath(index);
+            final Segment segment = new Segment(file, map(file, Files.size(file)));
+            final int pending = segment.recover();
+            this.sequence = Math.max(this.sequence, segment.lastSequence);
+            this.nextSegmentIndex = index + 1;
+
+            if (pending == 0) {
+                deleteSegment(segment);
+            } else {
+                this.segments.addLast(segment);
+                this.pendingCount += pending;
+            }
+        }
+
+        // keep appending to the last segment
+        this.writeSegment = this.segments.peekLast();
+        if (this.pendingCount > 0) {
+            logger.info("recovered {} spooled messages from {}", this.pendingCount, this.directory);
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        final Path file = segmentPath(this.nextSegmentIndex++);
+        final Segment segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segment = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize));
+        }
+        this.segments.addLast(segment);
+        this.writeSegment = segment;
+        return segment;
+    }
+
+    private void deleteSegment(final Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (final IOException e) {
+            logger.warn("cannot delete spool segment {}", segment.file, e);
+        }
+    }
+
+    private Path segmentPath(final long index) {
+        return this.directory.resolve(SEGMENT_PREFIX + String.format("%012d", index) + SEGMENT_SUFFIX);
+    }
+
+    private static MappedByteBuffer map(final Path file, final long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * A message read from the spool.
+     */
+    static final class SpooledMessage {
+
+        private final String topic;
+        private final byte[] payload;
+        private final int qos;
+        private final boolean retain;
+        private final int priority;
+        private final String messageId;
+        private final long sequence;
+
+        SpooledMessage(final String topic, final byte[] payload, final int qos, final boolean retain,
+                final int priority, final String messageId, final long sequence) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retain = retain;
+            this.priority = priority;
+            this.messageId = messageId;
+            this.sequence = sequence;
+        }
+
+        String getTopic() {
+            return this.topic;
+        }
+
+        byte[] getPayload() {
+            return this.payload;
+        }
+
+        int getQos() {
+            return this.qos;
+        }
+
+        boolean isRetain() {
+            return this.retain;
+        }
+
+        /**
+         * Returns the {@code DataService} priority of the message.
+         */
+        int getPriority() {
+            return this.priority;
+        }
+
+        /**
+         * Returns the id returned to the publisher, {@code null} for QoS 0 messages.
+         */
+        String getMessageId() {
+            return this.messageId;
+        }
+
+        long getSequence() {
+            return this.sequence;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private long lastSequence;
+
+        Segment(final Path file, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        int capacity() {
+            return this.buffer.capacity();
+        }
+
+        /**
+         * Scans the records written by a previous run.
+         *
+         * @return the number of records still to be replayed
+         */
+        int recover() {
+            int pending = 0;
+            int position = 0;
+            this.readPosition = -1;
+
+            while (position + HEADER_SIZE <= capacity()) {
+                final int length = this.buffer.getInt(position);
+                if (length < HEADER_SIZE || length > capacity() - position) {
+                    break;
+                }
+                if (this.buffer.get(position + STATE_OFFSET) == PENDING) {
+                    if (this.readPosition < 0) {
+                        this.readPosition = position;
+                    }
+                    pending++;
+                }
+                this.lastSequence = Math.max(this.lastSequence, this.buffer.getLong(position + SEQUENCE_OFFSET));
+                position += length;
+            }
+
+            this.writePosition = position;
+            if (this.readPosition < 0) {
+                this.readPosition = position;
+            }
+            return pending;
+        }
+
+        void reset() {
+            this.readPosition = 0;
+            this.writePosition = 0;
+            this.buffer.putInt(0, 0);
+        }
+
+        long deadline(final int position) {
+            return this.buffer.getLong(position + DEADLINE_OFFSET);
+        }
+
+        void write(final int length, final long deadlineMillis, final long sequence, final int qos,
+                final boolean retain, final int priority, final byte[] idBytes, final byte[] topicBytes,
+                final byte[] payload) {
+            final int position = this.writePosition;
+
+            this.buffer.position(position + STATE_OFFSET);
+            this.buffer.put(PENDING);
+            this.buffer.putLong(deadlineMillis);
+            this.buffer.putLong(sequence);
+            this.buffer.put((byte) qos);
+            this.buffer.put(retain ? (byte) 1 : (byte) 0);
+            this.buffer.putInt(priority);
+            this.buffer.putShort((short) idBytes.length);
+            this.buffer.putShort((short) topicBytes.length);
+            this.buffer.putInt(payload.length);
+            this.buffer.put(idBytes);
+            this.buffer.put(topicBytes);
+            this.buffer.put(payload);
+
+            // terminate the records, the space may hold a record partially written before a crash
+            if (position + length + 4 <= capacity()) {
+                this.buffer.putInt(position + length, 0);
+            }
+            // the length is written last, it marks the record as complete
+            this.buffer.putInt(position, length);
+            this.writePosition = position + length;
+        }
+
+        SpooledMessage read(final int position) {
+            this.buffer.position(position + SEQUENCE_OFFSET);
+            final long sequence = this.buffer.getLong();
+            final int qos = this.buffer.get();
+            final boolean retain = this.buffer.get() != 0;
+            final int priority = this.buffer.getInt();
+            final byte[] idBytes = new byte[this.buffer.getShort() & 0xffff];
+            final byte[] topicBytes = new byte[this.buffer.getShort() & 0xffff];
+            final byte[] payload = new byte[this.buffer.getInt()];
+            this.buffer.get(idBytes);
+            this.buffer.get(topicBytes);
+            this.buffer.get(payload);
+
+            return new SpooledMessage(new String(topicBytes, StandardCharsets.UTF_8), payload, qos, retain, priority,
+                    idBytes.length == 0 ? null : new String(idBytes, StandardCharsets.UTF_8), sequence);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import org.eclipse.kura.cloudconnection.listener.CloudDeliveryListener;
+
+/**
+ * A published message waiting for its delivery confirmation.
+ *
+ */
+final class PendingConfirmation {
+
+    private final CloudDeliveryListener owner;
+    private final String messageId;
+    private final PublishLatencyTracker.Series latencySeries;
+    private final long publishNanos;
+    private volatile long handOffNanos = Long.MIN_VALUE;
+
+    /**
+     * @param messageId
+     *            the id returned to the publisher, {@code null} if it is the id assigned by the DataService
+     */
+    PendingConfirmation(final CloudDeliveryListener owner, final String messageId,
+            final PublishLatencyTracker.Series latencySeries, final long publishNanos) {
+        this.owner = owner;
+        this.messageId = messageId;
+        this.latencySeries = latencySeries;
+        this.publishNanos = publishNanos;
+    }
+
+    /**
+     * Returns the listener of the publisher that sent the message, {@code null} if unknown.
+     */
+    CloudDeliveryListener getOwner() {
+        return this.owner;
+    }
+
+    /**
+     * Returns the id the publisher knows the message by, {@code null} if it is the id assigned by the DataService.
+     */
+    String getMessageId() {
+        return this.messageId;
+    }
+
+    void onHandOff(final long nanos) {
+        if (this.latencySeries != null) {
+            this.handOffNanos = nanos;
+            this.latencySeries.recordHandOff(nanos - this.publishNanos);
+        }
+    }
+
+    void onConfirmation(final long nanos) {
+        if (this.latencySeries != null) {
+            final long handOff = this.handOffNanos;
+            this.latencySeries.recordConfirmation(handOff != Long.MIN_VALUE ? nanos - handOff : -1,
+                    nanos - this.publishNanos);
+        }
+    }
+}
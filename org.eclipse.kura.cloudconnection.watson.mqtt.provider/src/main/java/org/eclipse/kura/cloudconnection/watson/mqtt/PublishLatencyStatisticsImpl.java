@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.LatencySnapshot;
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.PublishLatencyStatistics;
+
+/**
+ * The latencies of a series of a {@link PublishLatencyTracker}.
+ *
+ */
+final class PublishLatencyStatisticsImpl implements PublishLatencyStatistics {
+
+    private final String publisherId;
+    private final String topic;
+    private final LatencySnapshot handOffLatency;
+    private final LatencySnapshot confirmationLatency;
+    private final LatencySnapshot totalLatency;
+
+    PublishLatencyStatisticsImpl(final String publisherId, final String topic, final LatencySnapshot handOffLatency,
+            final LatencySnapshot confirmationLatency, final LatencySnapshot totalLatency) {
+        this.publisherId = publisherId;
+        this.topic = topic;
+        this.handOffLatency = handOffLatency;
+        this.confirmationLatency = confirmationLatency;
+        this.totalLatency = totalLatency;
+    }
+
+    @Override
+    public String getPublisherId() {
+        return this.publisherId;
+    }
+
+    @Override
+    public String getTopic() {
+        return this.topic;
+    }
+
+    @Override
+    public LatencySnapshot getHandOffLatency() {
+        return this.handOffLatency;
+    }
+
+    @Override
+    public LatencySnapshot getConfirmationLatency() {
+        return this.confirmationLatency;
+    }
+
+    @Override
+    public LatencySnapshot getTotalLatency() {
+        return this.totalLatency;
+    }
+
+    @Override
+    public PublishLatencyStatistics since(final PublishLatencyStatistics previous) {
+        return new PublishLatencyStatisticsImpl(this.publisherId, this.topic,
+                this.handOffLatency.since(previous.getHandOffLatency()),
+                this.confirmationLatency.since(previous.getConfirmationLatency()),
+                this.totalLatency.since(previous.getTotalLatency()));
+    }
+
+    @Override
+    public String toString() {
+        return "PublishLatencyStatistics [publisherId=" + this.publisherId + ", topic=" + this.topic + ", handOff="
+                + this.handOffLatency + ", confirmation=" + this.confirmationLatency + ", total=" + this.totalLatency
+                + "]";
+    }
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.PublishLatencyStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the latency histograms of the published messages, one {@link Series} per publisher and topic. The number of
+ * series is bounded: when the bound is reached, the series not used for {@value #IDLE_MINUTES} minutes are dropped to
+ * make room, and the messages of the publishers and topics still exceeding the bound are tracked together in a series
+ * whose publisher and topic are {@value #OTHER}.
+ *
+ */
+final class PublishLatencyTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(PublishLatencyTracker.class);
+
+    static final int MAX_SERIES = 256;
+    static final String OTHER = "other";
+
+    private static final int IDLE_MINUTES = 10;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(IDLE_MINUTES);
+    private static final long EVICTION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // the last use of a series is updated at most once per interval, to avoid a shared write on every publish
+    private static final long TOUCH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Map<String, Series>> series = new ConcurrentHashMap<>();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final Series other = new Series(OTHER, OTHER);
+    private final AtomicBoolean overflowLogged = new AtomicBoolean();
+    private final AtomicLong lastEvictionNanos = new AtomicLong(System.nanoTime() - EVICTION_INTERVAL_NANOS);
+
+    /**
+     * Returns the series of the provided publisher and topic, the shared {@value #OTHER} series if too many series
+     * exist.
+     */
+    Series getSeries(final String publisherId, final String topic) {
+        return getSeries(publisherId, topic, System.nanoTime());
+    }
+
+    Series getSeries(final String publisherId, final String topic, final long now) {
+        final Map<String, Series> topics = this.series.computeIfAbsent(publisherId, p -> new ConcurrentHashMap<>());
+        final Series existing = topics.get(topic);
+        if (existing != null) {
+            existing.touch(now);
+            return existing;
+        }
+
+        if (this.seriesCount.get() >= MAX_SERIES) {
+            evictIdleSeries(now);
+        }
+
+        final Series created = topics.computeIfAbsent(topic, t -> {
+            if (this.seriesCount.incrementAndGet() > MAX_SERIES) {
+                this.seriesCount.decrementAndGet();
+                return null;
+            }
+            return new Series(publisherId, t, now);
+        });
+        if (created != null) {
+            return created;
+        }
+
+        if (this.overflowLogged.compareAndSet(false, true)) {
+            logger.warn("more than {} publisher and topic pairs, tracking the latency of {} on {} as {}", MAX_SERIES,
+                    publisherId, topic, OTHER);
+        }
+        this.other.touch(now);
+        return this.other;
+    }
+
+    List<PublishLatencyStatistics> getStatistics() {
+        final List<PublishLatencyStatistics> statistics = new ArrayList<>();
+        for (final Map<String, Series> topics : this.series.values()) {
+            for (final Series s : topics.values()) {
+                statistics.add(s.getStatistics());
+            }
+        }
+        if (this.overflowLogged.get()) {
+            statistics.add(this.other.getStatistics());
+        }
+        return statistics;
+    }
+
+    int getSeriesCount() {
+        return this.seriesCount.get();
+    }
+
+    /**
+     * Drops the series not used for {@link #IDLE_NANOS}, at most once every {@link #EVICTION_INTERVAL_NANOS}.
+     */
+    private void evictIdleSeries(final long now) {
+        final long last = this.lastEvictionNanos.get();
+        if (now - last < EVICTION_INTERVAL_NANOS || !this.lastEvictionNanos.compareAndSet(last, now)) {
+            return;
+        }
+
+        int evicted = 0;
+        for (final Map<String, Series> topics : this.series.values()) {
+            for (final Series s : topics.values()) {
+                if (now - s.lastUsedNanos > IDLE_NANOS && topics.remove(s.topic, s)) {
+                    this.seriesCount.decrementAndGet();
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            logger.debug("dropped the latency series of {} idle publisher and topic pairs", evicted);
+        }
+    }
+
+    static final class Series {
+
+        private final String publisherId;
+        private final String topic;
+        private final LatencyHistogram handOff = new LatencyHistogram();
+        private final LatencyHistogram confirmation = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+        private volatile long lastUsedNanos;
+
+        Series(final String publisherId, final String topic) {
+            this(publisherId, topic, System.nanoTime());
+        }
+
+        Series(final String publisherId, final String topic, final long nanos) {
+            this.publisherId = publisherId;
+            this.topic = topic;
+            this.lastUsedNanos = nanos;
+        }
+
+        void touch(final long nanos) {
+            if (nanos - this.lastUsedNanos > TOUCH_INTERVAL_NANOS) {
+                this.lastUsedNanos = nanos;
+            }
+        }
+
+        void recordHandOff(final long nanos) {
+            this.handOff.recordNanos(nanos);
+        }
+
+        void recordConfirmation(final long handOffToConfirmationNanos, final long totalNanos) {
+            if (handOffToConfirmationNanos >= 0) {
+                this.confirmation.recordNanos(handOffToConfirmationNanos);
+            }
+            this.total.recordNanos(totalNanos);
+        }
+
+        PublishLatencyStatistics getStatistics() {
+            return new PublishLatencyStatisticsImpl(this.publisherId, this.topic, this.handOff.snapshot(),
+                    this.confirmation.snapshot(), this.total.snapshot());
+        }
+    }
+}
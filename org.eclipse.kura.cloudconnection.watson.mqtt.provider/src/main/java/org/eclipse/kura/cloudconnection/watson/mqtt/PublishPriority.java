@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+/**
+ * The priority classes a publisher can publish with. Each class maps to a {@code DataService} priority, which orders
+ * the messages in the store-and-forward queue, and to a weight, which is the share of the asynchronous publishing
+ * capacity the class gets when several classes have queued messages.
+ * <p>
+ * The weight only shares the hand-over to the {@code DataService}: its store-and-forward queue sends strictly by
+ * priority, so a congested connection with a sustained flow of higher priority messages still starves the lower
+ * classes.
+ *
+ */
+public enum PublishPriority {
+
+    HIGH("high", 5, 8),
+    NORMAL("normal", 7, 4),
+    LOW("low", 9, 1);
+
+    private final String value;
+    private final int dataServicePriority;
+    private final int weight;
+
+    private PublishPriority(final String value, final int dataServicePriority, final int weight) {
+        this.value = value;
+        this.dataServicePriority = dataServicePriority;
+        this.weight = weight;
+    }
+
+    /**
+     * Returns the string representation of the constant
+     *
+     * @return the string value
+     */
+    public String value() {
+        return this.value;
+    }
+
+    public int getDataServicePriority() {
+        return this.dataServicePriority;
+    }
+
+    public int getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * Returns the priority with the provided value, ignoring case, or {@link #NORMAL} if there is no such priority.
+     */
+    public static PublishPriority fromValue(final String value) {
+        for (final PublishPriority priority : values()) {
+            if (priority.value.equalsIgnoreCase(value)) {
+                return priority;
+            }
+        }
+        return NORMAL;
+    }
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.kura.KuraErrorCode;
+import org.eclipse.kura.KuraException;
+
+/**
+ * Limits the rate of the messages handed over to the {@code DataService}, in messages and in bytes per second, with
+ * two token buckets that are refilled continuously and hold up to a configured burst.
+ * <p>
+ * A message takes its tokens when it is admitted, even if the buckets do not hold enough of them yet: the following
+ * messages then wait for the buckets to refill, so that concurrent publishers are spaced out evenly instead of
+ * retrying together.
+ *
+ */
+public final class PublishRateLimiter {
+
+    private final double messagesPerNano;
+    private final double bytesPerNano;
+    private final double messageBurst;
+    private final double byteBurst;
+    private final RateLimitPolicy policy;
+    private final long maxWaitNanos;
+
+    private double messageTokens;
+    private double byteTokens;
+    private long lastRefillNanos;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+
+    /**
+     * @param messagesPerSecond
+     *            the maximum message rate, 0 for no limit
+     * @param bytesPerSecond
+     *            the maximum payload throughput, 0 for no limit
+     * @param burstMillis
+     *            the time the buckets take to fill up, i.e. the burst allowed after an idle period
+     * @param maxWaitMillis
+     *            the maximum time a message is delayed with the {@link RateLimitPolicy#QUEUE} policy
+     */
+    PublishRateLimiter(final int messagesPerSecond, final int bytesPerSecond, final int burstMillis,
+            final RateLimitPolicy policy, final long maxWaitMillis) {
+        this.messagesPerNano = messagesPerSecond / 1e9;
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        final double burstNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, burstMillis));
+        this.messageBurst = Math.max(1, this.messagesPerNano * burstNanos);
+        this.byteBurst = this.bytesPerNano * burstNanos;
+        this.policy = policy;
+        this.maxWaitNanos = policy == RateLimitPolicy.QUEUE ? TimeUnit.MILLISECONDS.toNanos(maxWaitMillis) : 0;
+
+        this.messageTokens = this.messageBurst;
+        this.byteTokens = this.byteBurst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits until a message of the provided size fits in the rate limit.
+     *
+     * @throws KuraException
+     *             with {@link KuraErrorCode#SERVICE_UNAVAILABLE} if the message is rejected by the policy
+     */
+    void acquire(final int bytes) throws KuraException {
+        final long waitNanos = reserve(bytes);
+        if (waitNanos < 0) {
+            this.rejected.increment();
+            throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "The publish rate limit is exceeded.");
+        }
+
+        this.admitted.increment();
+        if (waitNanos == 0) {
+            return;
+        }
+
+        this.throttled.increment();
+        this.throttledNanos.add(waitNanos);
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "Interrupted while waiting for the rate limit.");
+        }
+    }
+
+    public RateLimitPolicy getPolicy() {
+        return this.policy;
+    }
+
+    public long getAdmittedCount() {
+        return this.admitted.sum();
+    }
+
+    /**
+     * Returns the number of messages delayed to fit in the rate limit.
+     */
+    public long getThrottledCount() {
+        return this.throttled.sum();
+    }
+
+    /**
+     * Returns the number of messages rejected because they did not fit in the rate limit.
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Returns the average delay of the throttled messages.
+     */
+    public long getAverageThrottleNanos() {
+        final long count = getThrottledCount();
+        return count == 0 ? 0 : this.throttledNanos.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "PublishRateLimiter [messagesPerSecond=" + Math.round(this.messagesPerNano * 1e9)
+                + ", bytesPerSecond=" + Math.round(this.bytesPerNano * 1e9) + ", policy=" + this.policy.value()
+                + ", admitted=" + getAdmittedCount() + ", throttled=" + getThrottledCount() + ", rejected="
+                + getRejectedCount() + ", avgThrottleNanos=" + getAverageThrottleNanos() + "]";
+    }
+
+    /**
+     * Takes the tokens of a message.
+     *
+     * @return the time the message must wait for the tokens to be available, or {@code -1} if that is longer than the
+     *         maximum wait, in which case no token is taken
+     */
+    private synchronized long reserve(final int bytes) {
+        final long now = System.nanoTime();
+        final long elapsed = now - this.lastRefillNanos;
+        this.lastRefillNanos = now;
+        this.messageTokens = Math.min(this.messageBurst, this.messageTokens + elapsed * this.messagesPerNano);
+        this.byteTokens = Math.min(this.byteBurst, this.byteTokens + elapsed * this.bytesPerNano);
+
+        double waitNanos = 0;
+        if (this.messagesPerNano > 0 && this.messageTokens < 1) {
+            waitNanos = (1 - this.messageTokens) / this.messagesPerNano;
+        }
+        // a message larger than the burst waits only for the bucket to be full
+        final double neededBytes = Math.min(bytes, this.byteBurst);
+        if (this.bytesPerNano > 0 && this.byteTokens < neededBytes) {
+            waitNanos = Math.max(waitNanos, (neededBytes - this.byteTokens) / this.bytesPerNano);
+        }
+
+        if (waitNanos > this.maxWaitNanos) {
+            return -1;
+        }
+
+        if (this.messagesPerNano > 0) {
+            this.messageTokens -= 1;
+        }
+        if (this.bytesPerNano > 0) {
+            this.byteTokens -= bytes;
+        }
+        return (long) Math.ceil(waitNanos);
+    }
+}
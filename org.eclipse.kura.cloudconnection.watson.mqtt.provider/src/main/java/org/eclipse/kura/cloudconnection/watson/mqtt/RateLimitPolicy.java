@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+/**
+ * What a {@link PublishRateLimiter} does with a message published while the rate limit is exceeded.
+ *
+ */
+public enum RateLimitPolicy {
+
+    /**
+     * Delays the message until it fits in the rate limit, rejecting it if the delay would exceed the configured
+     * maximum wait.
+     */
+    QUEUE("queue"),
+
+    /**
+     * Rejects the message.
+     */
+    REJECT("reject");
+
+    private final String value;
+
+    private RateLimitPolicy(final String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the string representation of the constant
+     *
+     * @return the string value
+     */
+    public String value() {
+        return this.value;
+    }
+
+    /**
+     * Returns the policy with the provided value, ignoring case, or {@link #QUEUE} if there is no such policy.
+     */
+    public static RateLimitPolicy fromValue(final String value) {
+        for (final RateLimitPolicy policy : values()) {
+            if (policy.value.equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        return QUEUE;
+    }
+}
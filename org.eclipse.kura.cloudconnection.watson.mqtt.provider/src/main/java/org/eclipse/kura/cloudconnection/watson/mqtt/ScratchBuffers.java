@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+/**
+ * Per-thread {@link PayloadBuffer} instances reused by the payload encoders.
+ *
+ */
+final class ScratchBuffers {
+
+    private static final int INITIAL_BUFFER_CAPACITY = 1024;
+    private static final int MAX_RETAINED_BUFFER_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<PayloadBuffer> BUFFER = ThreadLocal
+            .withInitial(() -> new PayloadBuffer(INITIAL_BUFFER_CAPACITY));
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * Returns the empty buffer of the calling thread. It must be handed back with {@link #release(PayloadBuffer)}
+     * before the thread acquires it again.
+     */
+    static PayloadBuffer acquire() {
+        final PayloadBuffer buffer = BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    static void release(final PayloadBuffer buffer) {
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+            // do not pin the memory of an occasional large payload to the thread
+            BUFFER.remove();
+        }
+    }
+}
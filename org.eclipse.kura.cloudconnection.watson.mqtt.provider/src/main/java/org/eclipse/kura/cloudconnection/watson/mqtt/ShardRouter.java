@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.kura.KuraConnectException;
+import org.eclipse.kura.KuraDisconnectException;
+import org.eclipse.kura.data.DataService;
+import org.eclipse.kura.data.listener.DataServiceListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link DataService}s, each with its own transport and MQTT session, the messages of an endpoint are spread over.
+ * Shard 0 is the DataService of the endpoint, which notifies the endpoint directly; the router listens to the other
+ * shards and forwards their notifications to the endpoint with the index of the shard.
+ * <p>
+ * The router tracks the connection state of each shard: the endpoint is connected while at least one shard is
+ * connected, and is notified when the first shard connects and when the last one disconnects.
+ *
+ */
+final class ShardRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardRouter.class);
+
+    private final MqttCloudEndpoint endpoint;
+
+    // the DataService of each shard, null until bound
+    private volatile DataService[] shards;
+    private DataServiceListener[] listeners = new DataServiceListener[1];
+    private boolean[] connected = new boolean[1];
+    private int connectedCount;
+    private volatile boolean roundRobin;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final Object lock = new Object();
+
+    ShardRouter(final MqttCloudEndpoint endpoint, final DataService dataService) {
+        this.endpoint = endpoint;
+        this.shards = new DataService[] { dataService };
+    }
+
+    /**
+     * Returns the DataService of each shard, a {@code null} element for a shard that is not bound yet. The returned
+     * array is not modified, the shards are replaced as a whole.
+     */
+    DataService[] getDataServices() {
+        return this.shards;
+    }
+
+    int getShardCount() {
+        return this.shards.length;
+    }
+
+    int getConnectedShardCount() {
+        synchronized (this.lock) {
+            return this.connectedCount;
+        }
+    }
+
+    /**
+     * Sets the DataServices of the shards following the one of the endpoint, keeping the listeners and the connection
+     * state of the shards that do not change.
+     *
+     * @param dataServices
+     *            the DataService of shards 1 to n, a {@code null} element for a shard that is not available yet
+     * @throws IllegalArgumentException
+     *             if there are more than {@link WatsonCloudConnectionFactory#MAX_SHARDS} shards
+     */
+    void setShards(final DataService[] dataServices, final boolean roundRobin) {
+        if (dataServices.length >= WatsonCloudConnectionFactory.MAX_SHARDS) {
+            throw new IllegalArgumentException(
+                    "At most " + WatsonCloudConnectionFactory.MAX_SHARDS + " shards are supported");
+        }
+
+        synchronized (this.lock) {
+            final DataService[] current = this.shards;
+            final DataService[] next = new DataService[dataServices.length + 1];
+            final DataServiceListener[] nextListeners = new DataServiceListener[next.length];
+            final boolean[] nextConnected = new boolean[next.length];
+            next[0] = current[0];
+            System.arraycopy(dataServices, 0, next, 1, dataServices.length);
+
+            for (int i = 1; i < current.length; i++) {
+                if (current[i] != null && (i >= next.length || current[i] != next[i])) {
+                    current[i].removeDataServiceListener(this.listeners[i]);
+                }
+            }
+            nextConnected[0] = this.connected[0];
+            int nextConnectedCount = nextConnected[0] ? 1 : 0;
+            for (int i = 1; i < next.length; i++) {
+                if (next[i] == null) {
+                    continue;
+                }
+                if (i < current.length && current[i] == next[i]) {
+                    nextListeners[i] = this.listeners[i];
+                    nextConnected[i] = this.connected[i];
+                } else {
+                    nextListeners[i] = new ShardListener(i);
+                    next[i].addDataServiceListener(nextListeners[i]);
+                    nextConnected[i] = next[i].isConnected();
+                }
+                if (nextConnected[i]) {
+                    nextConnectedCount++;
+                }
+            }
+
+            this.listeners = nextListeners;
+            this.connected = nextConnected;
+            this.connectedCount = nextConnectedCount;
+            this.roundRobin = roundRobin;
+            this.shards = next;
+
+            if (next.length != current.length) {
+                logger.info("publishing over {} shards, {} connected", next.length, nextConnectedCount);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the connected shard a message is published on, the DataService of the endpoint if no shard
+     * is connected. Messages are assigned by hashing their publisher, or their topic, so that the messages of a
+     * publisher keep their order, or in round robin.
+     *
+     * @param dataServices
+     *            the shards returned by {@link #getDataServices()}
+     * @param properties
+     *            the publishing properties of the message, {@code null} to pick the shard in round robin
+     */
+    int select(final DataService[] dataServices, final Map<String, Object> properties) {
+        if (dataServices.length == 1) {
+            return 0;
+        }
+
+        final int start;
+        if (this.roundRobin || properties == null) {
+            start = this.sequence.getAndIncrement();
+        } else {
+            final Object publisherId = properties.get(MqttCloudEndpointConstants.PUBLISHER_ID.name());
+            final Object key = publisherId instanceof String && !((String) publisherId).isEmpty() ? publisherId
+                    : properties.get(MqttCloudEndpointConstants.TOPIC.name());
+            final int hash = key == null ? 0 : key.hashCode();
+            start = hash ^ hash >>> 16;
+        }
+
+        for (int i = 0; i < dataServices.length; i++) {
+            final int shard = Math.floorMod(start + i, dataServices.length);
+            if (dataServices[shard] != null && dataServices[shard].isConnected()) {
+                return shard;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Connects the DataService of the endpoint and then the other shards, a shard failing to connect does not fail
+     * the connection of the endpoint.
+     */
+    void connect() throws KuraConnectException {
+        final DataService[] current = this.shards;
+        current[0].connect();
+
+        for (int i = 1; i < current.length; i++) {
+            if (current[i] == null || current[i].isConnected()) {
+                continue;
+            }
+            try {
+                current[i].connect();
+            } catch (final KuraConnectException e) {
+                logger.warn("Cannot connect shard {}", i, e);
+            }
+        }
+    }
+
+    void disconnect() throws KuraDisconnectException {
+        final DataService[] current = this.shards;
+        for (int i = 1; i < current.length; i++) {
+            if (current[i] != null) {
+                current[i].disconnect(10);
+            }
+        }
+
+        current[0].disconnect(10);
+    }
+
+    boolean isConnected() {
+        for (final DataService shard : this.shards) {
+            if (shard != null && shard.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Updates the connection state of a shard, the endpoint is notified when the first shard is connected.
+     */
+    void onConnectionEstablished(final int shard) {
+        synchronized (this.lock) {
+            if (shard >= this.connected.length || this.connected[shard]) {
+                return;
+            }
+            this.connected[shard] = true;
+            if (++this.connectedCount > 1) {
+                logger.info("shard {} connected, {} shards connected", shard, this.connectedCount);
+                return;
+            }
+        }
+
+        this.endpoint.onCloudConnectionEstablished();
+    }
+
+    /**
+     * Updates the connection state of a shard, the endpoint is notified when the last shard is disconnected.
+     */
+    void onConnectionLost(final int shard, final boolean disconnected) {
+        synchronized (this.lock) {
+            if (shard >= this.connected.length) {
+                return;
+            }
+            // a DataService notifies onConnectionLost and then onDisconnected, or only one of them
+            final boolean wasConnected = this.connected[shard];
+            this.connected[shard] = false;
+            if (wasConnected) {
+                this.connectedCount--;
+            }
+            if (this.connectedCount > 0) {
+                if (wasConnected) {
+                    logger.info("shard {} disconnected, {} shards connected", shard, this.connectedCount);
+                }
+                return;
+            }
+        }
+
+        if (disconnected) {
+            this.endpoint.onCloudDisconnected();
+        } else {
+            this.endpoint.onCloudConnectionLost();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ShardRouter [shards=" + getShardCount() + ", connected=" + getConnectedShardCount() + ", roundRobin="
+                + this.roundRobin + "]";
+    }
+
+    /**
+     * Forwards the notifications of the DataService of a shard, with the index of the shard.
+     */
+    private final class ShardListener implements DataServiceListener {
+
+        private final int shard;
+
+        ShardListener(final int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void onConnectionEstablished() {
+            ShardRouter.this.onConnectionEstablished(this.shard);
+        }
+
+        @Override
+        public void onDisconnecting() {
+            // noop
+        }
+
+        @Override
+        public void onDisconnected() {
+            ShardRouter.this.onConnectionLost(this.shard, true);
+        }
+
+        @Override
+        public void onConnectionLost(final Throwable cause) {
+            ShardRouter.this.onConnectionLost(this.shard, false);
+        }
+
+        @Override
+        public void onMessageArrived(final String topic, final byte[] payload, final int qos, final boolean retained) {
+            ShardRouter.this.endpoint.onMessageArrived(topic, payload, qos, retained);
+        }
+
+        @Override
+        public void onMessagePublished(final int messageId, final String topic) {
+            ShardRouter.this.endpoint.onShardMessagePublished(this.shard, messageId);
+        }
+
+        @Override
+        public void onMessageConfirmed(final int messageId, final String topic) {
+            ShardRouter.this.endpoint.onShardMessageConfirmed(this.shard, messageId);
+        }
+    }
+}
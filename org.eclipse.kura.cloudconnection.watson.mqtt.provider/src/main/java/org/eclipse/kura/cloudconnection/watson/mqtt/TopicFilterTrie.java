@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Associates values to MQTT topic filters and finds the values whose filter matches a topic name, honouring the
+ * {@code +} single level and {@code #} multi level wildcards.
+ * <p>
+ * The filters are stored as a tree with one node per topic level, so matching a topic visits at most the nodes along
+ * the literal path and the wildcard branches, regardless of the number of registered filters. Lookups are lock free,
+ * modifications are serialized.
+ *
+ */
+final class TopicFilterTrie<V> {
+
+    private static final String SINGLE_LEVEL_WILDCARD = "+";
+    private static final String MULTI_LEVEL_WILDCARD = "#";
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * Associates the provided value to the topic filter, replacing the previous value if any.
+     */
+    synchronized void put(final String topicFilter, final V value) {
+        Node<V> node = this.root;
+        for (final String level : levels(topicFilter)) {
+            node = node.children.computeIfAbsent(level, l -> new Node<>());
+        }
+        node.value = value;
+    }
+
+    /**
+     * Removes the value associated to the topic filter and prunes the nodes left empty.
+     */
+    synchronized void remove(final String topicFilter) {
+        final List<String> levels = levels(topicFilter);
+        final List<Node<V>> path = new ArrayList<>(levels.size() + 1);
+
+        Node<V> node = this.root;
+        path.add(node);
+        for (final String level : levels) {
+            node = node.children.get(level);
+            if (node == null) {
+                return;
+            }
+            path.add(node);
+        }
+        node.value = null;
+
+        for (int i = levels.size(); i > 0; i--) {
+            final Node<V> current = path.get(i);
+            if (current.value != null || !current.children.isEmpty()) {
+                break;
+            }
+            path.get(i - 1).children.remove(levels.get(i - 1));
+        }
+    }
+
+    /**
+     * Passes to the consumer the value of every filter matching the provided topic name.
+     */
+    void match(final String topic, final Consumer<V> consumer) {
+        final List<String> levels = levels(topic);
+        // topics starting with '$' are not matched by filters starting with a wildcard
+        final boolean systemTopic = topic.startsWith("$");
+        match(this.root, levels, 0, systemTopic, consumer);
+    }
+
+    private static <V> void match(final Node<V> node, final List<String> levels, final int index,
+            final boolean systemTopic, final Consumer<V> consumer) {
+        final boolean wildcardsAllowed = index > 0 || !systemTopic;
+
+        if (wildcardsAllowed) {
+            // '#' also matches the parent level
+            final Node<V> multiLevel = node.children.get(MULTI_LEVEL_WILDCARD);
+            if (multiLevel != null) {
+                accept(multiLevel, consumer);
+            }
+        }
+
+        if (index == levels.size()) {
+            accept(node, consumer);
+            return;
+        }
+
+        final Node<V> literal = node.children.get(levels.get(index));
+        if (literal != null) {
+            match(literal, levels, index + 1, systemTopic, consumer);
+        }
+
+        if (wildcardsAllowed) {
+            final Node<V> singleLevel = node.children.get(SINGLE_LEVEL_WILDCARD);
+            if (singleLevel != null) {
+                match(singleLevel, levels, index + 1, systemTopic, consumer);
+            }
+        }
+    }
+
+    private static <V> void accept(final Node<V> node, final Consumer<V> consumer) {
+        final V value = node.value;
+        if (value != null) {
+            consumer.accept(value);
+        }
+    }
+
+    private static List<String> levels(final String topic) {
+        final List<String> levels = new ArrayList<>(8);
+        int start = 0;
+        int end;
+        while ((end = topic.indexOf('/', start)) >= 0) {
+            levels.add(topic.substring(start, end));
+            start = end + 1;
+        }
+        levels.add(topic.substring(start));
+        return levels;
+    }
+
+    private static final class Node<V> {
+
+        private final Map<String, Node<V>> children = new ConcurrentHashMap<>(4);
+        private volatile V value;
+    }
+}
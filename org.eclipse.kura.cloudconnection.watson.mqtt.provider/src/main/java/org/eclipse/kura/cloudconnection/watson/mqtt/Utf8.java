@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt;
+
+/**
+ * UTF-8 helpers for the binary payload encoders, which need the encoded length of a string before its bytes.
+ * Malformed surrogates are replaced with {@code '?'}, as {@link String#getBytes(java.nio.charset.Charset)} does.
+ *
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    static int encodedLength(final String value) {
+        final int length = value.length();
+        int encodedLength = length;
+
+        for (int i = 0; i < length; i++) {
+            final char ch = value.charAt(i);
+            if (ch < 0x80) {
+                continue;
+            } else if (ch < 0x800) {
+                encodedLength += 1;
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // two chars, four bytes
+                    encodedLength += 2;
+                    i++;
+                }
+            } else {
+                encodedLength += 2;
+            }
+        }
+        return encodedLength;
+    }
+
+    static void write(final PayloadBuffer buffer, final String value, final int encodedLength) {
+        final int length = value.length();
+        int pos = buffer.ensureCapacity(encodedLength);
+        final byte[] bytes = buffer.array();
+
+        for (int i = 0; i < length; i++) {
+            final char ch = value.charAt(i);
+            if (ch < 0x80) {
+                bytes[pos++] = (byte) ch;
+            } else if (ch < 0x800) {
+                bytes[pos++] = (byte) (0xc0 | ch >> 6);
+                bytes[pos++] = (byte) (0x80 | ch & 0x3f);
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+                    bytes[pos++] = (byte) (0xf0 | codePoint >> 18);
+                    bytes[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                    bytes[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                    bytes[pos++] = (byte) (0x80 | codePoint & 0x3f);
+                } else {
+                    bytes[pos++] = '?';
+                }
+            } else {
+                bytes[pos++] = (byte) (0xe0 | ch >> 12);
+                bytes[pos++] = (byte) (0x80 | ch >> 6 & 0x3f);
+                bytes[pos++] = (byte) (0x80 | ch & 0x3f);
+            }
+        }
+
+        buffer.advance(encodedLength);
+    }
+}
@@ -8,11 +8,13 @@ import static org.eclipse.kura.cloudconnection.watson.mqtt.Constants.DEFAULT_STA
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.eclipse.kura.KuraErrorCode;
@@ -20,6 +22,7 @@ import org.eclipse.kura.KuraException;
 import org.eclipse.kura.cloudconnection.CloudConnectionConstants;
 import org.eclipse.kura.cloudconnection.CloudEndpoint;
 import org.eclipse.kura.cloudconnection.factory.CloudConnectionFactory;
+import org.eclipse.kura.configuration.ComponentConfiguration;
 import org.eclipse.kura.configuration.ConfigurationService;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.component.ComponentConstants;
@@ -32,6 +35,16 @@ public class WatsonCloudConnectionFactory implements CloudConnectionFactory {
 
     private static final String DATA_SERVICE_REFERENCE_NAME = "DataService";
     private static final String DATA_TRANSPORT_SERVICE_REFERENCE_NAME = "DataTransportService";
+    private static final String SHARD_DATA_SERVICE_REFERENCE_NAME = "ShardDataService";
+
+    private static final String SHARD_PID_SEPARATOR = ".shard";
+    private static final String CLIENT_ID_PROPERTY = "client-id";
+
+    // the last segment of a device, gateway or application identity
+    private static final Pattern WATSON_CLIENT_ID_PATTERN = Pattern
+            .compile("(?:[dg]:[^:]+:[^:]+|[aA]:[^:]+):([A-Za-z0-9_.-]+)");
+
+    static final int MAX_SHARDS = 16;
 
     private static final String REFERENCE_TARGET_VALUE_FORMAT = "(" + ConfigurationService.KURA_SERVICE_PID + "=%s)";
 
@@ -65,6 +78,8 @@ public class WatsonCloudConnectionFactory implements CloudConnectionFactory {
 
         cloudEndpointProperties.put(DATA_SERVICE_REFERENCE_NAME + ComponentConstants.REFERENCE_TARGET_SUFFIX,
                 String.format(REFERENCE_TARGET_VALUE_FORMAT, dataServicePid));
+        cloudEndpointProperties.put(SHARD_DATA_SERVICE_REFERENCE_NAME + ComponentConstants.REFERENCE_TARGET_SUFFIX,
+                getShardDataServiceTarget(dataServicePid));
         cloudEndpointProperties.put(CloudConnectionConstants.CLOUD_CONNECTION_FACTORY_PID_PROP_NAME.value(),
                 Constants.WATSON_CLOUD_CONNECTION_SERVICE_FACTORY_PID);
 
@@ -84,6 +99,9 @@ public class WatsonCloudConnectionFactory implements CloudConnectionFactory {
 
     @Override
     public void deleteConfiguration(String cloudConnectionServicePid) throws KuraException {
+        updateShardConfigurations(this.configurationService, cloudConnectionServicePid, 1,
+                Collections.emptyList());
+
         final Iterator<String> stackComponentPids = getStackComponentsPids(cloudConnectionServicePid).iterator();
 
         this.configurationService.deleteFactoryConfiguration(stackComponentPids.next(), false);
@@ -112,6 +130,165 @@ public class WatsonCloudConnectionFactory implements CloudConnectionFactory {
 
     @Override
     public List<String> getStackComponentsPids(final String pid) throws KuraException {
+        return getStackPids(pid);
+    }
+
+    /**
+     * Returns the pid of the DataService of a cloud connection.
+     */
+    static String getDataServicePid(final String pid) throws KuraException {
+        return getStackPids(pid).get(1);
+    }
+
+    /**
+     * Returns the pid of a stack component of a shard of a cloud connection, such as the DataService of the shard.
+     */
+    static String getShardPid(final String stackComponentPid, final int shard) {
+        return stackComponentPid + SHARD_PID_SEPARATOR + shard;
+    }
+
+    /**
+     * Sets the target of the shard DataService reference of a cloud endpoint whose configuration was created without
+     * it, so that the endpoint only binds the DataServices of its own shards.
+     *
+     * @param properties
+     *            the current configuration properties of the cloud endpoint
+     */
+    static void updateShardReferenceTarget(final ConfigurationService configurationService, final String pid,
+            final Map<String, Object> properties) throws KuraException {
+        final String targetProperty = SHARD_DATA_SERVICE_REFERENCE_NAME + ComponentConstants.REFERENCE_TARGET_SUFFIX;
+        final String target = getShardDataServiceTarget(getDataServicePid(pid));
+        if (target.equals(properties.get(targetProperty))) {
+            return;
+        }
+
+        final Map<String, Object> cloudEndpointProperties = new HashMap<>();
+        properties.forEach((key, value) -> {
+            if (!key.startsWith("service.") && !key.startsWith("component.")
+                    && !ConfigurationService.KURA_SERVICE_PID.equals(key)) {
+                cloudEndpointProperties.put(key, value);
+            }
+        });
+        cloudEndpointProperties.put(targetProperty, target);
+        configurationService.updateConfiguration(pid, cloudEndpointProperties, false);
+    }
+
+    /**
+     * Creates the DataService and MqttDataTransport configurations of the shards 1 to {@code shardCount - 1} of a cloud
+     * connection that do not exist yet, updates the transport configurations of those that exist, and deletes those of
+     * the following shards. The transport of a shard is configured as the transport of the cloud connection, except for
+     * the client id, since each shard connects with its own MQTT session.
+     *
+     * @param shardClientIds
+     *            the client ids of the shards 1 to n, a shard without an entry derives its client id from the one of the
+     *            cloud connection
+     */
+    static void updateShardConfigurations(final ConfigurationService configurationService, final String pid,
+            final int shardCount, final List<String> shardClientIds) throws KuraException {
+        final List<String> stackPids = getStackPids(pid);
+        final Set<String> existingPids = configurationService.getConfigurableComponentPids();
+
+        Map<String, Object> connectionTransportProperties = null;
+        final Set<String> clientIds = new HashSet<>();
+        for (int shard = 1; shard < MAX_SHARDS; shard++) {
+            final String dataServicePid = getShardPid(stackPids.get(1), shard);
+            final String dataTransportServicePid = getShardPid(stackPids.get(2), shard);
+
+            if (shard < shardCount) {
+                if (connectionTransportProperties == null) {
+                    connectionTransportProperties = getTransportProperties(configurationService, stackPids.get(2));
+                    clientIds.add(getClientId(connectionTransportProperties));
+                }
+
+                final Map<String, Object> dataTransportServiceProperties = new HashMap<>(
+                        connectionTransportProperties);
+                final String clientId = getShardClientId(getClientId(connectionTransportProperties), shard,
+                        shardClientIds);
+                if (!clientIds.add(clientId)) {
+                    throw new KuraException(KuraErrorCode.CONFIGURATION_ERROR,
+                            "The client id " + clientId + " of shard " + shard + " is already in use");
+                }
+                dataTransportServiceProperties.put(CLIENT_ID_PROPERTY, clientId);
+
+                if (!existingPids.contains(dataServicePid)) {
+                    createShardConfiguration(configurationService, dataServicePid, dataTransportServicePid,
+                            dataTransportServiceProperties);
+                } else if (!dataTransportServiceProperties
+                        .equals(getTransportProperties(configurationService, dataTransportServicePid))) {
+                    configurationService.updateConfiguration(dataTransportServicePid, dataTransportServiceProperties,
+                            true);
+                }
+            } else if (existingPids.contains(dataServicePid)) {
+                configurationService.deleteFactoryConfiguration(dataServicePid, false);
+                configurationService.deleteFactoryConfiguration(dataTransportServicePid, true);
+            }
+        }
+    }
+
+    /**
+     * Returns the client id of a shard, the listed one if any, otherwise the client id of the cloud connection with
+     * the shard number appended. In a Watson IoT identity such as {@code d:org:type:id}, this only changes the device
+     * id, which must still be registered.
+     */
+    static String getShardClientId(final String connectionClientId, final int shard, final List<String> shardClientIds)
+            throws KuraException {
+        if (shard <= shardClientIds.size()) {
+            return shardClientIds.get(shard - 1);
+        }
+        if (connectionClientId.isEmpty()) {
+            throw new KuraException(KuraErrorCode.CONFIGURATION_ERROR, "The client id of shard " + shard
+                    + " cannot be derived from an empty client id, list it in the shard client ids");
+        }
+
+        final String clientId = connectionClientId + "-" + shard;
+        final Matcher matcher = WATSON_CLIENT_ID_PATTERN.matcher(clientId);
+        if (connectionClientId.indexOf(':') >= 0 && (!matcher.matches() || matcher.group(1).length() > 36)) {
+            throw new KuraException(KuraErrorCode.CONFIGURATION_ERROR, "The client id " + clientId + " of shard "
+                    + shard + " is not a valid Watson IoT identity, list it in the shard client ids");
+        }
+        return clientId;
+    }
+
+    private static Map<String, Object> getTransportProperties(final ConfigurationService configurationService,
+            final String dataTransportServicePid) throws KuraException {
+        final Map<String, Object> properties = new HashMap<>();
+        final ComponentConfiguration transport = configurationService
+                .getComponentConfiguration(dataTransportServicePid);
+        if (transport != null && transport.getConfigurationProperties() != null) {
+            transport.getConfigurationProperties().forEach((key, value) -> {
+                if (!key.startsWith("service.") && !key.startsWith("component.")
+                        && !ConfigurationService.KURA_SERVICE_PID.equals(key)) {
+                    properties.put(key, value);
+                }
+            });
+        }
+        return properties;
+    }
+
+    private static String getClientId(final Map<String, Object> transportProperties) {
+        final Object clientId = transportProperties.get(CLIENT_ID_PROPERTY);
+        return clientId instanceof String ? ((String) clientId).trim() : "";
+    }
+
+    private static String getShardDataServiceTarget(final String dataServicePid) {
+        return String.format(REFERENCE_TARGET_VALUE_FORMAT, dataServicePid + SHARD_PID_SEPARATOR + "*");
+    }
+
+    private static void createShardConfiguration(final ConfigurationService configurationService,
+            final String dataServicePid, final String dataTransportServicePid,
+            final Map<String, Object> dataTransportServiceProperties) throws KuraException {
+        configurationService.createFactoryConfiguration(DATA_TRANSPORT_SERVICE_FACTORY_PID, dataTransportServicePid,
+                dataTransportServiceProperties, false);
+
+        final Map<String, Object> dataServiceProperties = Collections.singletonMap(
+                DATA_TRANSPORT_SERVICE_REFERENCE_NAME + ComponentConstants.REFERENCE_TARGET_SUFFIX,
+                String.format(REFERENCE_TARGET_VALUE_FORMAT, dataTransportServicePid));
+
+        configurationService.createFactoryConfiguration(DATA_SERVICE_FACTORY_PID, dataServicePid,
+                dataServiceProperties, true);
+    }
+
+    private static List<String> getStackPids(final String pid) throws KuraException {
         final String suffix = getSuffix(pid);
 
         if (suffix == null) {
@@ -121,7 +298,7 @@ public class WatsonCloudConnectionFactory implements CloudConnectionFactory {
         return DEFAULT_STACK_COMPONENT_PIDS.stream().map(comp -> comp + suffix).collect(Collectors.toList());
     }
 
-    private String getSuffix(final String cloudConnectionServicePid) throws KuraException {
+    private static String getSuffix(final String cloudConnectionServicePid) throws KuraException {
 
         final Matcher matcher = Constants.MANAGED_CLOUD_ENDPOINT_SERVICE_PID_PATTERN.matcher(cloudConnectionServicePid);
 
@@ -4,16 +4,35 @@
 
 package org.eclipse.kura.cloudconnection.watson.mqtt;
 
+import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.eclipse.kura.KuraException;
 import org.eclipse.kura.cloud.CloudConnectionEstablishedEvent;
 import org.eclipse.kura.cloud.CloudConnectionLostEvent;
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.LatencySnapshot;
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.PublishLatencyService;
+import org.eclipse.kura.cloudconnection.watson.mqtt.latency.PublishLatencyStatistics;
 import org.eclipse.kura.configuration.ConfigurableComponent;
 import org.eclipse.kura.configuration.ConfigurationService;
 import org.eclipse.kura.data.DataService;
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
 import org.eclipse.kura.net.modem.ModemReadyEvent;
+import org.eclipse.kura.position.NmeaPosition;
 import org.eclipse.kura.position.PositionLockedEvent;
+import org.eclipse.kura.position.PositionService;
+import org.eclipse.kura.system.SystemService;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
@@ -21,17 +40,38 @@ import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class WatsonCloudEndpoint extends MqttCloudEndpoint implements ConfigurableComponent, EventHandler {
+public class WatsonCloudEndpoint extends MqttCloudEndpoint
+        implements ConfigurableComponent, EventHandler, PublishLatencyService {
 
     private static final Logger logger = LoggerFactory.getLogger(WatsonCloudEndpoint.class);
 
     private static final String CONNECTION_EVENT_PID_PROPERTY_KEY = "cloud.service.pid";
 
+    private static final Map<String, Object> DEVICE_INFO_PROPERTIES = birthProperties(
+            "iot-2/evt/kura-birth/fmt/json");
+    private static final Map<String, Object> POSITION_PROPERTIES = birthProperties(
+            "iot-2/evt/kura-position/fmt/json");
+
     private EventAdmin eventAdmin;
+    private volatile ConfigurationService configurationService;
+    private String dataServicePid;
+    // the bound DataServices, by pid, among which the shards of this endpoint
+    private final Map<String, DataService> dataServicesByPid = new HashMap<>();
+    private SystemService systemService;
+    private volatile PositionService positionService;
 
     private ComponentContext ctx;
     private WatsonCloudEndpointOptions options;
     
+    private ScheduledExecutorService latencyTelemetryExecutor;
+    private volatile Map<String, PublishLatencyStatistics> lastLatencyStatistics = Collections.emptyMap();
+
+    private ScheduledExecutorService republishExecutor;
+    private final AtomicBoolean deviceInfoScheduled = new AtomicBoolean();
+    private final AtomicBoolean positionScheduled = new AtomicBoolean();
+    // device info encoded once, until the configuration or the modem identifiers change
+    private byte[] encodedDeviceInfo;
+
     private String imei;
     private String iccid;
     private String imsi;
@@ -48,6 +88,33 @@ public class WatsonCloudEndpoint extends MqttCloudEndpoint implements Configurab
         super.unbindDataServiceInternal();
     }
 
+    public void bindShardDataService(DataService dataService, Map<String, Object> properties) {
+        final Object pid = properties.get(ConfigurationService.KURA_SERVICE_PID);
+        if (pid instanceof String) {
+            synchronized (this.dataServicesByPid) {
+                this.dataServicesByPid.put((String) pid, dataService);
+                updateShards();
+            }
+        }
+    }
+
+    public void unbindShardDataService(DataService dataService, Map<String, Object> properties) {
+        synchronized (this.dataServicesByPid) {
+            this.dataServicesByPid.values().removeIf(bound -> bound == dataService);
+            updateShards();
+        }
+    }
+
+    public void bindConfigurationService(ConfigurationService configurationService) {
+        this.configurationService = configurationService;
+    }
+
+    public void unbindConfigurationService(ConfigurationService configurationService) {
+        if (this.configurationService == configurationService) {
+            this.configurationService = null;
+        }
+    }
+
     public void bindEventAdmin(EventAdmin eventAdmin) {
         this.eventAdmin = eventAdmin;
     }
@@ -56,6 +123,24 @@ public class WatsonCloudEndpoint extends MqttCloudEndpoint implements Configurab
         this.eventAdmin = null;
     }
 
+    public void bindSystemService(SystemService systemService) {
+        this.systemService = systemService;
+    }
+
+    public void unbindSystemService(SystemService systemService) {
+        this.systemService = null;
+    }
+
+    public void bindPositionService(PositionService positionService) {
+        this.positionService = positionService;
+    }
+
+    public void unbindPositionService(PositionService positionService) {
+        if (this.positionService == positionService) {
+            this.positionService = null;
+        }
+    }
+
     /*
      * OSGi Activation Methods
      * 
@@ -67,8 +152,22 @@ public class WatsonCloudEndpoint extends MqttCloudEndpoint implements Configurab
         // save the bundle context and the properties
         this.ctx = componentContext;
         this.options = new WatsonCloudEndpointOptions(properties);
+        setMetricNameCacheSize(this.options.getMetricNameCacheSize());
+        setLatencyTracking(this.options.isLatencyTrackingEnabled());
+        this.republishExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "WatsonBirthPublisher");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         super.activateInternal();
+        updateRateLimiting();
+        updateAsyncPublishing();
+        updateSpooling();
+        updateChunkedTransfers();
+        updateBufferPooling();
+        updateLatencyTelemetry();
+        updateSharding(properties);
         
         if (super.getDataService().isConnected()) {
             onConnectionEstablished();
@@ -80,12 +179,42 @@ public class WatsonCloudEndpoint extends MqttCloudEndpoint implements Configurab
 
         // Update properties and re-publish Birth certificate
         this.options = new WatsonCloudEndpointOptions(properties);
+        setMetricNameCacheSize(this.options.getMetricNameCacheSize());
+        setLatencyTracking(this.options.isLatencyTrackingEnabled());
+        updateRateLimiting();
+        updateAsyncPublishing();
+        updateSpooling();
+        updateChunkedTransfers();
+        updateBufferPooling();
+        updateLatencyTelemetry();
+        updateSharding(properties);
+
+        invalidateDeviceInfo();
+        if (isConnected() && this.options.shouldPublishDeviceInfo()) {
+            scheduleRepublish(this.deviceInfoScheduled, this::publishDeviceInfo);
+        }
     }
 
     protected void deactivate(ComponentContext componentContext) {
         logger.info("deactivate {}...", componentContext.getProperties().get(ConfigurationService.KURA_SERVICE_PID));
 
+        final AsyncPublishQueue asyncPublishQueue = getAsyncPublishQueue();
+        final PublishRateLimiter rateLimiter = getRateLimiter();
+
+        stopLatencyTelemetry();
+        this.republishExecutor.shutdownNow();
         super.deactivateInternal();
+
+        if (getMetricNameCache() != null) {
+            logger.info("{}", getMetricNameCache());
+        }
+        if (asyncPublishQueue != null) {
+            logger.info("{}", asyncPublishQueue);
+        }
+        if (rateLimiter != null) {
+            logger.info("{}", rateLimiter);
+        }
+        getPublishLatencyStatistics().forEach(statistics -> logger.info("{}", statistics));
     }
 
     /*
@@ -93,21 +222,34 @@ public class WatsonCloudEndpoint extends MqttCloudEndpoint implements Configurab
      * 
      */
     @Override
-    public void onConnectionEstablished() {
-        postConnectionStateChangeEvent(true);
-        super.onConnectionEstablished();
+    protected void onCloudConnectionEstablished() {
+        super.onCloudConnectionEstablished();
+
+        if (this.options.shouldPublishDeviceInfo()) {
+            scheduleRepublish(this.deviceInfoScheduled, this::publishDeviceInfo);
+        }
+        final PositionService currentPositionService = this.positionService;
+        if (currentPositionService != null && currentPositionService.isLocked()) {
+            scheduleRepublish(this.positionScheduled, this::publishPosition);
+        }
     }
     
     @Override
-    public void onConnectionLost(Throwable cause) {
-        super.onConnectionLost(cause);
-        postConnectionStateChangeEvent(false);
+    protected void notifyConnectionEstablished() {
+        runTimed("CloudConnectionEstablishedEvent", this.eventAdmin, () -> postConnectionStateChangeEvent(true));
+        super.notifyConnectionEstablished();
+    }
+
+    @Override
+    protected void notifyConnectionLost() {
+        super.notifyConnectionLost();
+        runTimed("CloudConnectionLostEvent", this.eventAdmin, () -> postConnectionStateChangeEvent(false));
     }
 
     @Override
-    public void onDisconnected() {
-        super.onDisconnected();
-        postConnectionStateChangeEvent(false);
+    protected void notifyDisconnected() {
+        super.notifyDisconnected();
+        runTimed("CloudConnectionLostEvent", this.eventAdmin, () -> postConnectionStateChangeEvent(false));
     }
 
     /*
@@ -121,30 +263,25 @@ public class WatsonCloudEndpoint extends MqttCloudEndpoint implements Configurab
             // republish the birth certificate only if we are configured to
             logger.info("Handling PositionLockedEvent");
             if (isConnected() && this.options.shouldRepublishPositionOnGpsLock()) {
-                try {
-                    publishPosition();
-                } catch (Exception e) {
-                    logger.warn("Cannot publish position", e);
-                }
+                scheduleRepublish(this.positionScheduled, this::publishPosition);
             }
         } else if (ModemReadyEvent.MODEM_EVENT_READY_TOPIC.contains(event.getTopic())) {
             logger.info("Handling ModemReadyEvent");
             ModemReadyEvent modemReadyEvent = (ModemReadyEvent) event;
             // keep these identifiers around until we can publish the certificate
-            this.imei = (String) modemReadyEvent.getProperty(ModemReadyEvent.IMEI);
-            this.imsi = (String) modemReadyEvent.getProperty(ModemReadyEvent.IMSI);
-            this.iccid = (String) modemReadyEvent.getProperty(ModemReadyEvent.ICCID);
+            if (!updateModemIdentifiers((String) modemReadyEvent.getProperty(ModemReadyEvent.IMEI),
+                    (String) modemReadyEvent.getProperty(ModemReadyEvent.IMSI),
+                    (String) modemReadyEvent.getProperty(ModemReadyEvent.ICCID))) {
+                logger.debug("handleEvent() :: modem identifiers unchanged");
+                return;
+            }
 
             if (isConnected() && this.options.shouldRepublishModemInfoOnModemDetect()) {
-                if (!((this.imei == null || this.imei.length() == 0 || this.imei.equals("ERROR"))
-                        && (this.imsi == null || this.imsi.length() == 0 || this.imsi.equals("ERROR"))
-                        && (this.iccid == null || this.iccid.length() == 0 || this.iccid.equals("ERROR")))) {
-                    logger.debug("handleEvent() :: publishing position ...");
-                    try {
-                        publishModemInfo();
-                    } catch (Exception e) {
-                        logger.warn("Cannot publish modem info", e);
-                    }
+                if (!(isInvalidModemIdentifier(this.imei) && isInvalidModemIdentifier(this.imsi)
+                        && isInvalidModemIdentifier(this.iccid))) {
+                    logger.debug("handleEvent() :: publishing modem info ...");
+                    // the modem identifiers are part of the device info
+                    scheduleRepublish(this.deviceInfoScheduled, this::publishDeviceInfo);
                 }
             }
         }
@@ -154,16 +291,314 @@ public class WatsonCloudEndpoint extends MqttCloudEndpoint implements Configurab
      * Private Methods
      * 
      */
+    private void updateSharding(final Map<String, Object> properties) {
+        final String pid = (String) properties.get(ConfigurationService.KURA_SERVICE_PID);
+        if (pid == null || !Constants.MANAGED_CLOUD_ENDPOINT_SERVICE_PID_PATTERN.matcher(pid).matches()) {
+            if (this.options.getConnectionShards() > 1) {
+                logger.warn("{} is not managed by the cloud connection factory, connection shards not supported", pid);
+            }
+            return;
+        }
+
+        synchronized (this.dataServicesByPid) {
+            try {
+                this.dataServicePid = WatsonCloudConnectionFactory.getDataServicePid(pid);
+            } catch (final KuraException e) {
+                logger.warn("Cannot get the DataService of {}", pid, e);
+                return;
+            }
+            updateShards();
+        }
+
+        final ConfigurationService currentConfigurationService = this.configurationService;
+        if (currentConfigurationService == null) {
+            return;
+        }
+        try {
+            WatsonCloudConnectionFactory.updateShardReferenceTarget(currentConfigurationService, pid, properties);
+            WatsonCloudConnectionFactory.updateShardConfigurations(currentConfigurationService, pid,
+                    this.options.getConnectionShards(), this.options.getShardClientIds());
+        } catch (final KuraException e) {
+            logger.warn("Cannot update the configuration of the connection shards", e);
+        }
+    }
+
+    /**
+     * Hands the bound DataServices of the configured shards over to the endpoint, must be called holding the lock on
+     * {@code dataServicesByPid}.
+     */
+    private void updateShards() {
+        final WatsonCloudEndpointOptions currentOptions = this.options;
+        if (currentOptions == null || this.dataServicePid == null) {
+            // not activated yet
+            return;
+        }
+
+        final DataService[] shards = new DataService[currentOptions.getConnectionShards() - 1];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = this.dataServicesByPid.get(WatsonCloudConnectionFactory.getShardPid(this.dataServicePid, i + 1));
+        }
+        setShards(shards, currentOptions.isShardRoundRobin());
+    }
+
     private void publishDeviceInfo() {
-        // TODO: Implement birth information for Watson
+        if (!isConnected()) {
+            return;
+        }
+
+        try {
+            publishEncoded(DEVICE_INFO_PROPERTIES, getEncodedDeviceInfo());
+        } catch (Exception e) {
+            logger.warn("Cannot publish device info", e);
+        }
     }
-    
+
     private void publishPosition() {
-        // TODO: Implement
+        final PositionService currentPositionService = this.positionService;
+        if (!isConnected() || currentPositionService == null) {
+            return;
+        }
+
+        final NmeaPosition nmeaPosition = currentPositionService.getNmeaPosition();
+        if (nmeaPosition == null) {
+            return;
+        }
+
+        final KuraPosition position = new KuraPosition();
+        position.setLatitude(nmeaPosition.getLatitude());
+        position.setLongitude(nmeaPosition.getLongitude());
+        position.setAltitude(nmeaPosition.getAltitude());
+        position.setHeading(nmeaPosition.getTrack());
+        position.setSpeed(nmeaPosition.getSpeed());
+        position.setPrecision(nmeaPosition.getDOP());
+        position.setSatellites(nmeaPosition.getNrSatellites());
+        position.setStatus(nmeaPosition.getFixQuality());
+        position.setTimestamp(new Date());
+
+        final KuraPayload payload = new KuraPayload();
+        payload.setTimestamp(new Date());
+        payload.setPosition(position);
+
+        try {
+            publishEncoded(POSITION_PROPERTIES, encodePayload(payload));
+        } catch (Exception e) {
+            logger.warn("Cannot publish position", e);
+        }
     }
-    
-    private void publishModemInfo() {
-     // TODO: Implement
+
+    /**
+     * Runs a publication after the debounce delay, unless the same publication is already scheduled: a burst of
+     * events results in a single publication, carrying the state at the end of the burst.
+     */
+    private void scheduleRepublish(final AtomicBoolean scheduled, final Runnable publication) {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.republishExecutor.schedule(() -> {
+                scheduled.set(false);
+                publication.run();
+            }, this.options.getRepublishDebounceMs(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            logger.debug("endpoint deactivated, not publishing");
+        }
+    }
+
+    private synchronized byte[] getEncodedDeviceInfo() {
+        if (this.encodedDeviceInfo == null) {
+            this.encodedDeviceInfo = encodePayload(buildDeviceInfo());
+        }
+        return this.encodedDeviceInfo;
+    }
+
+    private synchronized void invalidateDeviceInfo() {
+        this.encodedDeviceInfo = null;
+    }
+
+    /**
+     * Stores the modem identifiers, invalidating the device info if they have changed.
+     *
+     * @return {@code true} if the identifiers have changed
+     */
+    private synchronized boolean updateModemIdentifiers(final String newImei, final String newImsi,
+            final String newIccid) {
+        if (Objects.equals(this.imei, newImei) && Objects.equals(this.imsi, newImsi)
+                && Objects.equals(this.iccid, newIccid)) {
+            return false;
+        }
+
+        this.imei = newImei;
+        this.imsi = newImsi;
+        this.iccid = newIccid;
+        this.encodedDeviceInfo = null;
+        return true;
+    }
+
+    private KuraPayload buildDeviceInfo() {
+        final KuraPayload payload = new KuraPayload();
+        final SystemService system = this.systemService;
+
+        final String displayName;
+        switch (this.options.getDisplayNameMode()) {
+        case DEVICE_NAME:
+            displayName = system.getDeviceName();
+            break;
+        case HOSTNAME:
+            displayName = system.getHostname();
+            break;
+        default:
+            displayName = this.options.getCustomDisplayName();
+            break;
+        }
+
+        addMetricIfNotNull(payload, "display_name", displayName);
+        addMetricIfNotNull(payload, "device_type", this.options.getDeviceType());
+        addMetricIfNotNull(payload, "model_name", system.getModelName());
+        addMetricIfNotNull(payload, "model_id", system.getModelId());
+        addMetricIfNotNull(payload, "part_number", system.getPartNumber());
+        addMetricIfNotNull(payload, "serial_number", system.getSerialNumber());
+        addMetricIfNotNull(payload, "firmware_version", system.getFirmwareVersion());
+        addMetricIfNotNull(payload, "bios_version", system.getBiosVersion());
+        addMetricIfNotNull(payload, "cpu_version", system.getCpuVersion());
+        addMetricIfNotNull(payload, "os", system.getOsName());
+        addMetricIfNotNull(payload, "os_version", system.getOsVersion());
+        addMetricIfNotNull(payload, "os_arch", system.getOsArch());
+        addMetricIfNotNull(payload, "jvm_name", system.getJavaVmName());
+        addMetricIfNotNull(payload, "jvm_version", system.getJavaVmVersion());
+        addMetricIfNotNull(payload, "kura_version", system.getKuraVersion());
+        payload.addMetric("available_processors", system.getNumberOfProcessors());
+        payload.addMetric("total_memory", system.getTotalMemory());
+        if (!isInvalidModemIdentifier(this.imei)) {
+            payload.addMetric("modem_imei", this.imei);
+        }
+        if (!isInvalidModemIdentifier(this.imsi)) {
+            payload.addMetric("modem_imsi", this.imsi);
+        }
+        if (!isInvalidModemIdentifier(this.iccid)) {
+            payload.addMetric("modem_iccid", this.iccid);
+        }
+        return payload;
+    }
+
+    private static void addMetricIfNotNull(final KuraPayload payload, final String name, final Object value) {
+        if (value != null) {
+            payload.addMetric(name, value);
+        }
+    }
+
+    private static boolean isInvalidModemIdentifier(final String identifier) {
+        return identifier == null || identifier.length() == 0 || identifier.equals("ERROR");
+    }
+
+    private static Map<String, Object> birthProperties(final String topic) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put(MqttCloudEndpointConstants.TOPIC.name(), topic);
+        properties.put(MqttCloudEndpointConstants.QOS.name(), 1);
+        properties.put(MqttCloudEndpointConstants.PRIORITY.name(), PublishPriority.HIGH);
+        return Collections.unmodifiableMap(properties);
+    }
+
+    private void updateAsyncPublishing() {
+        setAsyncPublishing(this.options.isAsyncPublishEnabled(), this.options.getAsyncPublishQueueCapacity(),
+                this.options.getAsyncPublishWorkers(), this.options.getAsyncPublishDrainBatchSize());
+    }
+
+    private void updateRateLimiting() {
+        setRateLimiting(this.options.isRateLimitEnabled(), this.options.getRateLimitMessagesPerSecond(),
+                this.options.getRateLimitBytesPerSecond(), this.options.getRateLimitBurstMs(),
+                this.options.getRateLimitPolicy(), this.options.getRateLimitMaxWaitMs());
+    }
+
+    private void updateSpooling() {
+        final String pid = (String) this.ctx.getProperties().get(ConfigurationService.KURA_SERVICE_PID);
+        setSpooling(this.options.isSpoolEnabled(), Paths.get(this.options.getSpoolDirectory(), pid),
+                this.options.getSpoolSegmentSize(), this.options.getSpoolMaxSegments(),
+                TimeUnit.SECONDS.toMillis(this.options.getSpoolMessageTtl()), this.options.getSpoolReplayRate());
+    }
+
+    private void updateChunkedTransfers() {
+        setChunkedTransfers(this.options.isChunkedTransferEnabled(), this.options.getChunkedTransferRate(),
+                this.options.getChunkedTransferMaxPending());
+    }
+
+    private void updateBufferPooling() {
+        setBufferPooling(this.options.isBufferPoolEnabled(), this.options.getBufferPoolMaxArraySize(),
+                this.options.getBufferPoolArraysPerClass());
+    }
+
+    private synchronized void updateLatencyTelemetry() {
+        stopLatencyTelemetry();
+
+        final int interval = this.options.getLatencyTelemetryInterval();
+        if (interval <= 0 || !this.options.isLatencyTrackingEnabled()) {
+            return;
+        }
+
+        this.latencyTelemetryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "WatsonLatencyTelemetry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.latencyTelemetryExecutor.scheduleAtFixedRate(this::publishLatencyTelemetry, interval, interval,
+                TimeUnit.SECONDS);
+    }
+
+    private synchronized void stopLatencyTelemetry() {
+        if (this.latencyTelemetryExecutor != null) {
+            this.latencyTelemetryExecutor.shutdownNow();
+            this.latencyTelemetryExecutor = null;
+        }
+    }
+
+    private void publishLatencyTelemetry() {
+        final Map<String, PublishLatencyStatistics> current = new HashMap<>();
+        for (final PublishLatencyStatistics statistics : getPublishLatencyStatistics()) {
+            final String key = statistics.getPublisherId() + '\u0000' + statistics.getTopic();
+            current.put(key, statistics);
+
+            final PublishLatencyStatistics previous = this.lastLatencyStatistics.get(key);
+            final PublishLatencyStatistics interval = previous == null ? statistics : statistics.since(previous);
+            if (interval.getTotalLatency().getCount() == 0 && interval.getHandOffLatency().getCount() == 0) {
+                continue;
+            }
+
+            try {
+                publishEncoded(latencyTelemetryProperties(), encodePayload(toLatencyPayload(interval)));
+            } catch (final Exception e) {
+                logger.debug("Cannot publish latency telemetry", e);
+            }
+        }
+        this.lastLatencyStatistics = current;
+    }
+
+    private Map<String, Object> latencyTelemetryProperties() {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put(MqttCloudEndpointConstants.TOPIC.name(), this.options.getLatencyTelemetryTopic());
+        properties.put(MqttCloudEndpointConstants.QOS.name(), 0);
+        return properties;
+    }
+
+    private static KuraPayload toLatencyPayload(final PublishLatencyStatistics statistics) {
+        final KuraPayload payload = new KuraPayload();
+        payload.setTimestamp(new Date());
+        payload.addMetric("publisher", statistics.getPublisherId());
+        payload.addMetric("topic", statistics.getTopic());
+        addLatencyMetrics(payload, "handoff", statistics.getHandOffLatency());
+        addLatencyMetrics(payload, "confirm", statistics.getConfirmationLatency());
+        addLatencyMetrics(payload, "total", statistics.getTotalLatency());
+        return payload;
+    }
+
+    private static void addLatencyMetrics(final KuraPayload payload, final String prefix,
+            final LatencySnapshot snapshot) {
+        payload.addMetric(prefix + ".count", snapshot.getCount());
+        payload.addMetric(prefix + ".p50.us", snapshot.getValueAtPercentile(50));
+        payload.addMetric(prefix + ".p90.us", snapshot.getValueAtPercentile(90));
+        payload.addMetric(prefix + ".p99.us", snapshot.getValueAtPercentile(99));
+        payload.addMetric(prefix + ".p999.us", snapshot.getValueAtPercentile(99.9));
+        payload.addMetric(prefix + ".max.us", snapshot.getMax());
     }
 
     private void postConnectionStateChangeEvent(final boolean isConnected) {
@@ -4,7 +4,11 @@
 
 package org.eclipse.kura.cloudconnection.watson.mqtt;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class WatsonCloudEndpointOptions {
 
@@ -13,24 +17,129 @@ public class WatsonCloudEndpointOptions {
             "republish.position.on.gps.lock", true);
     private static final Property<Boolean> REPUBLISH_MODEM_INFO_ON_MODEM_DETECT = new Property<>(
             "republish.modem.info.on.modem.detect", true);
+    private static final Property<Integer> CONNECTION_SHARDS = new Property<>("connection.shards", 1);
+    private static final Property<String> CONNECTION_SHARD_STRATEGY = new Property<>("connection.shard.strategy",
+            "hash");
+    private static final Property<String> CONNECTION_SHARD_CLIENT_IDS = new Property<>("connection.shard.client.ids",
+            "");
+    private static final Property<Integer> REPUBLISH_DEBOUNCE_MS = new Property<>("republish.debounce.ms", 5000);
     private static final Property<String> DISPLAY_NAME_MODE = new Property<>("device.display.name", "HOSTNAME");
     private static final Property<String> CUSTOM_DISPLAY_NAME = new Property<>("device.custom.name", "kura-gateway");
     private static final Property<String> DEVICE_TYPE = new Property<>("device.type", "Watson_MQTTDevice");
+    private static final Property<Integer> METRIC_NAME_CACHE_SIZE = new Property<>("metric.name.cache.size", 1024);
+    private static final Property<Boolean> ASYNC_PUBLISH_ENABLED = new Property<>("async.publish.enabled", false);
+    private static final Property<Integer> ASYNC_PUBLISH_QUEUE_CAPACITY = new Property<>(
+            "async.publish.queue.capacity", 4096);
+    private static final Property<Integer> ASYNC_PUBLISH_WORKERS = new Property<>("async.publish.workers", 1);
+    private static final Property<Integer> ASYNC_PUBLISH_DRAIN_BATCH_SIZE = new Property<>(
+            "async.publish.drain.batch.size", 64);
+    private static final Property<Boolean> LATENCY_TRACKING_ENABLED = new Property<>("latency.tracking.enabled",
+            true);
+    private static final Property<Integer> LATENCY_TELEMETRY_INTERVAL = new Property<>("latency.telemetry.interval",
+            0);
+    private static final Property<String> LATENCY_TELEMETRY_TOPIC = new Property<>("latency.telemetry.topic",
+            "iot-2/evt/kura-latency/fmt/json");
+    private static final Property<Boolean> RATE_LIMIT_ENABLED = new Property<>("rate.limit.enabled", false);
+    private static final Property<Integer> RATE_LIMIT_MESSAGES = new Property<>("rate.limit.messages.per.second",
+            10);
+    private static final Property<Integer> RATE_LIMIT_BYTES = new Property<>("rate.limit.bytes.per.second", 131072);
+    private static final Property<Integer> RATE_LIMIT_BURST = new Property<>("rate.limit.burst.ms", 1000);
+    private static final Property<String> RATE_LIMIT_POLICY = new Property<>("rate.limit.policy",
+            RateLimitPolicy.QUEUE.value());
+    private static final Property<Integer> RATE_LIMIT_MAX_WAIT = new Property<>("rate.limit.max.wait.ms", 5000);
+    private static final Property<Boolean> SPOOL_ENABLED = new Property<>("spool.enabled", false);
+    private static final Property<String> SPOOL_DIRECTORY = new Property<>("spool.directory",
+            "/opt/eclipse/kura/data/watson-spool");
+    private static final Property<Integer> SPOOL_SEGMENT_SIZE = new Property<>("spool.segment.size", 4194304);
+    private static final Property<Integer> SPOOL_MAX_SEGMENTS = new Property<>("spool.max.segments", 16);
+    private static final Property<Integer> SPOOL_MESSAGE_TTL = new Property<>("spool.message.ttl", 86400);
+    private static final Property<Integer> SPOOL_REPLAY_RATE = new Property<>("spool.replay.rate", 50);
+    private static final Property<Boolean> CHUNKED_TRANSFER_ENABLED = new Property<>("chunked.transfer.enabled", true);
+    private static final Property<Integer> CHUNKED_TRANSFER_RATE = new Property<>("chunked.transfer.rate", 20);
+    private static final Property<Integer> CHUNKED_TRANSFER_MAX_PENDING = new Property<>(
+            "chunked.transfer.max.pending", 8);
+    private static final Property<Boolean> BUFFER_POOL_ENABLED = new Property<>("buffer.pool.enabled", false);
+    private static final Property<Integer> BUFFER_POOL_MAX_ARRAY_SIZE = new Property<>("buffer.pool.max.array.size",
+            65536);
+    private static final Property<Integer> BUFFER_POOL_ARRAYS_PER_CLASS = new Property<>(
+            "buffer.pool.arrays.per.class", 8);
 
     private final boolean publishDeviceInfo;
     private final boolean republishPositionOnGpsLock;
     private final boolean republishModemInfoOnModemDetect;
+    private final int republishDebounceMs;
+    private final int connectionShards;
+    private final boolean shardRoundRobin;
+    private final List<String> shardClientIds;
     private final DisplayNameMode displayNameMode;
     private final String deviceCustomName;
     private final String deviceType;
+    private final int metricNameCacheSize;
+    private final boolean asyncPublishEnabled;
+    private final int asyncPublishQueueCapacity;
+    private final int asyncPublishWorkers;
+    private final int asyncPublishDrainBatchSize;
+    private final boolean latencyTrackingEnabled;
+    private final int latencyTelemetryInterval;
+    private final String latencyTelemetryTopic;
+    private final boolean rateLimitEnabled;
+    private final int rateLimitMessagesPerSecond;
+    private final int rateLimitBytesPerSecond;
+    private final int rateLimitBurstMs;
+    private final RateLimitPolicy rateLimitPolicy;
+    private final int rateLimitMaxWaitMs;
+    private final boolean spoolEnabled;
+    private final String spoolDirectory;
+    private final int spoolSegmentSize;
+    private final int spoolMaxSegments;
+    private final int spoolMessageTtl;
+    private final int spoolReplayRate;
+    private final boolean chunkedTransferEnabled;
+    private final int chunkedTransferRate;
+    private final int chunkedTransferMaxPending;
+    private final boolean bufferPoolEnabled;
+    private final int bufferPoolMaxArraySize;
+    private final int bufferPoolArraysPerClass;
 
     public WatsonCloudEndpointOptions(final Map<String, Object> properties) {
         this.publishDeviceInfo = PUBLISH_DEVICE_INFO.get(properties);
         this.republishPositionOnGpsLock = REPUBLISH_POSITION_ON_GPS_LOCK.get(properties);
         this.republishModemInfoOnModemDetect = REPUBLISH_MODEM_INFO_ON_MODEM_DETECT.get(properties);
+        this.republishDebounceMs = Math.max(0, REPUBLISH_DEBOUNCE_MS.get(properties));
+        this.connectionShards = Math.min(WatsonCloudConnectionFactory.MAX_SHARDS,
+                Math.max(1, CONNECTION_SHARDS.get(properties)));
+        this.shardRoundRobin = "round-robin".equalsIgnoreCase(CONNECTION_SHARD_STRATEGY.get(properties));
+        this.shardClientIds = Collections.unmodifiableList(Arrays.stream(CONNECTION_SHARD_CLIENT_IDS.get(properties)
+                .split(",")).map(String::trim).filter(id -> !id.isEmpty()).collect(Collectors.toList()));
         this.deviceCustomName = CUSTOM_DISPLAY_NAME.get(properties);
         this.displayNameMode = DisplayNameMode.valueOf(DISPLAY_NAME_MODE.get(properties));
         this.deviceType = DEVICE_TYPE.get(properties);
+        this.metricNameCacheSize = METRIC_NAME_CACHE_SIZE.get(properties);
+        this.asyncPublishEnabled = ASYNC_PUBLISH_ENABLED.get(properties);
+        this.asyncPublishQueueCapacity = Math.max(1, ASYNC_PUBLISH_QUEUE_CAPACITY.get(properties));
+        this.asyncPublishWorkers = Math.max(1, ASYNC_PUBLISH_WORKERS.get(properties));
+        this.asyncPublishDrainBatchSize = Math.max(1, ASYNC_PUBLISH_DRAIN_BATCH_SIZE.get(properties));
+        this.latencyTrackingEnabled = LATENCY_TRACKING_ENABLED.get(properties);
+        this.latencyTelemetryInterval = Math.max(0, LATENCY_TELEMETRY_INTERVAL.get(properties));
+        this.latencyTelemetryTopic = LATENCY_TELEMETRY_TOPIC.get(properties);
+        this.rateLimitEnabled = RATE_LIMIT_ENABLED.get(properties);
+        this.rateLimitMessagesPerSecond = Math.max(0, RATE_LIMIT_MESSAGES.get(properties));
+        this.rateLimitBytesPerSecond = Math.max(0, RATE_LIMIT_BYTES.get(properties));
+        this.rateLimitBurstMs = Math.max(1, RATE_LIMIT_BURST.get(properties));
+        this.rateLimitPolicy = RateLimitPolicy.fromValue(RATE_LIMIT_POLICY.get(properties));
+        this.rateLimitMaxWaitMs = Math.max(0, RATE_LIMIT_MAX_WAIT.get(properties));
+        this.spoolEnabled = SPOOL_ENABLED.get(properties);
+        this.spoolDirectory = SPOOL_DIRECTORY.get(properties);
+        this.spoolSegmentSize = Math.max(65536, SPOOL_SEGMENT_SIZE.get(properties));
+        this.spoolMaxSegments = Math.max(1, SPOOL_MAX_SEGMENTS.get(properties));
+        this.spoolMessageTtl = Math.max(1, SPOOL_MESSAGE_TTL.get(properties));
+        this.spoolReplayRate = Math.max(1, SPOOL_REPLAY_RATE.get(properties));
+        this.chunkedTransferEnabled = CHUNKED_TRANSFER_ENABLED.get(properties);
+        this.chunkedTransferRate = Math.max(1, CHUNKED_TRANSFER_RATE.get(properties));
+        this.chunkedTransferMaxPending = Math.max(1, CHUNKED_TRANSFER_MAX_PENDING.get(properties));
+        this.bufferPoolEnabled = BUFFER_POOL_ENABLED.get(properties);
+        this.bufferPoolMaxArraySize = Math.max(1024, BUFFER_POOL_MAX_ARRAY_SIZE.get(properties));
+        this.bufferPoolArraysPerClass = Math.max(1, BUFFER_POOL_ARRAYS_PER_CLASS.get(properties));
     }
 
     public boolean shouldPublishDeviceInfo() {
@@ -45,6 +154,37 @@ public class WatsonCloudEndpointOptions {
         return this.republishModemInfoOnModemDetect;
     }
 
+    /**
+     * Returns the time in milliseconds the device info and position publications wait for further triggering events,
+     * which are coalesced into a single publication.
+     */
+    public int getRepublishDebounceMs() {
+        return this.republishDebounceMs;
+    }
+
+    /**
+     * Returns the number of MQTT sessions, each with its own DataService and transport, the published messages are
+     * spread over.
+     */
+    public int getConnectionShards() {
+        return this.connectionShards;
+    }
+
+    /**
+     * Returns whether messages are assigned to the shards in round robin rather than by hashing their publisher.
+     */
+    public boolean isShardRoundRobin() {
+        return this.shardRoundRobin;
+    }
+
+    /**
+     * Returns the MQTT client ids of the shards 1 to n, in order. Shards without an entry derive their client id from
+     * the client id of the connection.
+     */
+    public List<String> getShardClientIds() {
+        return this.shardClientIds;
+    }
+
     public DisplayNameMode getDisplayNameMode() {
         return this.displayNameMode;
     }
@@ -57,6 +197,131 @@ public class WatsonCloudEndpointOptions {
         return this.deviceType;
     }
 
+    public int getMetricNameCacheSize() {
+        return this.metricNameCacheSize;
+    }
+
+    public boolean isAsyncPublishEnabled() {
+        return this.asyncPublishEnabled;
+    }
+
+    public int getAsyncPublishQueueCapacity() {
+        return this.asyncPublishQueueCapacity;
+    }
+
+    public int getAsyncPublishWorkers() {
+        return this.asyncPublishWorkers;
+    }
+
+    public int getAsyncPublishDrainBatchSize() {
+        return this.asyncPublishDrainBatchSize;
+    }
+
+    public boolean isLatencyTrackingEnabled() {
+        return this.latencyTrackingEnabled;
+    }
+
+    /**
+     * Returns the interval in seconds between the latency telemetry events, 0 if they are disabled.
+     */
+    public int getLatencyTelemetryInterval() {
+        return this.latencyTelemetryInterval;
+    }
+
+    public String getLatencyTelemetryTopic() {
+        return this.latencyTelemetryTopic;
+    }
+
+    public boolean isRateLimitEnabled() {
+        return this.rateLimitEnabled;
+    }
+
+    public int getRateLimitMessagesPerSecond() {
+        return this.rateLimitMessagesPerSecond;
+    }
+
+    public int getRateLimitBytesPerSecond() {
+        return this.rateLimitBytesPerSecond;
+    }
+
+    public int getRateLimitBurstMs() {
+        return this.rateLimitBurstMs;
+    }
+
+    public RateLimitPolicy getRateLimitPolicy() {
+        return this.rateLimitPolicy;
+    }
+
+    public int getRateLimitMaxWaitMs() {
+        return this.rateLimitMaxWaitMs;
+    }
+
+    public boolean isSpoolEnabled() {
+        return this.spoolEnabled;
+    }
+
+    public String getSpoolDirectory() {
+        return this.spoolDirectory;
+    }
+
+    public int getSpoolSegmentSize() {
+        return this.spoolSegmentSize;
+    }
+
+    public int getSpoolMaxSegments() {
+        return this.spoolMaxSegments;
+    }
+
+    /**
+     * Returns the time in seconds after which a spooled message is discarded instead of being replayed.
+     */
+    public int getSpoolMessageTtl() {
+        return this.spoolMessageTtl;
+    }
+
+    /**
+     * Returns the maximum number of spooled messages replayed per second.
+     */
+    public int getSpoolReplayRate() {
+        return this.spoolReplayRate;
+    }
+
+    public boolean isChunkedTransferEnabled() {
+        return this.chunkedTransferEnabled;
+    }
+
+    /**
+     * Returns the maximum number of chunks of large bodies published per second.
+     */
+    public int getChunkedTransferRate() {
+        return this.chunkedTransferRate;
+    }
+
+    /**
+     * Returns the maximum number of chunked transfers waiting to be sent.
+     */
+    public int getChunkedTransferMaxPending() {
+        return this.chunkedTransferMaxPending;
+    }
+
+    public boolean isBufferPoolEnabled() {
+        return this.bufferPoolEnabled;
+    }
+
+    /**
+     * Returns the size in bytes of the largest encoded payloads whose arrays are pooled.
+     */
+    public int getBufferPoolMaxArraySize() {
+        return this.bufferPoolMaxArraySize;
+    }
+
+    /**
+     * Returns the maximum number of idle arrays kept for each power of two size class.
+     */
+    public int getBufferPoolArraysPerClass() {
+        return this.bufferPoolArraysPerClass;
+    }
+
     public enum DisplayNameMode {
         DEVICE_NAME,
         HOSTNAME,
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.latency;
+
+/**
+ * An immutable copy of the latencies recorded by a histogram. All values are in microseconds.
+ *
+ * @noimplement This interface is not intended to be implemented by clients.
+ */
+public interface LatencySnapshot {
+
+    long getCount();
+
+    /**
+     * Returns the value below which the provided percentage of the recorded values fall, 0 if nothing has been
+     * recorded.
+     *
+     * @param percentile
+     *            a percentage between 0 and 100
+     */
+    long getValueAtPercentile(double percentile);
+
+    long getMax();
+
+    long getMean();
+
+    /**
+     * Returns the values recorded after the provided, older, snapshot of the same histogram was taken.
+     *
+     * @throws IllegalArgumentException
+     *             if the provided snapshot has not been taken by the same service
+     */
+    LatencySnapshot since(LatencySnapshot previous);
+}
@@ -0,0 +1,20 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.latency;
+
+import java.util.List;
+
+/**
+ * Provides the latency of the QoS 1 messages published through a Watson cloud endpoint, from the publish call to the
+ * hand-off to the broker and to the delivery confirmation, per publisher and topic.
+ *
+ */
+public interface PublishLatencyService {
+
+    /**
+     * Returns the latencies recorded since the endpoint has been activated, one entry per publisher and topic.
+     */
+    List<PublishLatencyStatistics> getPublishLatencyStatistics();
+}
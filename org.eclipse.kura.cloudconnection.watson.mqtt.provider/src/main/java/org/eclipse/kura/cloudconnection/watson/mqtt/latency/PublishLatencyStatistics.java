@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.latency;
+
+/**
+ * The latencies of the messages published by a publisher on a topic.
+ *
+ * @noimplement This interface is not intended to be implemented by clients.
+ */
+public interface PublishLatencyStatistics {
+
+    /**
+     * Returns the {@code kura.service.pid} of the publisher, empty for messages published without a publisher.
+     */
+    String getPublisherId();
+
+    String getTopic();
+
+    /**
+     * Returns the time from the publish call to the hand-off of the message to the broker.
+     */
+    LatencySnapshot getHandOffLatency();
+
+    /**
+     * Returns the time from the hand-off of the message to the broker to its delivery confirmation.
+     */
+    LatencySnapshot getConfirmationLatency();
+
+    /**
+     * Returns the time from the publish call to the delivery confirmation.
+     */
+    LatencySnapshot getTotalLatency();
+
+    /**
+     * Returns the latencies recorded after the provided, older, statistics of the same publisher and topic were
+     * taken.
+     *
+     * @throws IllegalArgumentException
+     *             if the provided statistics have not been returned by the same service
+     */
+    PublishLatencyStatistics since(PublishLatencyStatistics previous);
+}
@@ -0,0 +1,10 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+/**
+ * Provides the latency statistics of the messages published through a Watson cloud endpoint, to the bundles that
+ * monitor the gateway.
+ *
+ */
+package org.eclipse.kura.cloudconnection.watson.mqtt.latency;
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent map holding at most a fixed number of entries, evicted with the CLOCK approximation of the least
+ * recently used policy.
+ * <p>
+ * Lookups are lock free and do not reorder the entries, they only mark the entry found as used. An insertion beyond
+ * the capacity advances a hand over the entries, clearing the marks it passes, and evicts the first entry that has not
+ * been used since the previous sweep.
+ *
+ */
+final class BoundedCache<K, V> {
+
+    private final int capacity;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final LongAdder evictions = new LongAdder();
+
+    private final Object evictionLock = new Object();
+    private Iterator<Map.Entry<K, Entry<V>>> hand;
+
+    /**
+     * @param capacity
+     *            the maximum number of entries, {@code 0} disables the cache
+     */
+    BoundedCache(final int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * Returns the value mapped to the provided key, {@code null} if there is none.
+     */
+    V get(final K key) {
+        final Entry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.used) {
+            // skip the write when the mark is set, the entries read by all the publishers usually are
+            entry.used = true;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Maps the provided value to the key, unless the key is already mapped.
+     *
+     * @return the value mapped to the key
+     */
+    V putIfAbsent(final K key, final V value) {
+        if (this.capacity == 0) {
+            return value;
+        }
+
+        final Entry<V> previous = this.entries.putIfAbsent(key, new Entry<>(value));
+        if (previous != null) {
+            return previous.value;
+        }
+        if (this.entries.size() > this.capacity) {
+            evict();
+        }
+        return value;
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    private void evict() {
+        synchronized (this.evictionLock) {
+            // two sweeps clear all the marks, past them evict regardless of the concurrent lookups
+            int steps = 2 * this.entries.size();
+            while (this.entries.size() > this.capacity) {
+                if (this.hand == null || !this.hand.hasNext()) {
+                    this.hand = this.entries.entrySet().iterator();
+                    if (!this.hand.hasNext()) {
+                        return;
+                    }
+                }
+
+                final Map.Entry<K, Entry<V>> candidate = this.hand.next();
+                final Entry<V> entry = candidate.getValue();
+                if (entry.used && steps-- > 0) {
+                    entry.used = false;
+                } else if (this.entries.remove(candidate.getKey(), entry)) {
+                    this.evictions.increment();
+                }
+            }
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private volatile boolean used;
+
+        Entry(final V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.message.KuraPayload;
+
+/**
+ * Removes from the published payloads the metrics whose value has not changed beyond a deadband since it was last
+ * sent. Numeric values are compared with an absolute or a percentage deadband, other values are sent whenever they
+ * are not equal to the last sent value.
+ * <p>
+ * A keyframe, i.e. a payload with all its metrics, is sent first, then periodically and on request, so that consumers
+ * can rebuild the full state after missing messages.
+ *
+ */
+final class DeltaFilter {
+
+    private final double deadband;
+    private final boolean percentDeadband;
+    private final long keyframeIntervalNanos;
+
+    // last value sent for each metric
+    private final Map<String, Object> sentValues = new HashMap<>();
+    private long lastKeyframeNanos;
+    private boolean keyframeRequested = true;
+    private long keyframeRequests;
+
+    private long keyframes;
+    private long sentMetrics;
+    private long suppressedMetrics;
+    private long skippedPayloads;
+
+    DeltaFilter(final WatsonPublisherOptions options) {
+        this.deadband = options.getDeltaDeadband();
+        this.percentDeadband = options.isDeltaDeadbandPercent();
+        this.keyframeIntervalNanos = TimeUnit.SECONDS.toNanos(options.getDeltaKeyframeInterval());
+    }
+
+    /**
+     * Makes the next payload a keyframe.
+     */
+    synchronized void requestKeyframe() {
+        this.keyframeRequested = true;
+        this.keyframeRequests++;
+    }
+
+    /**
+     * Returns the payload to publish in place of the provided one: the payload itself if it is a keyframe, otherwise a
+     * copy with the changed metrics only. The values are recorded as sent by {@link #commit(Delta)}, once the payload
+     * has been accepted for publishing.
+     *
+     * @return the payload to publish, or {@code null} if no metric has changed and the payload has no body
+     */
+    synchronized Delta filter(final KuraPayload payload) {
+        final long now = System.nanoTime();
+        final Map<String, Object> metrics = payload.metrics();
+
+        if (this.keyframeRequested
+                || this.keyframeIntervalNanos > 0 && now - this.lastKeyframeNanos >= this.keyframeIntervalNanos) {
+            return new Delta(payload, true, now, this.keyframeRequests);
+        }
+
+        final KuraPayload delta = new KuraPayload();
+        delta.setTimestamp(payload.getTimestamp());
+        delta.setPosition(payload.getPosition());
+        delta.setBody(payload.getBody());
+
+        for (final Map.Entry<String, Object> metric : metrics.entrySet()) {
+            final String name = metric.getKey();
+            final Object value = metric.getValue();
+            if (hasChanged(this.sentValues.get(name), value)) {
+                delta.addMetric(name, value);
+            } else {
+                this.suppressedMetrics++;
+            }
+        }
+
+        if (!metrics.isEmpty() && delta.metricNames().isEmpty() && delta.getBody() == null) {
+            // nothing new to tell
+            this.skippedPayloads++;
+            return null;
+        }
+        return new Delta(delta, false, now, this.keyframeRequests);
+    }
+
+    /**
+     * Records the values of a payload returned by {@link #filter(KuraPayload)} as sent. A payload that could not be
+     * published is not committed, so that its changes are sent again with the next payload.
+     */
+    synchronized void commit(final Delta delta) {
+        final Map<String, Object> metrics = delta.payload.metrics();
+        if (delta.keyframe) {
+            // a keyframe requested while this one was being published is still due
+            this.keyframeRequested = delta.keyframeRequests != this.keyframeRequests;
+            this.lastKeyframeNanos = delta.nanos;
+            this.keyframes++;
+        }
+        this.sentMetrics += metrics.size();
+        this.sentValues.putAll(metrics);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeltaFilter [keyframes=" + this.keyframes + ", sentMetrics=" + this.sentMetrics
+                + ", suppressedMetrics=" + this.suppressedMetrics + ", skippedPayloads=" + this.skippedPayloads + "]";
+    }
+
+    private boolean hasChanged(final Object sent, final Object value) {
+        if (sent == null || value == null) {
+            return sent != value;
+        }
+
+        if (sent instanceof Number && value instanceof Number && sent.getClass() == value.getClass()) {
+            final double sentValue = ((Number) sent).doubleValue();
+            final double difference = Math.abs(((Number) value).doubleValue() - sentValue);
+            if (Double.isNaN(difference)) {
+                return !sent.equals(value);
+            }
+            final double threshold = this.percentDeadband ? Math.abs(sentValue) * this.deadband / 100 : this.deadband;
+            return difference > threshold || threshold == 0 && !sent.equals(value);
+        }
+
+        if (sent instanceof byte[] && value instanceof byte[]) {
+            return !Arrays.equals((byte[]) sent, (byte[]) value);
+        }
+        return !sent.equals(value);
+    }
+
+    /**
+     * A payload to publish in place of the one passed to {@link DeltaFilter#filter(KuraPayload)}.
+     */
+    static final class Delta {
+
+        private final KuraPayload payload;
+        private final boolean keyframe;
+        private final long nanos;
+        private final long keyframeRequests;
+
+        Delta(final KuraPayload payload, final boolean keyframe, final long nanos, final long keyframeRequests) {
+            this.payload = payload;
+            this.keyframe = keyframe;
+            this.nanos = nanos;
+            this.keyframeRequests = keyframeRequests;
+        }
+
+        KuraPayload getPayload() {
+            return this.payload;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.kura.KuraErrorCode;
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.watson.mqtt.MqttCloudEndpointConstants;
+
+/**
+ * The publishing properties of the devices a gateway publishes on behalf of. The device topic
+ * {@code iot-2/type/<type>/id/<id>/evt/<event>/fmt/<fmt>} is built once per device and event, together with an
+ * immutable copy of the publisher properties, and reused by the following messages of the device.
+ * <p>
+ * At most a configured number of devices is cached in a {@link BoundedCache}, evicting the least recently used ones,
+ * and a fixed number of events per device: the properties of further events are built on each publish.
+ *
+ */
+final class DeviceTopicCache {
+
+    private static final int MAX_EVENTS_PER_DEVICE = 32;
+
+    private final Map<String, Object> baseProperties;
+    private final String formatSuffix;
+    private final BoundedCache<List<String>, Map<String, Map<String, Object>>> devices;
+
+    /**
+     * @param baseProperties
+     *            the publisher properties, the TOPIC property is replaced by the device topic
+     */
+    DeviceTopicCache(final Map<String, Object> baseProperties, final WatsonPublisherOptions options) {
+        this.baseProperties = baseProperties;
+        this.formatSuffix = "/fmt/" + options.getPayloadFormat().value();
+        this.devices = new BoundedCache<>(options.getGatewayMaxDevices());
+    }
+
+    /**
+     * Returns the properties to publish an event of a device with.
+     *
+     * @throws KuraException
+     *             if the device type, device id or event id is empty or contains a topic separator or wildcard
+     */
+    Map<String, Object> getProperties(final String deviceType, final String deviceId, final String eventId)
+            throws KuraException {
+        final List<String> key = Arrays.asList(deviceType, deviceId);
+        Map<String, Map<String, Object>> events = this.devices.get(key);
+        if (events == null) {
+            // built first, so that invalid devices are not cached
+            final Map<String, Object> newProperties = buildProperties(deviceType, deviceId, eventId);
+            events = this.devices.putIfAbsent(key, new ConcurrentHashMap<>());
+            events.putIfAbsent(eventId, newProperties);
+            return newProperties;
+        }
+
+        final Map<String, Object> properties = events.get(eventId);
+        if (properties != null) {
+            return properties;
+        }
+
+        final Map<String, Object> newProperties = buildProperties(deviceType, deviceId, eventId);
+        if (events.size() < MAX_EVENTS_PER_DEVICE) {
+            events.putIfAbsent(eventId, newProperties);
+        }
+        return newProperties;
+    }
+
+    int getCachedDeviceCount() {
+        return this.devices.size();
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceTopicCache [cachedDevices=" + getCachedDeviceCount() + ", maxDevices=" + this.devices.getCapacity()
+                + ", evictedDevices=" + this.devices.getEvictionCount() + "]";
+    }
+
+    private Map<String, Object> buildProperties(final String deviceType, final String deviceId,
+            final String eventId) throws KuraException {
+        validateSegment("device type", deviceType);
+        validateSegment("device id", deviceId);
+        validateSegment("event id", eventId);
+
+        final String topic = new StringBuilder().append("iot-2/type/").append(deviceType).append("/id/")
+                .append(deviceId).append("/evt/").append(eventId).append(this.formatSuffix).toString();
+
+        final Map<String, Object> properties = new HashMap<>(this.baseProperties);
+        properties.put(MqttCloudEndpointConstants.TOPIC.name(), topic);
+        return Collections.unmodifiableMap(properties);
+    }
+
+    static void validateSegment(final String name, final String segment) throws KuraException {
+        if (segment.isEmpty() || segment.indexOf('/') >= 0 || segment.indexOf('+') >= 0
+                || segment.indexOf('#') >= 0) {
+            throw new KuraException(KuraErrorCode.INVALID_PARAMETER, "Invalid " + name + ": " + segment);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadBuffer;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects encoded payloads into an array of the publisher {@link PayloadFormat} and hands the array over to a
+ * {@link BatchSender} when the maximum number of messages or bytes is reached or when the first message of the batch
+ * has waited for the linger time.
+ * <p>
+ * Batches are sent in order. A batch that cannot be sent is kept, together with the batches completed after it, and
+ * sent again by the linger thread after a delay. It is dropped after {@link #MAX_SEND_ATTEMPTS} attempts, or when
+ * more than {@link #MAX_UNSENT_BATCHES} batches are waiting, logging the ids of its messages since they will never be
+ * confirmed.
+ *
+ */
+final class EventBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBatcher.class);
+
+    static final int MAX_SEND_ATTEMPTS = 5;
+    static final int MAX_UNSENT_BATCHES = 64;
+    private static final long MIN_RETRY_DELAY_MS = 1000;
+
+    interface BatchSender {
+
+        void send(byte[] batch, List<String> messageIds) throws KuraException;
+    }
+
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long lingerMs;
+    private final PayloadFormat format;
+    private final BatchSender sender;
+    private final ScheduledExecutorService lingerExecutor;
+    // held while sending, so that batches are sent one at a time and in order
+    private final Object sendLock = new Object();
+
+    private final PayloadBuffer buffer;
+    private List<String> messageIds = new ArrayList<>();
+    private int messageCount;
+    private long generation;
+    private boolean closed;
+    private final Deque<Batch> unsent = new ArrayDeque<>();
+    private boolean retryScheduled;
+
+    EventBatcher(final WatsonPublisherOptions options, final BatchSender sender) {
+        this.maxMessages = options.getBatchMaxMessages();
+        this.maxBytes = options.getBatchMaxBytes();
+        this.lingerMs = options.getBatchLingerMs();
+        this.format = options.getPayloadFormat();
+        this.sender = sender;
+        this.buffer = new PayloadBuffer(Math.min(this.maxBytes, 64 * 1024));
+        this.lingerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "WatsonPublisherBatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    PayloadFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Adds an encoded payload to the current batch.
+     *
+     * @param messageId
+     *            the id returned to the publisher caller, {@code null} for QoS 0 messages
+     * @return {@code false} if the batcher has been closed and the payload must be published on its own
+     */
+    boolean add(final byte[] encodedPayload, final String messageId) {
+        boolean completed = false;
+
+        synchronized (this) {
+            if (this.closed) {
+                return false;
+            }
+
+            if (this.messageCount > 0 && this.buffer.size() + encodedPayload.length + 2 > this.maxBytes) {
+                drain();
+                completed = true;
+            }
+
+            if (this.messageCount == 0) {
+                this.format.writeArrayStart(this.buffer);
+            } else {
+                this.format.writeArraySeparator(this.buffer);
+            }
+            this.buffer.write(encodedPayload);
+            if (messageId != null) {
+                this.messageIds.add(messageId);
+            }
+            this.messageCount++;
+
+            if (this.messageCount >= this.maxMessages || this.buffer.size() + 1 >= this.maxBytes) {
+                drain();
+                completed = true;
+            } else if (this.messageCount == 1) {
+                final long batchGeneration = this.generation;
+                this.lingerExecutor.schedule(() -> flush(batchGeneration), this.lingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (completed) {
+            sendUnsent();
+        }
+        return true;
+    }
+
+    /**
+     * Sends the pending batch and the batches waiting to be sent again, if any, and rejects all further payloads. The
+     * batches that cannot be sent are dropped.
+     */
+    void close() {
+        synchronized (this) {
+            this.closed = true;
+            if (this.messageCount > 0) {
+                drain();
+            }
+            this.retryScheduled = false;
+        }
+
+        this.lingerExecutor.shutdownNow();
+
+        sendUnsent();
+        synchronized (this) {
+            while (!this.unsent.isEmpty()) {
+                logDropped(this.unsent.poll(), "the batcher is closed");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of completed batches waiting to be sent.
+     */
+    synchronized int getUnsentBatchCount() {
+        return this.unsent.size();
+    }
+
+    private void flush(final long batchGeneration) {
+        synchronized (this) {
+            if (batchGeneration != this.generation || this.messageCount == 0) {
+                return;
+            }
+            drain();
+        }
+
+        sendUnsent();
+    }
+
+    private void retry() {
+        synchronized (this) {
+            this.retryScheduled = false;
+        }
+        sendUnsent();
+    }
+
+    /**
+     * Completes the current batch and queues it for sending, must be called holding the lock on the batcher.
+     */
+    private void drain() {
+        this.format.writeArrayEnd(this.buffer, 0, this.messageCount);
+        this.unsent.add(new Batch(this.buffer.toByteArray(), this.messageIds));
+        if (this.unsent.size() > MAX_UNSENT_BATCHES) {
+            logDropped(this.unsent.poll(), "too many batches are waiting to be sent");
+        }
+
+        this.buffer.reset();
+        this.messageIds = new ArrayList<>();
+        this.messageCount = 0;
+        this.generation++;
+    }
+
+    /**
+     * Sends the queued batches in order, stopping at the first failure, which is retried after a delay.
+     */
+    private void sendUnsent() {
+        synchronized (this.sendLock) {
+            while (true) {
+                final Batch batch;
+                synchronized (this) {
+                    if (this.retryScheduled) {
+                        // wait for the retry, not to hammer a failing endpoint
+                        return;
+                    }
+                    batch = this.unsent.peek();
+                }
+                if (batch == null) {
+                    return;
+                }
+
+                try {
+                    this.sender.send(batch.payload, batch.messageIds);
+                } catch (final Exception e) {
+                    onSendFailure(batch, e);
+                    return;
+                }
+
+                synchronized (this) {
+                    this.unsent.remove(batch);
+                }
+            }
+        }
+    }
+
+    private synchronized void onSendFailure(final Batch batch, final Exception e) {
+        if (!this.unsent.contains(batch)) {
+            // dropped to make room for newer batches
+            return;
+        }
+
+        batch.attempts++;
+        if (batch.attempts >= MAX_SEND_ATTEMPTS) {
+            this.unsent.remove(batch);
+            logger.warn("Failed to publish batch of {} bytes", batch.payload.length, e);
+            logDropped(batch, "it could not be sent after " + batch.attempts + " attempts");
+        } else {
+            logger.warn("Failed to publish batch of {} bytes, attempt {} of {}", batch.payload.length,
+                    batch.attempts, MAX_SEND_ATTEMPTS, e);
+        }
+
+        if (!this.closed && !this.unsent.isEmpty()) {
+            this.retryScheduled = true;
+            this.lingerExecutor.schedule(this::retry, Math.max(MIN_RETRY_DELAY_MS, this.lingerMs),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void logDropped(final Batch batch, final String reason) {
+        logger.warn("Dropped batch of {} bytes because {}, messages {} will not be confirmed", batch.payload.length,
+                reason, batch.messageIds);
+    }
+
+    private static final class Batch {
+
+        private final byte[] payload;
+        private final List<String> messageIds;
+        private int attempts;
+
+        Batch(final byte[] payload, final List<String> messageIds) {
+            this.payload = payload;
+            this.messageIds = Collections.unmodifiableList(messageIds);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.kura.KuraErrorCode;
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.cloudconnection.watson.mqtt.MqttCloudEndpointConstants;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadFormat;
+
+/**
+ * A publisher topic with {@code $name} placeholders, such as {@code iot-2/evt/$eventId/fmt/$fmt}, compiled into its
+ * literal parts and placeholders. {@code $fmt} is replaced by the payload format when compiling, the other placeholders
+ * are resolved from the {@link org.eclipse.kura.cloudconnection.message.KuraMessage} property with the same name or,
+ * if missing, with the name in upper snake case ({@code $eventId} from EVENT_ID).
+ * <p>
+ * The publishing properties of the resolved topics are kept in a {@link BoundedCache}, evicting the least recently used
+ * ones.
+ *
+ */
+final class TopicTemplate {
+
+    private static final String FORMAT_PLACEHOLDER = "fmt";
+
+    private final String[] literals;
+    private final String[] names;
+    private final String[] constantNames;
+    private final Map<String, Object> baseProperties;
+    private final BoundedCache<Object, Map<String, Object>> resolved;
+
+    private TopicTemplate(final List<String> literals, final List<String> names,
+            final Map<String, Object> baseProperties, final int cacheSize) {
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.names = names.toArray(new String[names.size()]);
+        this.constantNames = new String[this.names.length];
+        for (int i = 0; i < this.names.length; i++) {
+            this.constantNames[i] = toConstantName(this.names[i]);
+        }
+        this.baseProperties = baseProperties;
+        this.resolved = new BoundedCache<>(cacheSize);
+    }
+
+    /**
+     * Parses a topic template.
+     *
+     * @param baseProperties
+     *            the publisher properties, the TOPIC property is replaced by the resolved topic
+     */
+    static TopicTemplate compile(final String template, final PayloadFormat format,
+            final Map<String, Object> baseProperties, final int cacheSize) {
+        final List<String> literals = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            final char c = template.charAt(i);
+            int end = i + 1;
+            while (c == '$' && end < template.length() && isNameChar(template.charAt(end))) {
+                end++;
+            }
+
+            if (end == i + 1) {
+                literal.append(c);
+            } else {
+                final String name = template.substring(i + 1, end);
+                if (FORMAT_PLACEHOLDER.equals(name)) {
+                    literal.append(format.value());
+                } else {
+                    literals.add(literal.toString());
+                    names.add(name);
+                    literal.setLength(0);
+                }
+            }
+            i = end;
+        }
+        literals.add(literal.toString());
+
+        return new TopicTemplate(literals, names, baseProperties, cacheSize);
+    }
+
+    /**
+     * Returns whether the topic depends on the message properties.
+     */
+    boolean hasPlaceholders() {
+        return this.names.length > 0;
+    }
+
+    /**
+     * Returns the topic, with {@code $fmt} replaced, if there are no other placeholders, the literal part preceding the
+     * first placeholder otherwise.
+     */
+    String getTopic() {
+        return this.literals[0];
+    }
+
+    /**
+     * Returns the properties to publish a message with, on the topic resolved from its properties.
+     *
+     * @throws KuraException
+     *             if a placeholder has no matching message property, or its value is empty or contains a topic
+     *             separator or wildcard
+     */
+    Map<String, Object> getProperties(final Map<String, Object> messageProperties) throws KuraException {
+        final Object key;
+        final String[] values;
+        if (this.names.length == 1) {
+            values = null;
+            key = resolve(messageProperties, 0);
+        } else {
+            values = new String[this.names.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = resolve(messageProperties, i);
+            }
+            key = Arrays.asList(values);
+        }
+
+        final Map<String, Object> properties = this.resolved.get(key);
+        if (properties != null) {
+            return properties;
+        }
+
+        final StringBuilder topic = new StringBuilder(this.literals[0]);
+        for (int i = 0; i < this.names.length; i++) {
+            final String value = values != null ? values[i] : (String) key;
+            DeviceTopicCache.validateSegment(this.names[i], value);
+            topic.append(value).append(this.literals[i + 1]);
+        }
+
+        final Map<String, Object> newProperties = new HashMap<>(this.baseProperties);
+        newProperties.put(MqttCloudEndpointConstants.TOPIC.name(), topic.toString());
+        return this.resolved.putIfAbsent(key, Collections.unmodifiableMap(newProperties));
+    }
+
+    int getCachedTopicCount() {
+        return this.resolved.size();
+    }
+
+    private String resolve(final Map<String, Object> messageProperties, final int index) throws KuraException {
+        Object value = null;
+        if (messageProperties != null) {
+            value = messageProperties.get(this.names[index]);
+            if (value == null) {
+                value = messageProperties.get(this.constantNames[index]);
+            }
+        }
+        if (value == null) {
+            throw new KuraException(KuraErrorCode.INVALID_PARAMETER,
+                    "Missing message property for topic placeholder $" + this.names[index]);
+        }
+        return value.toString();
+    }
+
+    private static boolean isNameChar(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static String toConstantName(final String name) {
+        final StringBuilder constantName = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) {
+                constantName.append('_');
+            }
+            constantName.append(Character.toUpperCase(c));
+        }
+        return constantName.toString();
+    }
+}
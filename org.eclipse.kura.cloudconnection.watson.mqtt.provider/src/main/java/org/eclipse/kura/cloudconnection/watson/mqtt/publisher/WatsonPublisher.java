@@ -4,11 +4,16 @@
 
 package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.eclipse.kura.KuraErrorCode;
 import org.eclipse.kura.KuraException;
 import org.eclipse.kura.cloudconnection.CloudEndpoint;
 import org.eclipse.kura.cloudconnection.listener.CloudConnectionListener;
@@ -16,8 +21,10 @@ import org.eclipse.kura.cloudconnection.listener.CloudDeliveryListener;
 import org.eclipse.kura.cloudconnection.message.KuraMessage;
 import org.eclipse.kura.cloudconnection.publisher.CloudPublisher;
 import org.eclipse.kura.cloudconnection.watson.mqtt.MqttCloudEndpointConstants;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadFormat;
 import org.eclipse.kura.cloudconnection.watson.mqtt.WatsonCloudEndpoint;
 import org.eclipse.kura.configuration.ConfigurableComponent;
+import org.eclipse.kura.message.KuraPayload;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
@@ -32,14 +39,20 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
 
     private static final Logger logger = LoggerFactory.getLogger(WatsonPublisher.class);
 
-    private WatsonCloudEndpoint cloudConnectionService;
-    private ServiceTracker<CloudEndpoint, CloudEndpoint> tracker;
+    // the options and everything derived from them, replaced as a whole and read once per publish
+    private volatile PublisherState state = PublisherState.EMPTY;
 
-    private WatsonPublisherOptions options;
+    private ServiceTracker<CloudEndpoint, CloudEndpoint> tracker;
+    private String trackedCloudServicePid;
+    // the tracker of the previous cloud service, closed once the tracker of the new one has found it
+    private final AtomicReference<ServiceTracker<CloudEndpoint, CloudEndpoint>> retiredTracker = //
+            new AtomicReference<>();
     private BundleContext bundleContext;
 
     private final Set<CloudConnectionListener> registeredCloudConnectionStatusListener = new CopyOnWriteArraySet<>();
     private final Set<CloudDeliveryListener> registeredCloudDeliveryListeners = new CopyOnWriteArraySet<>();
+
+    private final AtomicLong batchedMessageSequence = new AtomicLong();
     
     /*
      * OSGi Activation Methods
@@ -58,9 +71,8 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
     public void updated(final Map<String, Object> properties) {
         logger.info("Updating...{}", this.getClass().getSimpleName());
 
-        closeCloudServiceTracker();
-
-        this.options = new WatsonPublisherOptions(properties);
+        // the cloud endpoint stays set while the options are replaced, the pending window and batch are sent to it
+        setOptions(new WatsonPublisherOptions(properties));
 
         try {
             reopenCloudServiceTracker();
@@ -74,7 +86,11 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
     public void deactivate() {
         logger.info("Deactivating...{}", this.getClass().getSimpleName());
 
+        final PublisherState current = this.state;
+        closeAggregator(current);
+        closeBatcher(current);
         closeCloudServiceTracker();
+        unsetCloudConnectionService();
 
         logger.info("Deactivating {}...done", this.getClass().getSimpleName());
     }
@@ -86,12 +102,38 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
 
     @Override
     public String publish(KuraMessage message) throws KuraException {
-        synchronized(this) {
-            Map<String, Object> publishMessageProps = new HashMap<>();
-            publishMessageProps.put(MqttCloudEndpointConstants.TOPIC.name(), this.options.getTopic());
-            publishMessageProps.put(MqttCloudEndpointConstants.QOS.name(), this.options.getQos());
-            return this.cloudConnectionService.publish(new KuraMessage(message.getPayload(), publishMessageProps));
+        // read the state once, a concurrent reconfiguration replaces it without blocking publishers
+        final PublisherState current = this.state;
+        if (current.endpoint == null) {
+            throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "The Cloud Service is null.");
         }
+
+        if (current.deviceTopics != null) {
+            final Map<String, Object> messageProperties = message.getProperties();
+            final Object deviceId = messageProperties != null
+                    ? messageProperties.get(MqttCloudEndpointConstants.DEVICE_ID.name())
+                    : null;
+            if (deviceId != null) {
+                return publishDeviceMessage(current, message, deviceId.toString());
+            }
+        }
+
+        if (current.topicTemplate != null) {
+            return publishMessage(current, message.getPayload(),
+                    current.topicTemplate.getProperties(message.getProperties()));
+        }
+
+        if (shouldChunk(current.options, message.getPayload())) {
+            return current.endpoint.publishChunked(message.getPayload(), current.properties,
+                    current.options.getChunkSize());
+        }
+
+        if (current.aggregator != null && current.aggregator.add(message.getPayload())) {
+            // the sample is published as part of the window aggregate
+            return null;
+        }
+
+        return publishPayload(current, message.getPayload());
     }
 
     @Override
@@ -120,6 +162,11 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
      */
     @Override
     public void onConnectionEstablished() {
+        final DeltaFilter currentDeltaFilter = this.state.deltaFilter;
+        if (currentDeltaFilter != null) {
+            // the messages published while disconnected may have been lost
+            currentDeltaFilter.requestKeyframe();
+        }
         this.registeredCloudConnectionStatusListener.forEach(CloudConnectionListener::onConnectionEstablished);
     }
 
@@ -142,26 +189,213 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
         this.registeredCloudDeliveryListeners.forEach(listener -> listener.onMessageConfirmed(messageId));
     }
 
+    /*
+     * Package-private Methods, also used to wire the publisher outside of an OSGi framework
+     */
+    void setOptions(final WatsonPublisherOptions options) {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(MqttCloudEndpointConstants.QOS.name(), options.getQos());
+        props.put(MqttCloudEndpointConstants.PRIORITY.name(), options.getPriority());
+        props.put(MqttCloudEndpointConstants.DELIVERY_LISTENER.name(), this);
+        props.put(MqttCloudEndpointConstants.PUBLISHER_ID.name(), options.getPublisherPid());
+        props.put(MqttCloudEndpointConstants.FORMAT.name(), options.getPayloadFormat());
+        props.put(MqttCloudEndpointConstants.COMPRESSION.name(), options.getCompression());
+        props.put(MqttCloudEndpointConstants.COMPRESSION_THRESHOLD.name(), options.getCompressionThreshold());
+
+        final TopicTemplate template = TopicTemplate.compile(options.getTopic(), options.getPayloadFormat(),
+                Collections.unmodifiableMap(new HashMap<>(props)), options.getTopicCacheSize());
+        props.put(MqttCloudEndpointConstants.TOPIC.name(), template.getTopic());
+        final Map<String, Object> properties = Collections.unmodifiableMap(props);
+
+        final PublisherState previous;
+        synchronized (this) {
+            previous = this.state;
+            this.state = new PublisherState(previous.endpoint, options, properties,
+                    template.hasPlaceholders() ? template : null,
+                    options.isGatewayEnabled() ? new DeviceTopicCache(properties, options) : null,
+                    options.isDeltaEnabled() ? new DeltaFilter(options) : null,
+                    options.isBatchEnabled() ? new EventBatcher(options,
+                            (batch, messageIds) -> sendBatch(properties, batch, messageIds)) : null,
+                    options.isAggregationEnabled() ? new WindowAggregator(options, this::publishAggregate) : null);
+        }
+
+        // the publishers still holding the previous state fall back to publishing on their own once it is closed
+        if (previous.deltaFilter != null) {
+            logger.info("replaced {}", previous.deltaFilter);
+        }
+        closeAggregator(previous);
+        closeBatcher(previous);
+    }
+
+    synchronized void setCloudConnectionService(final WatsonCloudEndpoint cConnectionService) {
+        final WatsonCloudEndpoint previous = this.state.endpoint;
+        if (previous == cConnectionService) {
+            return;
+        }
+        this.state = this.state.withEndpoint(cConnectionService);
+        cConnectionService.registerCloudConnectionListener(this);
+        if (previous != null) {
+            previous.unregisterCloudConnectionListener(this);
+        }
+    }
+
+    synchronized void unsetCloudConnectionService() {
+        final WatsonCloudEndpoint endpoint = this.state.endpoint;
+        this.state = this.state.withEndpoint(null);
+        if (endpoint != null) {
+            endpoint.unregisterCloudConnectionListener(this);
+        }
+    }
+
     /*
      * Private Methods
      */
+    private synchronized void unsetCloudConnectionService(final CloudEndpoint removed) {
+        // the endpoint may have been replaced already by the one of a newly configured cloud service
+        if (this.state.endpoint == removed) {
+            unsetCloudConnectionService();
+        }
+    }
+
+    private void sendBatch(final Map<String, Object> properties, final byte[] batch, final List<String> messageIds)
+            throws KuraException {
+        final WatsonCloudEndpoint endpoint = this.state.endpoint;
+        if (endpoint == null) {
+            throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "The Cloud Service is null.");
+        }
+
+        // the confirmation of the batch is routed by the endpoint to its own listener, registered before the batch
+        // is published since the confirmation can be notified before publishEncoded returns
+        final Map<String, Object> batchProps = new HashMap<>(properties);
+        batchProps.put(MqttCloudEndpointConstants.DELIVERY_LISTENER.name(),
+                (CloudDeliveryListener) batchId -> messageIds.forEach(this::onMessageConfirmed));
+        endpoint.publishEncoded(batchProps, batch);
+    }
+
+    private String publishPayload(final PublisherState current, final KuraPayload rawPayload) throws KuraException {
+        if (current.deltaFilter == null) {
+            return publishUnfiltered(current, rawPayload);
+        }
+
+        final DeltaFilter.Delta delta = current.deltaFilter.filter(rawPayload);
+        if (delta == null) {
+            // no metric has changed, there is nothing to publish
+            return null;
+        }
+        final String messageId = publishUnfiltered(current, delta.getPayload());
+        current.deltaFilter.commit(delta);
+        return messageId;
+    }
+
+    private String publishUnfiltered(final PublisherState current, final KuraPayload payload) throws KuraException {
+        if (current.batcher != null) {
+            final String messageId = current.options.getQos() == 0 ? null
+                    : "batch-" + this.batchedMessageSequence.incrementAndGet();
+            final byte[] encodedPayload = current.endpoint.encodePayload(payload, current.batcher.getFormat());
+            if (current.batcher.add(encodedPayload, messageId)) {
+                return messageId;
+            }
+        }
+
+        return current.endpoint.publish(new KuraMessage(payload, current.properties));
+    }
+
+    /**
+     * Publishes the message of a device on its own topic. Device messages, like the messages published on a topic
+     * template, skip the delta filter, the window aggregation and the batching, which track a single stream.
+     */
+    private String publishDeviceMessage(final PublisherState current, final KuraMessage message,
+            final String deviceId) throws KuraException {
+        final Map<String, Object> messageProperties = message.getProperties();
+        final Object deviceType = messageProperties.get(MqttCloudEndpointConstants.DEVICE_TYPE.name());
+        if (deviceType == null) {
+            throw new KuraException(KuraErrorCode.INVALID_PARAMETER, "Missing device type for device " + deviceId);
+        }
+        final Object eventId = messageProperties.get(MqttCloudEndpointConstants.EVENT_ID.name());
+
+        final Map<String, Object> deviceProperties = current.deviceTopics.getProperties(deviceType.toString(),
+                deviceId, eventId != null ? eventId.toString() : current.options.getGatewayEvent());
+        return publishMessage(current, message.getPayload(), deviceProperties);
+    }
+
+    /**
+     * Publishes a payload with the provided properties, as a chunked transfer if its body is too large.
+     */
+    private String publishMessage(final PublisherState current, final KuraPayload payload,
+            final Map<String, Object> properties) throws KuraException {
+        if (shouldChunk(current.options, payload)) {
+            return current.endpoint.publishChunked(payload, properties, current.options.getChunkSize());
+        }
+        return current.endpoint.publish(new KuraMessage(payload, properties));
+    }
+
+    private static boolean shouldChunk(final WatsonPublisherOptions options, final KuraPayload payload) {
+        if (!options.isChunkEnabled() || options.getPayloadFormat() != PayloadFormat.JSON) {
+            return false;
+        }
+        final byte[] body = payload.getBody();
+        return body != null && body.length > options.getChunkSize();
+    }
+
+    private void publishAggregate(final KuraPayload aggregate) throws KuraException {
+        final PublisherState current = this.state;
+        if (current.endpoint == null) {
+            throw new KuraException(KuraErrorCode.SERVICE_UNAVAILABLE, "The Cloud Service is null.");
+        }
+        publishPayload(current, aggregate);
+    }
+
+    private static void closeAggregator(final PublisherState previous) {
+        if (previous.aggregator != null) {
+            previous.aggregator.close();
+            logger.info("closed {}", previous.aggregator);
+        }
+    }
+
+    private static void closeBatcher(final PublisherState previous) {
+        if (previous.batcher != null) {
+            previous.batcher.close();
+        }
+    }
+
     private void reopenCloudServiceTracker() throws InvalidSyntaxException {
-        closeCloudServiceTracker();
+        final String cloudServicePid = this.state.options.getCloudConnectionServicePid();
+        if (this.tracker != null && cloudServicePid.equals(this.trackedCloudServicePid)) {
+            return;
+        }
 
-        final String cloudServicePid = this.options.getCloudConnectionServicePid();
         final String filterString = new StringBuilder()
                 .append("(&(objectClass=org.eclipse.kura.cloudconnection.CloudEndpoint)(kura.service.pid=")
                 .append(cloudServicePid).append("))").toString();
+        final ServiceTracker<CloudEndpoint, CloudEndpoint> previousTracker = this.tracker;
 
         this.tracker = new ServiceTracker<>(this.bundleContext, FrameworkUtil.createFilter(filterString),
                 new CloudServiceTrackerCustomizer());
+        this.trackedCloudServicePid = cloudServicePid;
+
+        // the previous cloud service stays in use until the new one is found, unless it was not found either
+        if (previousTracker != null && !previousTracker.isEmpty()) {
+            closeRetiredTracker();
+            this.retiredTracker.set(previousTracker);
+        } else if (previousTracker != null) {
+            previousTracker.close();
+        }
         this.tracker.open();
     }
-    
+
     private void closeCloudServiceTracker() {
+        closeRetiredTracker();
         if (this.tracker != null) {
             this.tracker.close();
             this.tracker = null;
+            this.trackedCloudServicePid = null;
+        }
+    }
+
+    private void closeRetiredTracker() {
+        final ServiceTracker<CloudEndpoint, CloudEndpoint> retired = this.retiredTracker.getAndSet(null);
+        if (retired != null) {
+            retired.close();
         }
     }
 
@@ -174,6 +408,7 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
 
             if (service instanceof WatsonCloudEndpoint) {
                 setCloudConnectionService((WatsonCloudEndpoint) service);
+                closeRetiredTracker();
                 logger.info("CloudConnectionService found");
                 return service;
             } else {
@@ -186,22 +421,49 @@ public class WatsonPublisher implements CloudPublisher, ConfigurableComponent, C
 
         @Override
         public void removedService(final ServiceReference<CloudEndpoint> reference, final CloudEndpoint service) {
-            unsetCloudConnectionService();
+            unsetCloudConnectionService(service);
         }
 
         @Override
         public void modifiedService(ServiceReference<CloudEndpoint> reference, CloudEndpoint service) {
             // no need
         }
-        
-        private synchronized void setCloudConnectionService(final WatsonCloudEndpoint cConnectionService) {
-            cloudConnectionService = cConnectionService;
-            cloudConnectionService.registerCloudConnectionListener(WatsonPublisher.this);
+    }
+
+    /**
+     * The options of the publisher and the state derived from them, together with the cloud endpoint in use.
+     */
+    private static final class PublisherState {
+
+        static final PublisherState EMPTY = new PublisherState(null, null, Collections.emptyMap(), null, null, null,
+                null, null);
+
+        final WatsonCloudEndpoint endpoint;
+        final WatsonPublisherOptions options;
+        final Map<String, Object> properties;
+        final TopicTemplate topicTemplate;
+        final DeviceTopicCache deviceTopics;
+        final DeltaFilter deltaFilter;
+        final EventBatcher batcher;
+        final WindowAggregator aggregator;
+
+        PublisherState(final WatsonCloudEndpoint endpoint, final WatsonPublisherOptions options,
+                final Map<String, Object> properties, final TopicTemplate topicTemplate,
+                final DeviceTopicCache deviceTopics, final DeltaFilter deltaFilter, final EventBatcher batcher,
+                final WindowAggregator aggregator) {
+            this.endpoint = endpoint;
+            this.options = options;
+            this.properties = properties;
+            this.topicTemplate = topicTemplate;
+            this.deviceTopics = deviceTopics;
+            this.deltaFilter = deltaFilter;
+            this.batcher = batcher;
+            this.aggregator = aggregator;
         }
 
-        private synchronized void unsetCloudConnectionService() {
-            cloudConnectionService.unregisterCloudConnectionListener(WatsonPublisher.this);
-            cloudConnectionService = null;
+        PublisherState withEndpoint(final WatsonCloudEndpoint newEndpoint) {
+            return new PublisherState(newEndpoint, this.options, this.properties, this.topicTemplate,
+                    this.deviceTopics, this.deltaFilter, this.batcher, this.aggregator);
         }
     }
 }
@@ -7,36 +7,240 @@ package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
 import java.util.Map;
 
 import org.eclipse.kura.cloudconnection.CloudConnectionConstants;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadCompression;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PayloadFormat;
+import org.eclipse.kura.cloudconnection.watson.mqtt.PublishPriority;
+import org.eclipse.kura.configuration.ConfigurationService;
 
 public class WatsonPublisherOptions {
     
     private static final Property<String> CLOUD_CONNECTION_SERVICE_PID_PROPERTY = new Property<>(
             CloudConnectionConstants.CLOUD_ENDPOINT_SERVICE_PID_PROP_NAME.value(), "");
+    private static final Property<String> PUBLISHER_PID_PROPERTY = new Property<>(
+            ConfigurationService.KURA_SERVICE_PID, "");
     private static final Property<String> PROPERTY_TOPIC = new Property<>("topic", "iot-2/evt/status/fmt/json");
+    private static final Property<Integer> PROPERTY_TOPIC_CACHE_SIZE = new Property<>("topic.cache.size", 256);
     private static final Property<Integer> PROPERTY_QOS = new Property<>("qos", 0);
+    private static final Property<String> PROPERTY_PRIORITY = new Property<>("priority",
+            PublishPriority.NORMAL.value());
+    private static final Property<String> PROPERTY_PAYLOAD_FORMAT = new Property<>("payload.format", "auto");
+    private static final Property<Boolean> PROPERTY_BATCH_ENABLED = new Property<>("batch.enabled", false);
+    private static final Property<Integer> PROPERTY_BATCH_MAX_MESSAGES = new Property<>("batch.max.messages", 100);
+    private static final Property<Integer> PROPERTY_BATCH_MAX_BYTES = new Property<>("batch.max.bytes", 65536);
+    private static final Property<Integer> PROPERTY_BATCH_LINGER_MS = new Property<>("batch.linger.ms", 1000);
+    private static final Property<String> PROPERTY_COMPRESSION = new Property<>("compression", "none");
+    private static final Property<Integer> PROPERTY_COMPRESSION_THRESHOLD = new Property<>("compression.threshold",
+            1024);
+    private static final Property<Boolean> PROPERTY_DELTA_ENABLED = new Property<>("delta.enabled", false);
+    private static final Property<String> PROPERTY_DELTA_DEADBAND_TYPE = new Property<>("delta.deadband.type",
+            "absolute");
+    private static final Property<Double> PROPERTY_DELTA_DEADBAND = new Property<>("delta.deadband", 0.0);
+    private static final Property<Integer> PROPERTY_DELTA_KEYFRAME_INTERVAL = new Property<>(
+            "delta.keyframe.interval", 60);
+    private static final Property<Boolean> PROPERTY_AGGREGATION_ENABLED = new Property<>("aggregation.enabled",
+            false);
+    private static final Property<Integer> PROPERTY_AGGREGATION_WINDOW_MS = new Property<>("aggregation.window.ms",
+            1000);
+    private static final Property<Boolean> PROPERTY_GATEWAY_ENABLED = new Property<>("gateway.enabled", false);
+    private static final Property<String> PROPERTY_GATEWAY_EVENT = new Property<>("gateway.event", "status");
+    private static final Property<Integer> PROPERTY_GATEWAY_MAX_DEVICES = new Property<>("gateway.max.devices",
+            1024);
+    private static final Property<Boolean> PROPERTY_CHUNK_ENABLED = new Property<>("chunk.enabled", false);
+    private static final Property<Integer> PROPERTY_CHUNK_SIZE = new Property<>("chunk.size", 32768);
     
     private final String cloudConnectionServicePid;
+    private final String publisherPid;
     private final String topic;
+    private final int topicCacheSize;
     private final int qos;
+    private final PublishPriority priority;
+    private final PayloadFormat payloadFormat;
+    private final boolean batchEnabled;
+    private final int batchMaxMessages;
+    private final int batchMaxBytes;
+    private final int batchLingerMs;
+    private final PayloadCompression compression;
+    private final int compressionThreshold;
+    private final boolean deltaEnabled;
+    private final boolean deltaDeadbandPercent;
+    private final double deltaDeadband;
+    private final int deltaKeyframeInterval;
+    private final boolean aggregationEnabled;
+    private final int aggregationWindowMs;
+    private final boolean gatewayEnabled;
+    private final String gatewayEvent;
+    private final int gatewayMaxDevices;
+    private final boolean chunkEnabled;
+    private final int chunkSize;
     
     public WatsonPublisherOptions(final Map<String, Object> properties) {
         this.cloudConnectionServicePid = CLOUD_CONNECTION_SERVICE_PID_PROPERTY.get(properties);
-        this.topic = PROPERTY_TOPIC.get(properties);
+        this.publisherPid = PUBLISHER_PID_PROPERTY.get(properties);
+        this.topicCacheSize = Math.max(1, PROPERTY_TOPIC_CACHE_SIZE.get(properties));
         this.qos = PROPERTY_QOS.get(properties);
+        this.priority = PublishPriority.fromValue(PROPERTY_PRIORITY.get(properties));
+        final String configuredTopic = PROPERTY_TOPIC.get(properties);
+        this.payloadFormat = parsePayloadFormat(PROPERTY_PAYLOAD_FORMAT.get(properties), configuredTopic);
+        // an explicit format overrides the one named by the topic
+        this.topic = this.payloadFormat.toTopic(configuredTopic);
+        this.batchEnabled = PROPERTY_BATCH_ENABLED.get(properties);
+        this.batchMaxMessages = Math.max(1, PROPERTY_BATCH_MAX_MESSAGES.get(properties));
+        this.batchMaxBytes = Math.max(1, PROPERTY_BATCH_MAX_BYTES.get(properties));
+        this.batchLingerMs = Math.max(0, PROPERTY_BATCH_LINGER_MS.get(properties));
+        this.compression = PayloadCompression.fromValue(PROPERTY_COMPRESSION.get(properties));
+        this.compressionThreshold = Math.max(0, PROPERTY_COMPRESSION_THRESHOLD.get(properties));
+        this.deltaEnabled = PROPERTY_DELTA_ENABLED.get(properties);
+        this.deltaDeadbandPercent = "percent".equalsIgnoreCase(PROPERTY_DELTA_DEADBAND_TYPE.get(properties));
+        this.deltaDeadband = Math.max(0, PROPERTY_DELTA_DEADBAND.get(properties));
+        this.deltaKeyframeInterval = Math.max(0, PROPERTY_DELTA_KEYFRAME_INTERVAL.get(properties));
+        this.aggregationEnabled = PROPERTY_AGGREGATION_ENABLED.get(properties);
+        this.aggregationWindowMs = Math.max(1, PROPERTY_AGGREGATION_WINDOW_MS.get(properties));
+        this.gatewayEnabled = PROPERTY_GATEWAY_ENABLED.get(properties);
+        this.gatewayEvent = PROPERTY_GATEWAY_EVENT.get(properties);
+        this.gatewayMaxDevices = Math.max(0, PROPERTY_GATEWAY_MAX_DEVICES.get(properties));
+        this.chunkEnabled = PROPERTY_CHUNK_ENABLED.get(properties);
+        this.chunkSize = Math.max(1024, PROPERTY_CHUNK_SIZE.get(properties));
     }
     
     public String getCloudConnectionServicePid() {
         return this.cloudConnectionServicePid;
     }
     
+    public String getPublisherPid() {
+        return this.publisherPid;
+    }
+    
+    /**
+     * Returns the configured topic, with its {@code fmt} segment naming the payload format.
+     */
     public String getTopic() {
         return this.topic;
     }
     
+    /**
+     * Returns the maximum number of topics resolved from a topic template that are kept for reuse.
+     */
+    public int getTopicCacheSize() {
+        return this.topicCacheSize;
+    }
+
     public int getQos() {
         return this.qos;
     }
+
+    public PublishPriority getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Returns the format payloads are encoded with, derived from the {@code fmt} topic segment unless configured
+     * explicitly.
+     */
+    public PayloadFormat getPayloadFormat() {
+        return this.payloadFormat;
+    }
+
+    public boolean isBatchEnabled() {
+        return this.batchEnabled;
+    }
+
+    public int getBatchMaxMessages() {
+        return this.batchMaxMessages;
+    }
+
+    public int getBatchMaxBytes() {
+        return this.batchMaxBytes;
+    }
+
+    public int getBatchLingerMs() {
+        return this.batchLingerMs;
+    }
+
+    public PayloadCompression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * Returns the minimum size in bytes of an encoded payload, or batch of payloads, for it to be compressed.
+     */
+    public int getCompressionThreshold() {
+        return this.compressionThreshold;
+    }
     
+    public boolean isDeltaEnabled() {
+        return this.deltaEnabled;
+    }
+
+    /**
+     * Returns whether the delta deadband is a percentage of the last sent value rather than an absolute difference.
+     */
+    public boolean isDeltaDeadbandPercent() {
+        return this.deltaDeadbandPercent;
+    }
+
+    public double getDeltaDeadband() {
+        return this.deltaDeadband;
+    }
+
+    /**
+     * Returns the interval in seconds between keyframes, 0 if keyframes are only sent on reconnect.
+     */
+    public int getDeltaKeyframeInterval() {
+        return this.deltaKeyframeInterval;
+    }
+
+    public boolean isAggregationEnabled() {
+        return this.aggregationEnabled;
+    }
+
+    public int getAggregationWindowMs() {
+        return this.aggregationWindowMs;
+    }
+
+    /**
+     * Returns whether messages carrying a DEVICE_ID property are published on the topic of that device rather than on
+     * the configured topic.
+     */
+    public boolean isGatewayEnabled() {
+        return this.gatewayEnabled;
+    }
+
+    /**
+     * Returns the event id of the device messages without an EVENT_ID property.
+     */
+    public String getGatewayEvent() {
+        return this.gatewayEvent;
+    }
+
+    public int getGatewayMaxDevices() {
+        return this.gatewayMaxDevices;
+    }
+
+    /**
+     * Returns whether JSON payloads with a body larger than the chunk size are published as a chunked transfer.
+     */
+    public boolean isChunkEnabled() {
+        return this.chunkEnabled;
+    }
+
+    /**
+     * Returns the maximum number of body bytes carried by a chunk.
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    private static PayloadFormat parsePayloadFormat(final String value, final String topic) {
+        if (!"auto".equalsIgnoreCase(value)) {
+            try {
+                return PayloadFormat.fromValue(value);
+            } catch (final IllegalArgumentException e) {
+                // fall back to the topic format
+            }
+        }
+        return PayloadFormat.fromTopic(topic);
+    }
+
     private static final class Property<T> {
 
         private final String key;
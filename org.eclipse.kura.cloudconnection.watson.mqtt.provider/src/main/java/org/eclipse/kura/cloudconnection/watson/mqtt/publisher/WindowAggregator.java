@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.publisher;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.kura.KuraException;
+import org.eclipse.kura.message.KuraPayload;
+import org.eclipse.kura.message.KuraPosition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Folds the published payloads into tumbling time windows and hands over to a {@link WindowEmitter} one payload per
+ * window. Each numeric metric {@code name} is replaced by the {@code name.min}, {@code name.max}, {@code name.avg},
+ * {@code name.count} and {@code name.last} metrics of the window, the other metrics, the position and the body keep
+ * their last value.
+ * <p>
+ * Numeric metrics are folded into accumulators of primitive fields that are reused across windows, so aggregating a
+ * sample does not allocate.
+ *
+ */
+final class WindowAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(WindowAggregator.class);
+
+    interface WindowEmitter {
+
+        void emit(KuraPayload aggregate) throws KuraException;
+    }
+
+    private final WindowEmitter emitter;
+    private final ScheduledExecutorService windowExecutor;
+
+    private final Map<String, Accumulator> accumulators = new LinkedHashMap<>();
+    private final Map<String, Object> lastValues = new HashMap<>();
+    private KuraPosition lastPosition;
+    private byte[] lastBody;
+    private long sampleCount;
+    private boolean closed;
+
+    private long windows;
+    private long samples;
+
+    WindowAggregator(final WatsonPublisherOptions options, final WindowEmitter emitter) {
+        this.emitter = emitter;
+
+        final long windowMs = options.getAggregationWindowMs();
+        this.windowExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "WatsonPublisherAggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.windowExecutor.scheduleAtFixedRate(this::emitWindow, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a payload to the current window.
+     *
+     * @return {@code false} if the aggregator has been closed and the payload must be published on its own
+     */
+    synchronized boolean add(final KuraPayload payload) {
+        if (this.closed) {
+            return false;
+        }
+
+        for (final Map.Entry<String, Object> metric : payload.metrics().entrySet()) {
+            final Object value = metric.getValue();
+            if (value instanceof Number) {
+                Accumulator accumulator = this.accumulators.get(metric.getKey());
+                if (accumulator == null) {
+                    accumulator = new Accumulator();
+                    this.accumulators.put(metric.getKey(), accumulator);
+                }
+                accumulator.add(((Number) value).doubleValue());
+            } else if (value != null) {
+                this.lastValues.put(metric.getKey(), value);
+            }
+        }
+
+        if (payload.getPosition() != null) {
+            this.lastPosition = payload.getPosition();
+        }
+        if (payload.getBody() != null) {
+            this.lastBody = payload.getBody();
+        }
+        this.sampleCount++;
+        this.samples++;
+        return true;
+    }
+
+    /**
+     * Emits the current window, if it is not empty, and rejects all further payloads.
+     */
+    void close() {
+        final KuraPayload pending;
+        synchronized (this) {
+            this.closed = true;
+            pending = drain();
+        }
+
+        this.windowExecutor.shutdownNow();
+
+        if (pending != null) {
+            emit(pending);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WindowAggregator [windows=" + this.windows + ", samples=" + this.samples + "]";
+    }
+
+    private void emitWindow() {
+        final KuraPayload aggregate;
+        synchronized (this) {
+            aggregate = drain();
+        }
+
+        if (aggregate != null) {
+            emit(aggregate);
+        }
+    }
+
+    private void emit(final KuraPayload aggregate) {
+        try {
+            this.emitter.emit(aggregate);
+        } catch (final Exception e) {
+            logger.warn("failed to publish aggregated window", e);
+        }
+    }
+
+    /**
+     * Builds the payload of the current window and starts a new one.
+     *
+     * @return the payload, or {@code null} if no payload has been added to the window
+     */
+    private KuraPayload drain() {
+        if (this.sampleCount == 0) {
+            return null;
+        }
+
+        final KuraPayload aggregate = new KuraPayload();
+        aggregate.setTimestamp(new Date());
+        aggregate.setPosition(this.lastPosition);
+        aggregate.setBody(this.lastBody);
+
+        for (final Map.Entry<String, Accumulator> entry : this.accumulators.entrySet()) {
+            final Accumulator accumulator = entry.getValue();
+            if (accumulator.count == 0) {
+                continue;
+            }
+            final String name = entry.getKey();
+            aggregate.addMetric(name + ".min", accumulator.min);
+            aggregate.addMetric(name + ".max", accumulator.max);
+            aggregate.addMetric(name + ".avg", accumulator.sum / accumulator.count);
+            aggregate.addMetric(name + ".count", accumulator.count);
+            aggregate.addMetric(name + ".last", accumulator.last);
+            accumulator.reset();
+        }
+        for (final Map.Entry<String, Object> entry : this.lastValues.entrySet()) {
+            aggregate.addMetric(entry.getKey(), entry.getValue());
+        }
+
+        this.lastValues.clear();
+        this.lastPosition = null;
+        this.lastBody = null;
+        this.sampleCount = 0;
+        this.windows++;
+        return aggregate;
+    }
+
+    private static final class Accumulator {
+
+        private double min;
+        private double max;
+        private double sum;
+        private double last;
+        private long count;
+
+        void add(final double value) {
+            if (this.count == 0) {
+                this.min = value;
+                this.max = value;
+            } else {
+                this.min = Math.min(this.min, value);
+                this.max = Math.max(this.max, value);
+            }
+            this.sum += value;
+            this.last = value;
+            this.count++;
+        }
+
+        void reset() {
+            this.sum = 0;
+            this.count = 0;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.subscriber;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.eclipse.kura.cloudconnection.message.KuraMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded queue of received messages drained by a dedicated thread, so that a slow consumer only delays its own
+ * messages. When the queue is full the configured {@link OverflowPolicy} is applied.
+ * <p>
+ * Messages are offered by the dispatch thread shared by all the subscribers of a cloud connection, which must never
+ * wait. With the {@link OverflowPolicy#BLOCK} policy, the messages that find the queue full wait for room in a second
+ * queue of the same capacity, moved to the delivery queue by the delivery thread as it takes messages, and are dropped
+ * if they have waited longer than the block timeout.
+ *
+ */
+final class DeliveryQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryQueue.class);
+
+    private final BlockingQueue<KuraMessage> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int capacity;
+    private final long blockTimeoutNanos;
+    private final Deque<WaitingMessage> waiting = new ArrayDeque<>();
+    private final Consumer<KuraMessage> consumer;
+    private final Thread deliveryThread;
+
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    DeliveryQueue(final WatsonSubscriberOptions options, final String name, final Consumer<KuraMessage> consumer) {
+        this.capacity = options.getQueueCapacity();
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+        this.overflowPolicy = options.getOverflowPolicy();
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getBlockTimeoutMs());
+        this.consumer = consumer;
+
+        this.deliveryThread = new Thread(this::deliver, name);
+        this.deliveryThread.setDaemon(true);
+        this.deliveryThread.start();
+    }
+
+    /**
+     * Queues a message for delivery, applying the overflow policy if the queue is full. Never waits.
+     *
+     * @return {@code false} if a message, the provided one or an older one, has been dropped
+     */
+    boolean offer(final KuraMessage message) {
+        if (this.closed) {
+            return false;
+        }
+        if (this.overflowPolicy == OverflowPolicy.BLOCK) {
+            return offerOrWait(message);
+        }
+        if (this.queue.offer(message)) {
+            return true;
+        }
+
+        switch (this.overflowPolicy) {
+        case DROP_OLDEST:
+            while (!this.queue.offer(message)) {
+                if (this.queue.poll() != null) {
+                    this.dropped.increment();
+                }
+            }
+            return false;
+        default:
+            this.dropped.increment();
+            return false;
+        }
+    }
+
+    int size() {
+        synchronized (this.waiting) {
+            return this.queue.size() + this.waiting.size();
+        }
+    }
+
+    long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Stops the delivery thread, the queued messages are discarded.
+     */
+    void close() {
+        this.closed = true;
+        this.deliveryThread.interrupt();
+
+        final int discarded;
+        synchronized (this.waiting) {
+            discarded = this.queue.size() + this.waiting.size();
+            this.queue.clear();
+            this.waiting.clear();
+        }
+        if (discarded > 0) {
+            logger.info("{} discarded {} queued messages", this.deliveryThread.getName(), discarded);
+        }
+    }
+
+    private void deliver() {
+        while (!this.closed) {
+            final KuraMessage message;
+            try {
+                message = this.queue.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (this.overflowPolicy == OverflowPolicy.BLOCK) {
+                moveWaitingMessages();
+            }
+
+            try {
+                this.consumer.accept(message);
+            } catch (final Exception e) {
+                logger.warn("failed to deliver message", e);
+            }
+        }
+    }
+
+    private boolean offerOrWait(final KuraMessage message) {
+        synchronized (this.waiting) {
+            // the waiting messages go first, to keep the order
+            if (this.waiting.isEmpty() && this.queue.offer(message)) {
+                return true;
+            }
+
+            final long now = System.nanoTime();
+            dropExpiredMessages(now);
+            if (this.waiting.size() >= this.capacity) {
+                this.dropped.increment();
+                return false;
+            }
+            this.waiting.add(new WaitingMessage(message, now + this.blockTimeoutNanos));
+            return true;
+        }
+    }
+
+    private void moveWaitingMessages() {
+        synchronized (this.waiting) {
+            dropExpiredMessages(System.nanoTime());
+            while (!this.waiting.isEmpty() && this.queue.offer(this.waiting.peek().message)) {
+                this.waiting.poll();
+            }
+        }
+    }
+
+    private void dropExpiredMessages(final long now) {
+        while (!this.waiting.isEmpty() && now - this.waiting.peek().deadlineNanos > 0) {
+            this.waiting.poll();
+            this.dropped.increment();
+        }
+    }
+
+    private static final class WaitingMessage {
+
+        private final KuraMessage message;
+        private final long deadlineNanos;
+
+        WaitingMessage(final KuraMessage message, final long deadlineNanos) {
+            this.message = message;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
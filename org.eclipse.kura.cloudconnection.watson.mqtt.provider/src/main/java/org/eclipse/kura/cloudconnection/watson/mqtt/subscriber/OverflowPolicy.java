@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.subscriber;
+
+/**
+ * What a {@link DeliveryQueue} does with a message that arrives while the queue is full.
+ *
+ */
+enum OverflowPolicy {
+
+    /**
+     * Discards the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST("drop-oldest"),
+
+    /**
+     * Discards the new message.
+     */
+    DROP_NEWEST("drop-newest"),
+
+    /**
+     * Lets the new message wait for room up to the configured timeout, then discards it. The wait only delays the
+     * messages of the subscriber, not the delivery to the other subscribers.
+     */
+    BLOCK("block");
+
+    private final String value;
+
+    private OverflowPolicy(final String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the string representation of the constant
+     *
+     * @return the string value
+     */
+    public String value() {
+        return this.value;
+    }
+
+    /**
+     * Returns the policy with the provided value, ignoring case, or {@link #DROP_OLDEST} if there is no such policy.
+     */
+    static OverflowPolicy fromValue(final String value) {
+        for (final OverflowPolicy policy : values()) {
+            if (policy.value.equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        return DROP_OLDEST;
+    }
+}
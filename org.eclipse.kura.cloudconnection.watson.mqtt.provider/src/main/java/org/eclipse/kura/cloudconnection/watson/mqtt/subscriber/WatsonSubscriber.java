@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.subscriber;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.eclipse.kura.cloudconnection.CloudEndpoint;
+import org.eclipse.kura.cloudconnection.listener.CloudConnectionListener;
+import org.eclipse.kura.cloudconnection.message.KuraMessage;
+import org.eclipse.kura.cloudconnection.subscriber.CloudSubscriber;
+import org.eclipse.kura.cloudconnection.subscriber.listener.CloudSubscriberListener;
+import org.eclipse.kura.cloudconnection.watson.mqtt.MqttCloudEndpointConstants;
+import org.eclipse.kura.cloudconnection.watson.mqtt.WatsonCloudEndpoint;
+import org.eclipse.kura.configuration.ConfigurableComponent;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class WatsonSubscriber
+        implements CloudSubscriber, ConfigurableComponent, CloudConnectionListener, CloudSubscriberListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatsonSubscriber.class);
+
+    private WatsonCloudEndpoint cloudConnectionService;
+    private ServiceTracker<CloudEndpoint, CloudEndpoint> tracker;
+
+    private WatsonSubscriberOptions options;
+    private volatile DeliveryQueue deliveryQueue;
+    private BundleContext bundleContext;
+    private String name;
+
+    private final Set<CloudConnectionListener> registeredCloudConnectionListeners = new CopyOnWriteArraySet<>();
+    private final Set<CloudSubscriberListener> registeredCloudSubscriberListeners = new CopyOnWriteArraySet<>();
+
+    /*
+     * OSGi Activation Methods
+     * 
+     */
+    public void activate(final ComponentContext context, final Map<String, Object> properties) {
+        logger.info("Activating...{}", this.getClass().getSimpleName());
+
+        this.bundleContext = context.getBundleContext();
+        final Object pid = properties.get("kura.service.pid");
+        this.name = "WatsonSubscriber-" + (pid != null ? pid : this.getClass().getSimpleName());
+
+        updated(properties);
+
+        logger.info("Activating {}...done", this.getClass().getSimpleName());
+    }
+
+    public void updated(final Map<String, Object> properties) {
+        logger.info("Updating...{}", this.getClass().getSimpleName());
+
+        closeCloudServiceTracker();
+        closeDeliveryQueue();
+
+        this.options = new WatsonSubscriberOptions(properties);
+        this.deliveryQueue = new DeliveryQueue(this.options, this.name, this::deliver);
+
+        try {
+            reopenCloudServiceTracker();
+        } catch (Exception e) {
+            logger.warn("Invalid cloud.service.pid value in configuration", e);
+        }
+
+        logger.info("Updating {}...done", this.getClass().getSimpleName());
+    }
+
+    public void deactivate() {
+        logger.info("Deactivating...{}", this.getClass().getSimpleName());
+
+        closeCloudServiceTracker();
+        closeDeliveryQueue();
+
+        logger.info("Deactivating {}...done", this.getClass().getSimpleName());
+    }
+
+    /*
+     * CloudSubscriber Methods
+     * 
+     */
+    @Override
+    public void registerCloudSubscriberListener(CloudSubscriberListener cloudSubscriberListener) {
+        this.registeredCloudSubscriberListeners.add(cloudSubscriberListener);
+    }
+
+    @Override
+    public void unregisterCloudSubscriberListener(CloudSubscriberListener cloudSubscriberListener) {
+        this.registeredCloudSubscriberListeners.remove(cloudSubscriberListener);
+    }
+
+    @Override
+    public void registerCloudConnectionListener(CloudConnectionListener cloudConnectionListener) {
+        this.registeredCloudConnectionListeners.add(cloudConnectionListener);
+    }
+
+    @Override
+    public void unregisterCloudConnectionListener(CloudConnectionListener cloudConnectionListener) {
+        this.registeredCloudConnectionListeners.remove(cloudConnectionListener);
+    }
+
+    /**
+     * Returns the number of messages dropped because the delivery queue was full.
+     */
+    public long getDroppedMessageCount() {
+        final DeliveryQueue queue = this.deliveryQueue;
+        return queue != null ? queue.getDroppedCount() : 0;
+    }
+
+    /*
+     * CloudSubscriberListener Methods, called by the endpoint dispatch thread
+     * 
+     */
+    @Override
+    public void onMessageArrived(KuraMessage message) {
+        final DeliveryQueue queue = this.deliveryQueue;
+        if (queue != null && !queue.offer(message)) {
+            logger.debug("{} delivery queue full, dropped a message", this.name);
+        }
+    }
+
+    /*
+     * CloudConnectionListener Methods
+     * 
+     */
+    @Override
+    public void onConnectionEstablished() {
+        this.registeredCloudConnectionListeners.forEach(CloudConnectionListener::onConnectionEstablished);
+    }
+
+    @Override
+    public void onConnectionLost() {
+        this.registeredCloudConnectionListeners.forEach(CloudConnectionListener::onConnectionLost);
+    }
+
+    @Override
+    public void onDisconnected() {
+        this.registeredCloudConnectionListeners.forEach(CloudConnectionListener::onDisconnected);
+    }
+
+    /*
+     * Private Methods
+     */
+    private void deliver(final KuraMessage message) {
+        for (final CloudSubscriberListener listener : this.registeredCloudSubscriberListeners) {
+            try {
+                listener.onMessageArrived(message);
+            } catch (final Exception e) {
+                logger.warn("{} listener failed to handle message", this.name, e);
+            }
+        }
+    }
+
+    private synchronized void setCloudConnectionService(final WatsonCloudEndpoint cConnectionService) {
+        final Map<String, Object> subscriptionProperties = new HashMap<>();
+        subscriptionProperties.put(MqttCloudEndpointConstants.TOPIC.name(), this.options.getTopic());
+        subscriptionProperties.put(MqttCloudEndpointConstants.QOS.name(), this.options.getQos());
+
+        this.cloudConnectionService = cConnectionService;
+        this.cloudConnectionService.registerCloudConnectionListener(this);
+        this.cloudConnectionService.registerSubscriber(Collections.unmodifiableMap(subscriptionProperties), this);
+    }
+
+    private synchronized void unsetCloudConnectionService() {
+        final WatsonCloudEndpoint endpoint = this.cloudConnectionService;
+        this.cloudConnectionService = null;
+        if (endpoint != null) {
+            endpoint.unregisterSubscriber(this);
+            endpoint.unregisterCloudConnectionListener(this);
+        }
+    }
+
+    private void closeDeliveryQueue() {
+        final DeliveryQueue queue = this.deliveryQueue;
+        this.deliveryQueue = null;
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    private void reopenCloudServiceTracker() throws InvalidSyntaxException {
+        closeCloudServiceTracker();
+
+        final String cloudServicePid = this.options.getCloudConnectionServicePid();
+        final String filterString = new StringBuilder()
+                .append("(&(objectClass=org.eclipse.kura.cloudconnection.CloudEndpoint)(kura.service.pid=")
+                .append(cloudServicePid).append("))").toString();
+
+        this.tracker = new ServiceTracker<>(this.bundleContext, FrameworkUtil.createFilter(filterString),
+                new CloudServiceTrackerCustomizer());
+        this.tracker.open();
+    }
+
+    private void closeCloudServiceTracker() {
+        if (this.tracker != null) {
+            this.tracker.close();
+            this.tracker = null;
+        }
+    }
+
+    private final class CloudServiceTrackerCustomizer
+            implements ServiceTrackerCustomizer<CloudEndpoint, CloudEndpoint> {
+
+        @Override
+        public CloudEndpoint addingService(final ServiceReference<CloudEndpoint> reference) {
+            final CloudEndpoint service = WatsonSubscriber.this.bundleContext.getService(reference);
+
+            if (service instanceof WatsonCloudEndpoint) {
+                setCloudConnectionService((WatsonCloudEndpoint) service);
+                logger.info("CloudConnectionService found");
+                return service;
+            } else {
+                logger.warn("configured CloudConnectionService is not a WatsonCloudConnectionService, ignoring it");
+                WatsonSubscriber.this.bundleContext.ungetService(reference);
+            }
+
+            return null;
+        }
+
+        @Override
+        public void removedService(final ServiceReference<CloudEndpoint> reference, final CloudEndpoint service) {
+            unsetCloudConnectionService();
+        }
+
+        @Override
+        public void modifiedService(ServiceReference<CloudEndpoint> reference, CloudEndpoint service) {
+            // no need
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2011, 2019 Eurotech and/or its affiliates. All rights reserved.
+ *******************************************************************************/
+
+package org.eclipse.kura.cloudconnection.watson.mqtt.subscriber;
+
+import java.util.Map;
+
+import org.eclipse.kura.cloudconnection.CloudConnectionConstants;
+
+public class WatsonSubscriberOptions {
+
+    private static final Property<String> CLOUD_CONNECTION_SERVICE_PID_PROPERTY = new Property<>(
+            CloudConnectionConstants.CLOUD_ENDPOINT_SERVICE_PID_PROP_NAME.value(), "");
+    private static final Property<String> PROPERTY_TOPIC = new Property<>("topic", "iot-2/cmd/+/fmt/+");
+    private static final Property<Integer> PROPERTY_QOS = new Property<>("qos", 0);
+    private static final Property<Integer> PROPERTY_QUEUE_CAPACITY = new Property<>("queue.capacity", 1000);
+    private static final Property<String> PROPERTY_QUEUE_OVERFLOW_POLICY = new Property<>("queue.overflow.policy",
+            OverflowPolicy.DROP_OLDEST.value());
+    private static final Property<Integer> PROPERTY_QUEUE_BLOCK_TIMEOUT_MS = new Property<>("queue.block.timeout.ms",
+            1000);
+    private static final Property<String> PROPERTY_DEVICE_TYPE = new Property<>("device.type", "");
+    private static final Property<String> PROPERTY_DEVICE_ID = new Property<>("device.id", "+");
+    private static final Property<String> PROPERTY_COMMAND_ID = new Property<>("command.id", "+");
+
+    private final String cloudConnectionServicePid;
+    private final String topic;
+    private final int qos;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int blockTimeoutMs;
+
+    public WatsonSubscriberOptions(final Map<String, Object> properties) {
+        this.cloudConnectionServicePid = CLOUD_CONNECTION_SERVICE_PID_PROPERTY.get(properties);
+        this.topic = buildTopic(properties);
+        this.qos = PROPERTY_QOS.get(properties);
+        this.queueCapacity = Math.max(1, PROPERTY_QUEUE_CAPACITY.get(properties));
+        this.overflowPolicy = OverflowPolicy.fromValue(PROPERTY_QUEUE_OVERFLOW_POLICY.get(properties));
+        this.blockTimeoutMs = Math.max(0, PROPERTY_QUEUE_BLOCK_TIMEOUT_MS.get(properties));
+    }
+
+    public String getCloudConnectionServicePid() {
+        return this.cloudConnectionServicePid;
+    }
+
+    /**
+     * Returns the configured topic, or the device command topic
+     * {@code iot-2/type/<type>/id/<id>/cmd/<command>/fmt/+} if a device type is configured.
+     */
+    public String getTopic() {
+        return this.topic;
+    }
+
+    public int getQos() {
+        return this.qos;
+    }
+
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * Returns how long the {@code block} overflow policy waits for room in the queue before dropping a message.
+     */
+    public int getBlockTimeoutMs() {
+        return this.blockTimeoutMs;
+    }
+
+    private static String buildTopic(final Map<String, Object> properties) {
+        final String deviceType = PROPERTY_DEVICE_TYPE.get(properties).trim();
+        if (deviceType.isEmpty()) {
+            return PROPERTY_TOPIC.get(properties);
+        }
+
+        return new StringBuilder().append("iot-2/type/").append(deviceType).append("/id/")
+                .append(PROPERTY_DEVICE_ID.get(properties).trim()).append("/cmd/")
+                .append(PROPERTY_COMMAND_ID.get(properties).trim()).append("/fmt/+").toString();
+    }
+
+    private static final class Property<T> {
+
+        private final String key;
+        private final T defaultValue;
+
+        public Property(final String key, final T defaultValue) {
+            this.key = key;
+            this.defaultValue = defaultValue;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T get(final Map<String, Object> properties) {
+            final Object value = properties.get(this.key);
+
+            if (this.defaultValue.getClass().isInstance(value)) {
+                return (T) value;
+            }
+            return this.defaultValue;
+        }
+    }
+
+}